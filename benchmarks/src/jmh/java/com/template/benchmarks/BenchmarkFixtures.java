@@ -0,0 +1,70 @@
+package com.template.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.money.FiatCurrency;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.internal.SerializationEnvironmentKt;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.internal.InternalSerializationTestHelpersKt;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+
+import static net.corda.testing.core.TestConstants.DUMMY_NOTARY_NAME;
+
+/**
+ * Identities, states and the serialization environment shared by the benchmark suites. Outside a node nothing sets
+ * up Corda's AMQP serialization, which transaction ids and the serializer benchmarks depend on, so every suite calls
+ * {@link #initSerialization()} from its setup.
+ */
+final class BenchmarkFixtures {
+
+    static final TestIdentity NOTARY = new TestIdentity(DUMMY_NOTARY_NAME, 20);
+    static final TestIdentity SELLER = new TestIdentity(CordaX500Name.parse("O=PartyA,L=London,C=GB"));
+    static final TestIdentity BUYER = new TestIdentity(CordaX500Name.parse("O=PartyB,L=New York,C=US"));
+    static final TestIdentity CURRENCY_ISSUER = new TestIdentity(CordaX500Name.parse("O=CurrencyIssuer,L=New York,C=US"));
+
+    static final List<String> CORDAPP_PACKAGES = ImmutableList.of(
+            "com.template.contracts",
+            "com.r3.corda.lib.tokens.contracts");
+
+    private BenchmarkFixtures() {
+    }
+
+    static synchronized void initSerialization() {
+        if (SerializationEnvironmentKt.get_globalSerializationEnv().get() == null)
+            SerializationEnvironmentKt.get_globalSerializationEnv()
+                    .set(InternalSerializationTestHelpersKt.createTestSerializationEnv());
+    }
+
+    static InstrumentState instrument(Party issuer) {
+        Amount<Currency> valuation = Amount.parseCurrency("1000 USD");
+        return new InstrumentState(new UniqueIdentifier(), ImmutableList.of(issuer), "Guitar", 2019, "B-0001",
+                valuation, 2, valuation);
+    }
+
+    static IssuedTokenType usd() {
+        TokenType tokenType = FiatCurrency.Companion.getInstance("USD");
+        return new IssuedTokenType(CURRENCY_ISSUER.getParty(), tokenType);
+    }
+
+    /* Unrecorded currency tokens held by the buyer, as the buyer would send them to the seller */
+    static List<StateAndRef<FungibleToken>> buyerTokens(int count, long quantityEach) {
+        IssuedTokenType usd = usd();
+        List<StateAndRef<FungibleToken>> tokens = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            FungibleToken token = new FungibleToken(new Amount<>(quantityEach, usd), BUYER.getParty(), null);
+            tokens.add(new StateAndRef<>(new TransactionState<>(token, NOTARY.getParty()),
+                    new StateRef(SecureHash.randomSHA256(), 0)));
+        }
+        return tokens;
+    }
+}
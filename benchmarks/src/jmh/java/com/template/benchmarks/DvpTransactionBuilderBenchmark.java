@@ -0,0 +1,102 @@
+package com.template.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.commands.Create;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.workflows.flows.issue.IssueTokensUtilities;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
+import com.template.states.InstrumentState;
+import kotlin.Pair;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.nodeapi.internal.persistence.CordaPersistence;
+import net.corda.testing.node.MockServices;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.template.benchmarks.BenchmarkFixtures.*;
+import static net.corda.testing.node.MockServicesKt.makeTestIdentityService;
+
+/**
+ * Seller-side assembly of the DvP transaction built by SellInstrumentFlow: the move of the held instrument token,
+ * which queries the seller's vault, plus the buyer's currency inputs and outputs, at varying numbers of currency
+ * inputs. The seller's vault is an H2 database holding one instrument and its token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DvpTransactionBuilderBenchmark {
+
+    @Param({"1", "10", "50", "200"})
+    public int inputTokens;
+
+    private CordaPersistence database;
+    private MockServices services;
+    private TokenPointer<InstrumentState> pointer;
+    private List<StateAndRef<FungibleToken>> inputs;
+    private List<FungibleToken> outputs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        initSerialization();
+        Pair<CordaPersistence, MockServices> databaseAndServices = MockServices.makeTestDatabaseAndMockServices(
+                CORDAPP_PACKAGES,
+                makeTestIdentityService(NOTARY.getIdentity(), SELLER.getIdentity(), BUYER.getIdentity(),
+                        CURRENCY_ISSUER.getIdentity()),
+                SELLER);
+        database = databaseAndServices.getFirst();
+        services = databaseAndServices.getSecond();
+
+        /* The seller's vault holds the instrument and its token, like after IssueInstrumentFlow */
+        InstrumentState instrument = instrument(SELLER.getParty());
+        pointer = instrument.toPointer();
+        NonFungibleToken heldToken = new NonFungibleToken(new IssuedTokenType(SELLER.getParty(), pointer),
+                SELLER.getParty(), new UniqueIdentifier(), null);
+        database.transaction(tx -> {
+            services.recordTransactions(services.signInitialTransaction(new TransactionBuilder(NOTARY.getParty())
+                    .addOutputState(instrument)
+                    .addCommand(new Create(), SELLER.getPublicKey())));
+            TransactionBuilder issueBuilder = new TransactionBuilder(NOTARY.getParty());
+            IssueTokensUtilities.addIssueTokens(issueBuilder, ImmutableList.of(heldToken));
+            services.recordTransactions(services.signInitialTransaction(issueBuilder));
+            return null;
+        });
+
+        /* The buyer pays 1000 with inputTokens tokens and takes back the rest as change */
+        long quantityEach = 1001 / inputTokens + 1;
+        inputs = buyerTokens(inputTokens, quantityEach);
+        IssuedTokenType usd = usd();
+        outputs = ImmutableList.of(
+                new FungibleToken(new Amount<>(1000L, usd), SELLER.getParty(), null),
+                new FungibleToken(new Amount<>(quantityEach * inputTokens - 1000L, usd), BUYER.getParty(), null));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public TransactionBuilder assembleDvp() {
+        return database.transaction(tx -> {
+            TransactionBuilder transactionBuilder = new TransactionBuilder(NOTARY.getParty());
+            MoveTokensUtilities.addMoveNonFungibleTokens(transactionBuilder, services, pointer, BUYER.getParty());
+            MoveTokensUtilities.addMoveTokens(transactionBuilder, inputs, outputs);
+            return transactionBuilder;
+        });
+    }
+
+    @Benchmark
+    public TransactionBuilder assembleCurrencyLeg() {
+        TransactionBuilder transactionBuilder = new TransactionBuilder(NOTARY.getParty());
+        MoveTokensUtilities.addMoveTokens(transactionBuilder, inputs, outputs);
+        return transactionBuilder;
+    }
+}
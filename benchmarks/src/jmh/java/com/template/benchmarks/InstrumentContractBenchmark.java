@@ -0,0 +1,86 @@
+package com.template.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.commands.Create;
+import com.r3.corda.lib.tokens.contracts.commands.Update;
+import com.template.contracts.InstrumentContract;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.testing.node.MockServices;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.template.benchmarks.BenchmarkFixtures.*;
+
+/**
+ * Cost of the InstrumentContract checks on a create and an update transaction, without the rest of
+ * EvolvableTokenContract verification, next to the same checks as they were before single-pass verification
+ * ({@link LegacyInstrumentChecks}). The create transaction holds {@code instruments} outputs, as a bulk-created chunk
+ * would. The ledger transactions are resolved once in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InstrumentContractBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int instruments;
+
+    private final InstrumentContract contract = new InstrumentContract();
+    private LedgerTransaction createTx;
+    private LedgerTransaction updateTx;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        initSerialization();
+        MockServices services = new MockServices(CORDAPP_PACKAGES, SELLER);
+
+        InstrumentState instrument = instrument(SELLER.getParty());
+        TransactionBuilder createBuilder = new TransactionBuilder(NOTARY.getParty())
+                .addOutputState(instrument)
+                .addCommand(new Create(), SELLER.getPublicKey());
+        TransactionBuilder chunkBuilder = new TransactionBuilder(NOTARY.getParty())
+                .addOutputState(instrument)
+                .addCommand(new Create(), SELLER.getPublicKey());
+        for (int i = 1; i < instruments; i++) chunkBuilder.addOutputState(instrument(SELLER.getParty()));
+        createTx = chunkBuilder.toLedgerTransaction(services);
+
+        SignedTransaction created = services.signInitialTransaction(createBuilder);
+        services.recordTransactions(created);
+        StateAndRef<InstrumentState> input = created.getTx().outRef(0);
+
+        InstrumentState updated = new InstrumentState(instrument.getLinearId(), instrument.getMaintainers(),
+                instrument.getName(), instrument.getYom(), instrument.getBatchNo(), instrument.getValuation(),
+                instrument.getWarranty() + 1, Amount.parseCurrency("900 USD"));
+        updateTx = new TransactionBuilder(NOTARY.getParty())
+                .addInputState(input)
+                .addOutputState(updated)
+                .addCommand(new Update(), ImmutableList.of(SELLER.getPublicKey()))
+                .toLedgerTransaction(services);
+    }
+
+    @Benchmark
+    public void additionalCreateChecks() {
+        contract.additionalCreateChecks(createTx);
+    }
+
+    @Benchmark
+    public void additionalUpdateChecks() {
+        contract.additionalUpdateChecks(updateTx);
+    }
+
+    @Benchmark
+    public void legacyCreateChecks() {
+        LegacyInstrumentChecks.additionalCreateChecks(createTx);
+    }
+
+    @Benchmark
+    public void legacyUpdateChecks() {
+        LegacyInstrumentChecks.additionalUpdateChecks(updateTx);
+    }
+}
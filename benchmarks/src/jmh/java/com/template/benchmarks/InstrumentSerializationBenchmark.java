@@ -0,0 +1,63 @@
+package com.template.benchmarks;
+
+import com.template.states.InstrumentState;
+import net.corda.core.serialization.SerializationContext;
+import net.corda.core.serialization.SerializationDefaults;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.core.serialization.SerializedBytes;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.template.benchmarks.BenchmarkFixtures.*;
+
+/**
+ * AMQP serialization of an InstrumentState in the P2P context, as sent between seller and buyer and stored in
+ * checkpoints. Besides the times, each serialize call counts its bytes in {@link Size}, so the JSON results carry
+ * the serialized size as {@code bytes / serializations}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InstrumentSerializationBenchmark {
+
+    private SerializationFactory factory;
+    private SerializationContext context;
+    private InstrumentState instrument;
+    private SerializedBytes<InstrumentState> serialized;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+        public long bytes;
+        public long serializations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            serializations = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        initSerialization();
+        factory = SerializationFactory.Companion.getDefaultFactory();
+        context = SerializationDefaults.INSTANCE.getP2P_CONTEXT();
+        instrument = instrument(SELLER.getParty());
+        serialized = factory.serialize(instrument, context);
+    }
+
+    @Benchmark
+    public SerializedBytes<InstrumentState> serialize(Size size) {
+        SerializedBytes<InstrumentState> bytes = factory.serialize(instrument, context);
+        size.bytes += bytes.getSize();
+        size.serializations++;
+        return bytes;
+    }
+
+    @Benchmark
+    public InstrumentState deserialize() {
+        return factory.deserialize(serialized, InstrumentState.class, context);
+    }
+}
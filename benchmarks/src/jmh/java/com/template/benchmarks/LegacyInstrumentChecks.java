@@ -0,0 +1,74 @@
+package com.template.benchmarks;
+
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.transactions.LedgerTransaction;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * The InstrumentContract create and update checks as they were before single-pass verification, kept as the
+ * baseline of {@link InstrumentContractBenchmark}: fresh state lists per call, a clock read per instrument and the
+ * signers of the first command searched as a list.
+ */
+final class LegacyInstrumentChecks {
+
+    private LegacyInstrumentChecks() {
+    }
+
+    static void additionalCreateChecks(LedgerTransaction tx) {
+
+        List<ContractState> outputState = tx.getOutputStates();
+        List<ContractState> inputState = tx.getInputStates();
+
+        requireThat(req -> {
+
+            req.using("Inputs while creating instrument must be 0.",inputState.size() == 0);
+            req.using("Outputs while creating instrument must be at least 1", outputState.size() >= 1);
+
+            for (ContractState output : outputState) {
+                req.using("Output state while creating instrument must be of type InstrumentState", output instanceof InstrumentState);
+
+                InstrumentState instrumentState = (InstrumentState) output;
+                LocalDate localDate = LocalDate.now();
+                int currentYear = localDate.getYear();
+                req.using("yom(Year of Manufacture) cannot be greater than current year", currentYear >= instrumentState.getYom());
+                req.using("Valuation while creatio must be greater than 0.", instrumentState.getValuation().getQuantity() > 0);
+                req.using("Years of Warranty must be more than 0.", instrumentState.getWarranty() > 0);
+                req.using("Resale valuation must be equal to valuation while creating instrument", instrumentState.getValuation().getQuantity() == instrumentState.getResaleValuation().getQuantity());
+
+                if (!tx.getCommand(0).getSigners().contains(instrumentState.getIssuer().getOwningKey()))
+                    throw new IllegalArgumentException("Instrument issuer must be a signer");
+            }
+
+            return null;
+        });
+    }
+
+    static void additionalUpdateChecks(LedgerTransaction tx) {
+
+        List<ContractState> outputState = tx.getOutputStates();
+        List<ContractState> inputState = tx.getInputStates();
+
+        requireThat(req -> {
+
+            req.using("Inputs while updating instrument must be 1.",inputState.size() == 1);
+            req.using("Outputs while creating instrument must be 1", outputState.size() == 1);
+            req.using("Output state while creating instrument must be of type InstrumentState", outputState.get(0) instanceof InstrumentState);
+
+            InstrumentState instrumentState = (InstrumentState) outputState.get(0);
+            LocalDate localDate = LocalDate.now();
+            int currentYear = localDate.getYear();
+            req.using("Valuation while creatio must be greater than 0.", instrumentState.getValuation().getQuantity() > 0);
+            req.using("Resale Valuation while creatio must be greater than 0.", instrumentState.getResaleValuation().getQuantity() > 0);
+
+            if (! (tx.getCommand(0).getSigners().contains(((InstrumentState) outputState.get(0)).getIssuer().getOwningKey())) )
+                throw new IllegalArgumentException("Instrument issuer must be a signer");
+
+            return null;
+        });
+    }
+}
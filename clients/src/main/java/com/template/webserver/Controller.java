@@ -1,11 +1,29 @@
 package com.template.webserver;
 
-import net.corda.core.messaging.CordaRPCOps;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.template.flows.*;
+import net.corda.core.contracts.Amount;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Define your API endpoints here.
@@ -13,15 +31,222 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/") // The paths for HTTP requests are relative to this base path.
 public class Controller {
-    private final CordaRPCOps proxy;
+    /* Read on every call, since the connection replaces its proxy when it reconnects */
+    private final NodeRPCConnection rpc;
+    private final VaultUpdateBroadcaster broadcaster;
+    private final FlowGateway gateway;
     private final static Logger logger = LoggerFactory.getLogger(Controller.class);
 
-    public Controller(NodeRPCConnection rpc) {
-        this.proxy = rpc.proxy;
+    /* Holdings fetched from the node per round trip while streaming a portfolio */
+    private final static int PORTFOLIO_PAGE_SIZE = 500;
+    private final static JsonFactory JSON = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    public Controller(NodeRPCConnection rpc, VaultUpdateBroadcaster broadcaster, FlowGateway gateway) {
+        this.rpc = rpc;
+        this.broadcaster = broadcaster;
+        this.gateway = gateway;
     }
 
     @GetMapping(value = "/templateendpoint", produces = "text/plain")
     private String templateendpoint() {
         return "Define an endpoint here. Hi from Lokesh. ";
     }
-}
\ No newline at end of file
+
+    /**
+     * Held instruments matching all given filters, as a JSON array of {linearId, name, batchNo, resaleValuation,
+     * currency, holder} ordered by linearId. The array is written while pages are still being fetched from the node, so
+     * neither side holds the whole portfolio. Pass the last linearId received as {@code after} to continue a listing
+     * cut short by {@code limit}.
+     */
+    @GetMapping(value = "/holdings", produces = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<StreamingResponseBody> holdings(@RequestParam(required = false) String holder,
+                                                           @RequestParam(required = false) String batchNo,
+                                                           @RequestParam(required = false) String issuer,
+                                                           @RequestParam(required = false) Integer yomFrom,
+                                                           @RequestParam(required = false) Integer yomTo,
+                                                           @RequestParam(required = false) Long valuationFrom,
+                                                           @RequestParam(required = false) Long valuationTo,
+                                                           @RequestParam(required = false) String after,
+                                                           @RequestParam(defaultValue = "0") int limit) {
+        Party holderParty = null;
+        if (holder != null) {
+            try {
+                holderParty = rpc.proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(holder));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Malformed holder {}", holder);
+            }
+            if (holderParty == null) return ResponseEntity.badRequest().build();
+        }
+
+        final PortfolioFilter filter = new PortfolioFilter(holderParty, batchNo, issuer, yomFrom, yomTo,
+                valuationFrom, valuationTo);
+        final StreamingResponseBody body = out -> {
+            try (JsonGenerator json = JSON.createGenerator(out)) {
+                json.writeStartArray();
+                String cursor = after;
+                int written = 0;
+                while (true) {
+                    int size = limit > 0 ? Math.min(PORTFOLIO_PAGE_SIZE, limit - written) : PORTFOLIO_PAGE_SIZE;
+                    if (size <= 0) break;
+
+                    List<InstrumentHolding> page = rpc.proxy.startFlowDynamic(QueryPortfolioFlow.class, filter, cursor, size)
+                            .getReturnValue().get();
+                    for (InstrumentHolding holding : page) {
+                        /* The vault stores no holder it cannot resolve to a name */
+                        CordaX500Name holderName = holding.getHolder() == null ? null : holding.getHolder().nameOrNull();
+                        json.writeStartObject();
+                        json.writeStringField("linearId", holding.getLinearId());
+                        json.writeStringField("name", holding.getName());
+                        json.writeStringField("batchNo", holding.getBatchNo());
+                        json.writeNumberField("resaleValuation", holding.getResaleValuation());
+                        json.writeStringField("currency", holding.getCurrency());
+                        json.writeStringField("holder", holderName == null ? null : holderName.toString());
+                        json.writeEndObject();
+                    }
+                    json.flush();
+
+                    written += page.size();
+                    if (page.size() < size) break;
+                    cursor = page.get(page.size() - 1).getLinearId();
+                }
+                json.writeEndArray();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Streaming holdings for {} interrupted", filter, e);
+                throw new IOException("Interrupted while querying holdings", e);
+            } catch (ExecutionException e) {
+                logger.error("Streaming holdings for {} failed", filter, e);
+                throw new IOException("Could not query holdings", e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Server-Sent Events of the node's vault updates, optionally only those of one holder (X.500 name) and/or one
+     * instrument linear id. A client that falls behind gets the latest event per state and loses the oldest ones.
+     */
+    @GetMapping(value = "/vault-updates", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    private SseEmitter vaultUpdates(@RequestParam(required = false) String holder,
+                                    @RequestParam(required = false) String instrumentId) {
+        return broadcaster.register(holder, instrumentId);
+    }
+
+    @GetMapping(value = "/vault-updates/metrics", produces = MediaType.APPLICATION_JSON_VALUE)
+    private Map<String, Object> vaultUpdateMetrics() {
+        return broadcaster.metrics();
+    }
+
+    /*
+     * Flow submission. Each endpoint starts its flow through the FlowGateway and answers 202 with the submission
+     * handle straight away; node optionally picks the node (X.500 name) of the gateway's pool to run on.
+     */
+
+    @PostMapping(value = "/flows/create-and-issue", produces = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<Map<String, Object>> createAndIssue(@RequestParam String owner, @RequestParam String name,
+                                                               @RequestParam int yom, @RequestParam String batchNo,
+                                                               @RequestParam String valuation,
+                                                               @RequestParam int warranty,
+                                                               @RequestParam String resaleValuation,
+                                                               @RequestParam(required = false) String node) {
+        return accepted(node, CreateAndIssue.class, party(owner), name, yom, batchNo, Amount.parseCurrency(valuation),
+                warranty, Amount.parseCurrency(resaleValuation));
+    }
+
+    @PostMapping(value = "/flows/create", produces = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<Map<String, Object>> create(@RequestParam String name, @RequestParam int yom,
+                                                       @RequestParam String batchNo, @RequestParam String valuation,
+                                                       @RequestParam int warranty, @RequestParam String resaleValuation,
+                                                       @RequestParam(required = false) String node) {
+        return accepted(node, CreateInstrumentFlow.class, name, yom, batchNo, Amount.parseCurrency(valuation), warranty,
+                Amount.parseCurrency(resaleValuation));
+    }
+
+    @PostMapping(value = "/flows/issue", produces = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<Map<String, Object>> issue(@RequestParam String name, @RequestParam String owner,
+                                                      @RequestParam(required = false) String node) {
+        return accepted(node, IssueInstrumentFlow.class, name, party(owner));
+    }
+
+    /* Goes through the node's sell order intake, so a retried clientOrderId never sells twice */
+    @PostMapping(value = "/flows/sell", produces = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<Map<String, Object>> sell(@RequestParam String clientOrderId,
+                                                     @RequestParam String instrumentId, @RequestParam String buyer,
+                                                     @RequestParam String currency,
+                                                     @RequestParam(required = false) String node) {
+        return accepted(node, SubmitSellOrderFlow.class, clientOrderId, instrumentId, party(buyer), currency);
+    }
+
+    @PostMapping(value = "/flows/update", produces = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<Map<String, Object>> update(@RequestParam String linearId,
+                                                       @RequestParam String resaleValuation,
+                                                       @RequestParam int warranty,
+                                                       @RequestParam(required = false) String node) {
+        return accepted(node, UpdateInstrumentFlow.class, linearId, Amount.parseCurrency(resaleValuation), warranty);
+    }
+
+    /* Where a submission stands, without waiting for it */
+    @GetMapping(value = "/flows/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<Map<String, Object>> submission(@PathVariable String id) {
+        FlowGateway.Submission submission = gateway.submission(id);
+        if (submission == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(describe(submission));
+    }
+
+    /* Answers once the flow has finished, without holding a servlet thread while it runs */
+    @GetMapping(value = "/flows/{id}/result", produces = MediaType.APPLICATION_JSON_VALUE)
+    private CompletableFuture<ResponseEntity<Map<String, Object>>> submissionResult(@PathVariable String id) {
+        FlowGateway.Submission submission = gateway.submission(id);
+        if (submission == null) return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        return submission.getResult().handle((value, error) -> ResponseEntity.ok(describe(submission)));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    private ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    private ResponseEntity<String> busy(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+    }
+
+    private <T> ResponseEntity<Map<String, Object>> accepted(String node, Class<? extends FlowLogic<T>> flowClass,
+                                                             Object... args) {
+        FlowGateway.Submission submission = gateway.submit(node == null ? null : CordaX500Name.parse(node), flowClass,
+                args);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(describe(submission));
+    }
+
+    private Party party(String name) {
+        Party party = rpc.proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(name));
+        if (party == null) throw new IllegalArgumentException("Unknown party " + name);
+        return party;
+    }
+
+    private static Map<String, Object> describe(FlowGateway.Submission submission) {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("id", submission.getId());
+        description.put("flow", submission.getFlow());
+        description.put("node", submission.getNode() == null ? null : submission.getNode().toString());
+        description.put("runId", submission.getRunId());
+        description.put("submittedAt", submission.getSubmittedAt().toString());
+
+        CompletableFuture<Object> result = submission.getResult();
+        if (!result.isDone()) {
+            description.put("status", "running");
+        } else if (!result.isCompletedExceptionally()) {
+            description.put("status", "completed");
+            description.put("result", String.valueOf(result.join()));
+        } else {
+            description.put("status", "failed");
+            try {
+                result.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                description.put("error", cause.getMessage());
+            }
+        }
+        return description;
+    }
+}
@@ -0,0 +1,271 @@
+package com.template.webserver;
+
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.RPCException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Starts flows for the web tier without tying up servlet threads while they run. Flows go out over a pool of RPC
+ * connections, possibly to several nodes, and each submission is answered at once with a {@link Submission} handle
+ * whose result completes when the flow's CordaFuture does.
+ *
+ * Every connection allows a bounded number of flows in flight; a submission takes the connection with the most room
+ * and is rejected when all are full, rather than queueing behind them. A connection that fails is closed and
+ * reconnected after a delay by the housekeeping thread alone, so a submission never waits on a connect: while a
+ * connection is down, submissions skip it. Finished submissions are kept for a while to be collected, then forgotten.
+ *
+ * Configured through {@code config.rpc.gateway.addresses} (comma separated host:port, by default the node of
+ * {@link NodeRPCConnection}), {@code config.rpc.gateway.connectionsPerAddress} (default 2),
+ * {@code config.rpc.gateway.maxInFlight} per connection (default 32), {@code config.rpc.gateway.reconnectMillis}
+ * (default 5000) and {@code config.rpc.gateway.retentionMinutes} (default 10).
+ */
+@Component
+public class FlowGateway {
+
+    private final static Logger logger = LoggerFactory.getLogger(FlowGateway.class);
+
+    @Value("${config.rpc.host}")
+    private String host;
+    @Value("${config.rpc.port}")
+    private int rpcPort;
+    @Value("${config.rpc.username}")
+    private String username;
+    @Value("${config.rpc.password}")
+    private String password;
+    @Value("${config.rpc.gateway.addresses:}")
+    private String addresses;
+    @Value("${config.rpc.gateway.connectionsPerAddress:2}")
+    private int connectionsPerAddress;
+    @Value("${config.rpc.gateway.maxInFlight:32}")
+    private int maxInFlight;
+    @Value("${config.rpc.gateway.reconnectMillis:5000}")
+    private long reconnectMillis;
+    @Value("${config.rpc.gateway.retentionMinutes:10}")
+    private long retentionMinutes;
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final Map<String, Submission> submissions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService housekeeping = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "flow-gateway");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void connect() {
+        List<NetworkHostAndPort> targets = new ArrayList<>();
+        if (addresses.trim().isEmpty()) targets.add(new NetworkHostAndPort(host, rpcPort));
+        else for (String address : addresses.split(",")) targets.add(NetworkHostAndPort.parse(address.trim()));
+
+        for (NetworkHostAndPort target : targets)
+            for (int i = 0; i < Math.max(1, connectionsPerAddress); i++) {
+                Connection connection = new Connection(target);
+                connection.reconnect();
+                connections.add(connection);
+            }
+
+        housekeeping.scheduleWithFixedDelay(this::forgetCollected, 1, 1, TimeUnit.MINUTES);
+        /* The only place connections come back; servlet threads never connect */
+        long reconnectDelay = Math.max(1, reconnectMillis);
+        housekeeping.scheduleWithFixedDelay(() -> connections.forEach(Connection::reconnect), reconnectDelay,
+                reconnectDelay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        housekeeping.shutdownNow();
+        connections.forEach(Connection::close);
+    }
+
+    /**
+     * Starts the flow on the given node, or any node of the pool if null, and returns its handle straight away.
+     * Throws {@link RejectedExecutionException} when no connection has room for another flow. A connection lost while
+     * starting the flow is not retried elsewhere, since the node may have started it: the handle is returned failed,
+     * without a run id.
+     */
+    public <T> Submission submit(CordaX500Name node, Class<? extends FlowLogic<T>> flowClass, Object... args) {
+        List<Connection> candidates = new ArrayList<>(connections);
+        candidates.sort(Comparator.comparingInt(Connection::room).reversed());
+
+        for (Connection connection : candidates) {
+            if (!connection.permits.tryAcquire()) continue;
+
+            CordaRPCOps proxy = connection.proxy;
+            if (proxy == null || (node != null && !node.equals(connection.node))) {
+                connection.permits.release();
+                continue;
+            }
+
+            FlowHandle<T> handle;
+            try {
+                handle = proxy.startFlowDynamic(flowClass, args);
+            } catch (RPCException e) {
+                /* The request may have reached the node and started the flow, so trying another connection could
+                 run it twice: the submission is answered as failed with an unknown outcome instead */
+                connection.permits.release();
+                connection.broken(e);
+                Submission unknown = new Submission(UUID.randomUUID().toString(), flowClass.getSimpleName(),
+                        connection.node, null);
+                submissions.put(unknown.id, unknown);
+                unknown.fail(new IllegalStateException("Connection to " + connection.address + " lost while starting "
+                        + flowClass.getSimpleName() + ", it may or may not have started on the node", e));
+                return unknown;
+            }
+
+            Submission submission = new Submission(UUID.randomUUID().toString(), flowClass.getSimpleName(),
+                    connection.node, handle.getId().getUuid().toString());
+            submissions.put(submission.id, submission);
+            handle.getReturnValue().toCompletableFuture().whenComplete((value, error) -> {
+                connection.permits.release();
+                if (error == null) {
+                    submission.complete(value);
+                    return;
+                }
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof RPCException) {
+                    /* The flow may still finish on the node; we just can no longer hear about it */
+                    connection.broken(cause);
+                    submission.fail(new IllegalStateException("Connection to " + connection.address
+                            + " lost while flow " + submission.runId + " was running", cause));
+                } else {
+                    submission.fail(cause);
+                }
+            });
+            return submission;
+        }
+        throw new RejectedExecutionException(node == null ? "All RPC connections are busy or down"
+                : "All RPC connections to " + node + " are busy or down");
+    }
+
+    public Submission submission(String id) {
+        return submissions.get(id);
+    }
+
+    private void forgetCollected() {
+        Instant cutoff = Instant.now().minusSeconds(60 * retentionMinutes);
+        submissions.values().removeIf(it -> it.finishedAt != null && it.finishedAt.isBefore(cutoff));
+    }
+
+    /**
+     * A submitted flow: where it runs, under which run id, null if it is unknown whether it started, and its result
+     * once it finishes.
+     */
+    public static class Submission {
+        private final String id;
+        private final String flow;
+        private final CordaX500Name node;
+        private final String runId;
+        private final Instant submittedAt = Instant.now();
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private volatile Instant finishedAt;
+
+        private Submission(String id, String flow, CordaX500Name node, String runId) {
+            this.id = id;
+            this.flow = flow;
+            this.node = node;
+            this.runId = runId;
+        }
+
+        private void complete(Object value) {
+            finishedAt = Instant.now();
+            result.complete(value);
+        }
+
+        private void fail(Throwable error) {
+            finishedAt = Instant.now();
+            result.completeExceptionally(error);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFlow() {
+            return flow;
+        }
+
+        public CordaX500Name getNode() {
+            return node;
+        }
+
+        public String getRunId() {
+            return runId;
+        }
+
+        public Instant getSubmittedAt() {
+            return submittedAt;
+        }
+
+        public CompletableFuture<Object> getResult() {
+            return result;
+        }
+    }
+
+    private class Connection {
+        private final NetworkHostAndPort address;
+        private final Semaphore permits = new Semaphore(Math.max(1, maxInFlight));
+        private CordaRPCConnection connection;
+        private volatile CordaRPCOps proxy;
+        private volatile CordaX500Name node;
+        private long retryAt = 0L;
+
+        private Connection(NetworkHostAndPort address) {
+            this.address = address;
+        }
+
+        private int room() {
+            return proxy == null ? 0 : permits.availablePermits();
+        }
+
+        /* Connects if down and the retry delay has passed; called from the housekeeping thread only */
+        private synchronized void reconnect() {
+            if (proxy != null || System.currentTimeMillis() < retryAt) return;
+            try {
+                connection = new CordaRPCClient(address).start(username, password);
+                node = connection.getProxy().nodeInfo().getLegalIdentities().get(0).getName();
+                proxy = connection.getProxy();
+                logger.info("Connected to {} at {}", node, address);
+            } catch (Exception e) {
+                retryAt = System.currentTimeMillis() + reconnectMillis;
+                logger.warn("Could not connect to {}, retrying in {} ms", address, reconnectMillis, e);
+            }
+        }
+
+        private void broken(Throwable error) {
+            /* Already down, possibly reconnecting: don't wait for the connect to report it again */
+            if (proxy == null) return;
+            synchronized (this) {
+                if (proxy == null) return;
+                logger.warn("RPC connection to {} failed, reconnecting in {} ms", address, reconnectMillis, error);
+                close();
+                retryAt = System.currentTimeMillis() + reconnectMillis;
+            }
+        }
+
+        private synchronized void close() {
+            proxy = null;
+            if (connection == null) return;
+            try {
+                connection.forceClose();
+            } catch (Exception e) {
+                logger.debug("Closing RPC connection to {} failed", address, e);
+            }
+            connection = null;
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class NodeRPCConnection implements AutoCloseable {
     private int rpcPort;
 
     private CordaRPCConnection rpcConnection;
-    CordaRPCOps proxy;
+    volatile CordaRPCOps proxy;
 
     @PostConstruct
     public void initialiseNodeRPCConnection() {
@@ -41,6 +41,16 @@ public class NodeRPCConnection implements AutoCloseable {
         proxy = rpcConnection.getProxy();
     }
 
+    /* Replaces a connection the node dropped, e.g. when it restarted. Throws if the node is still unreachable. */
+    public synchronized void reconnect() {
+        try {
+            rpcConnection.forceClose();
+        } catch (Exception e) {
+            // The old connection is gone either way.
+        }
+        initialiseNodeRPCConnection();
+    }
+
     @PreDestroy
     public void close() {
         rpcConnection.notifyServerAndClose();
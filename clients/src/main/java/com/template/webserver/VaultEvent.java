@@ -0,0 +1,77 @@
+package com.template.webserver;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * A state produced or consumed in the node's vault, as pushed to web clients by {@link VaultUpdateBroadcaster}: only
+ * what a front end needs to refresh its view, not the state itself.
+ */
+public class VaultEvent {
+
+    private final String type;
+    private final String kind;
+    private final String txId;
+    private final String stateRef;
+    private final String instrumentId;
+    private final String holder;
+    private final Long amount;
+    private final long receivedNanos;
+
+    VaultEvent(String type, String kind, String txId, String stateRef, String instrumentId, String holder, Long amount,
+               long receivedNanos) {
+        this.type = type;
+        this.kind = kind;
+        this.txId = txId;
+        this.stateRef = stateRef;
+        this.instrumentId = instrumentId;
+        this.holder = holder;
+        this.amount = amount;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /* NonFungibleToken, FungibleToken or InstrumentState */
+    public String getType() {
+        return type;
+    }
+
+    /* produced or consumed */
+    public String getKind() {
+        return kind;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    /* The state's transaction id and output index */
+    public String getStateRef() {
+        return stateRef;
+    }
+
+    /* The instrument's linear id, or the currency code of a fungible token */
+    public String getInstrumentId() {
+        return instrumentId;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    /* The quantity of a fungible token, null otherwise */
+    public Long getAmount() {
+        return amount;
+    }
+
+    /* When the update arrived from the node, to measure how far behind each client is */
+    @JsonIgnore
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /* Events with the same key describe the same state going the same way, so a slow client only needs one of them.
+     Distinct coins of one currency, or the consumption and production of one state, never share a key. */
+    @JsonIgnore
+    String getCoalesceKey() {
+        return kind + "/" + stateRef;
+    }
+}
@@ -0,0 +1,270 @@
+package com.template.webserver;
+
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import rx.Subscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Function;
+
+/**
+ * Pushes vault updates of the node to web clients over Server-Sent Events. The web server holds a single vault
+ * tracking subscription each for NonFungibleToken, FungibleToken and InstrumentState, however many clients listen,
+ * and fans every update out as {@link VaultEvent}s to the clients whose holder and instrument filters match.
+ *
+ * Each client has a bounded buffer drained by a shared pool, so a slow client never holds up the RPC thread or other
+ * clients. When an event arrives for a state the client still has buffered, the buffered event is replaced by the
+ * newer one; when the buffer is full of distinct states, the oldest is dropped. Fan-out lag, drops and replacements
+ * are counted for {@link #metrics()}.
+ *
+ * If the RPC connection drops, the subscriptions are set up again on a new connection, retried every
+ * {@code config.sse.resubscribeMillis}. Updates the node records while the connection is down are not replayed.
+ *
+ * Configured through {@code config.sse.bufferSize} (default 256), {@code config.sse.senderThreads} (default 4) and
+ * {@code config.sse.resubscribeMillis} (default 5000).
+ */
+@Component
+public class VaultUpdateBroadcaster {
+
+    private final static Logger logger = LoggerFactory.getLogger(VaultUpdateBroadcaster.class);
+
+    private final NodeRPCConnection rpc;
+    private final int bufferSize;
+    private final long resubscribeMillis;
+    private final ExecutorService senders;
+    private final ScheduledExecutorService resubscriber = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "vault-update-resubscriber");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean resubscribing = new AtomicBoolean();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong totalLagNanos = new AtomicLong();
+    private final LongAccumulator maxLagNanos = new LongAccumulator(Math::max, 0);
+
+    public VaultUpdateBroadcaster(NodeRPCConnection rpc,
+                                  @Value("${config.sse.bufferSize:256}") int bufferSize,
+                                  @Value("${config.sse.senderThreads:4}") int senderThreads,
+                                  @Value("${config.sse.resubscribeMillis:5000}") long resubscribeMillis) {
+        this.rpc = rpc;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.resubscribeMillis = Math.max(1, resubscribeMillis);
+        this.senders = Executors.newFixedThreadPool(Math.max(1, senderThreads), r -> {
+            Thread thread = new Thread(r, "vault-update-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        track(NonFungibleToken.class, nft -> new String[]{nft.getTokenType().getTokenIdentifier(), name(nft.getHolder())});
+        track(FungibleToken.class, ft -> new String[]{ft.getTokenType().getTokenIdentifier(), name(ft.getHolder())});
+        track(InstrumentState.class, instrument -> new String[]{instrument.getLinearId().getId().toString(),
+                name(instrument.getIssuer())});
+    }
+
+    @PreDestroy
+    public void close() {
+        resubscriber.shutdownNow();
+        subscriptions.forEach(Subscription::unsubscribe);
+        clients.forEach(Client::close);
+        senders.shutdownNow();
+    }
+
+    /* Registers a client receiving the events matching both filters, null matching everything */
+    public SseEmitter register(String holder, String instrumentId) {
+        SseEmitter emitter = new SseEmitter(0L);
+        Client client = new Client(emitter, holder, instrumentId);
+        clients.add(client);
+        emitter.onCompletion(() -> clients.remove(client));
+        emitter.onTimeout(client::close);
+        emitter.onError(error -> client.close());
+        return emitter;
+    }
+
+    public Map<String, Object> metrics() {
+        long deliveredCount = delivered.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("clients", clients.size());
+        metrics.put("published", published.get());
+        metrics.put("delivered", deliveredCount);
+        metrics.put("dropped", dropped.get());
+        metrics.put("coalesced", coalesced.get());
+        metrics.put("meanLagMillis", deliveredCount == 0 ? 0.0 : totalLagNanos.get() / 1e6 / deliveredCount);
+        metrics.put("maxLagMillis", maxLagNanos.get() / 1e6);
+        metrics.put("maxBacklog", clients.stream().mapToInt(Client::backlog).max().orElse(0));
+        return metrics;
+    }
+
+    /* One subscription per state type; the snapshot is limited to a single state since only updates are pushed */
+    private <T extends ContractState> void track(Class<T> type, Function<T, String[]> instrumentAndHolder) {
+        Subscription subscription = rpc.proxy.vaultTrackBy(new QueryCriteria.VaultQueryCriteria(),
+                new PageSpecification(1, 1), new Sort(Collections.emptySet()), type)
+                .getUpdates()
+                .subscribe(update -> publish(type, update, instrumentAndHolder), error -> {
+                    logger.error("Vault tracking of {} stopped, resubscribing", type.getSimpleName(), error);
+                    scheduleResubscribe();
+                });
+        subscriptions.add(subscription);
+    }
+
+    /* The three feeds share one connection, so the first of them to fail sets all of them up again, once */
+    private void scheduleResubscribe() {
+        if (resubscribing.compareAndSet(false, true))
+            resubscriber.schedule(this::resubscribe, resubscribeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void resubscribe() {
+        subscriptions.forEach(Subscription::unsubscribe);
+        subscriptions.clear();
+        try {
+            rpc.reconnect();
+            subscribe();
+            resubscribing.set(false);
+            logger.info("Vault tracking resubscribed");
+        } catch (Exception e) {
+            logger.warn("Could not resubscribe to vault updates, retrying in {} ms", resubscribeMillis, e);
+            resubscriber.schedule(this::resubscribe, resubscribeMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private <T extends ContractState> void publish(Class<T> type, Vault.Update<T> update,
+                                                  Function<T, String[]> instrumentAndHolder) {
+        long receivedNanos = System.nanoTime();
+        List<VaultEvent> events = new ArrayList<>();
+        for (StateAndRef<T> consumed : update.getConsumed())
+            events.add(event(type, "consumed", consumed, instrumentAndHolder, receivedNanos));
+        for (StateAndRef<T> produced : update.getProduced())
+            events.add(event(type, "produced", produced, instrumentAndHolder, receivedNanos));
+
+        for (VaultEvent event : events) {
+            published.incrementAndGet();
+            for (Client client : clients)
+                if (client.matches(event)) client.offer(event);
+        }
+    }
+
+    private <T extends ContractState> VaultEvent event(Class<T> type, String kind, StateAndRef<T> stateAndRef,
+                                                      Function<T, String[]> instrumentAndHolder, long receivedNanos) {
+        T state = stateAndRef.getState().getData();
+        String[] ids = instrumentAndHolder.apply(state);
+        Long amount = state instanceof FungibleToken ? ((FungibleToken) state).getAmount().getQuantity() : null;
+        return new VaultEvent(type.getSimpleName(), kind, stateAndRef.getRef().getTxhash().toString(),
+                stateAndRef.getRef().toString(), ids[0], ids[1], amount, receivedNanos);
+    }
+
+    private static String name(AbstractParty party) {
+        CordaX500Name name = party.nameOrNull();
+        return name == null ? null : name.toString();
+    }
+
+    private class Client {
+        private final SseEmitter emitter;
+        private final String holder;
+        private final String instrumentId;
+        /* Buffered events by coalesce key, oldest first */
+        private final LinkedHashMap<String, VaultEvent> buffer = new LinkedHashMap<>();
+        private boolean draining = false;
+        private volatile boolean closed = false;
+
+        private Client(SseEmitter emitter, String holder, String instrumentId) {
+            this.emitter = emitter;
+            this.holder = holder;
+            this.instrumentId = instrumentId;
+        }
+
+        private boolean matches(VaultEvent event) {
+            return (holder == null || holder.equals(event.getHolder()))
+                    && (instrumentId == null || instrumentId.equals(event.getInstrumentId()));
+        }
+
+        private synchronized void offer(VaultEvent event) {
+            if (closed) return;
+
+            if (buffer.remove(event.getCoalesceKey()) != null) {
+                coalesced.incrementAndGet();
+            } else if (buffer.size() >= bufferSize) {
+                Iterator<VaultEvent> oldest = buffer.values().iterator();
+                oldest.next();
+                oldest.remove();
+                dropped.incrementAndGet();
+            }
+            buffer.put(event.getCoalesceKey(), event);
+
+            if (!draining) {
+                draining = true;
+                senders.execute(this::drain);
+            }
+        }
+
+        private synchronized VaultEvent poll() {
+            Iterator<VaultEvent> oldest = buffer.values().iterator();
+            if (!oldest.hasNext() || closed) {
+                draining = false;
+                return null;
+            }
+            VaultEvent event = oldest.next();
+            oldest.remove();
+            return event;
+        }
+
+        private synchronized int backlog() {
+            return buffer.size();
+        }
+
+        private void drain() {
+            VaultEvent event;
+            while ((event = poll()) != null) {
+                try {
+                    emitter.send(SseEmitter.event().name(event.getType()).data(event, MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException e) {
+                    logger.debug("Vault update client went away", e);
+                    close();
+                    return;
+                }
+                long lag = System.nanoTime() - event.getReceivedNanos();
+                delivered.incrementAndGet();
+                totalLagNanos.addAndGet(lag);
+                maxLagNanos.accumulate(lag);
+            }
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+                buffer.clear();
+            }
+            clients.remove(this);
+            emitter.complete();
+        }
+    }
+}
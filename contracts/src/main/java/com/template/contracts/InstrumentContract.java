@@ -1,41 +1,110 @@
 package com.template.contracts;
 
 import com.r3.corda.lib.tokens.contracts.EvolvableTokenContract;
+import com.r3.corda.lib.tokens.contracts.commands.EvolvableTokenTypeCommand;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import com.template.states.InstrumentState;
-import net.corda.core.contracts.Contract;
-import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.transactions.LedgerTransaction;
 import org.jetbrains.annotations.NotNull;
 
+import java.security.PublicKey;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
+/**
+ * Every check runs in one pass over the instruments of the transaction grouped by linear id, so it costs the same
+ * per instrument whether a transaction holds one instrument or a bulk-created chunk. Signers are matched through a
+ * hash set of the command's keys. The year of manufacture is checked against the start of the transaction's time
+ * window; transactions without one, such as those of the SDK's create flow, read the clock once per verification.
+ */
 public class InstrumentContract extends EvolvableTokenContract implements Contract {
 
+    /* Snapshots bound the back-chain of an instrument: Retire consumes the instrument, and Snapshot re-creates it
+     with the same linear id and the holder's token of it in a transaction without inputs, naming the retiring
+     transaction as its checkpoint. Verification cannot see other transactions, so the contract only requires that a
+     checkpoint is named and that the maintainer and the holder sign; that the checkpoint is the notarised retirement
+     of this instrument and token is checked by the maintainer in SnapshotInstrumentResponder before signing.
+     BulkCreate creates many instruments in one transaction, which the evolvable token Create command does not allow,
+     possibly next to the issuance of their tokens, and BulkUpdate likewise evolves many at once. Any other command is
+     an evolvable token command. */
     @Override
-    public void additionalCreateChecks(@NotNull LedgerTransaction tx) {
+    public void verify(@NotNull LedgerTransaction tx) {
+
+        List<CommandWithParties<Commands>> instrumentCommands = tx.commandsOfType(Commands.class);
+        if (instrumentCommands.isEmpty()) {
+            super.verify(tx);
+            return;
+        }
 
-        List<ContractState> outputState = tx.getOutputStates();
-        List<ContractState> inputState = tx.getInputStates();
+        CommandWithParties<Commands> command = requireSingleCommand(tx.getCommands(), Commands.class);
+        Set<PublicKey> signers = new HashSet<>(command.getSigners());
+        List<LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier>> groups =
+                tx.groupStates(InstrumentState.class, InstrumentState::getLinearId);
 
         requireThat(req -> {
 
-            req.using("Inputs while creating instrument must be 0.",inputState.size() == 0);
-            req.using("Outputs while creating instrument must be 1", outputState.size() == 1);
-            req.using("Output state while creating instrument must be of type InstrumentState", outputState.get(0) instanceof InstrumentState);
+            if (command.getValue() instanceof Commands.BulkCreate) {
+                req.using("Inputs while creating instruments must be 0.", tx.getInputs().isEmpty());
+                req.using("Outputs while creating instruments must include an instrument", !groups.isEmpty());
+                checkCreated(req, groups, signers, manufactureYearBound(tx));
+            } else if (command.getValue() instanceof Commands.BulkUpdate) {
+                checkUpdated(req, tx, groups, signers);
+
+                /* Unlike the evolvable token Update, the maintainers cannot change along the way */
+                for (LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier> group : groups)
+                    req.using("Maintainers of an instrument cannot change", group.getInputs().get(0).getMaintainers()
+                            .equals(group.getOutputs().get(0).getMaintainers()));
+            } else if (command.getValue() instanceof Commands.Retire) {
+                req.using("Retiring must consume 1 instrument.", groups.size() == 1 && groups.get(0).getInputs().size() == 1);
+                req.using("Retiring must not produce an instrument.", groups.get(0).getOutputs().isEmpty());
+                req.using("Instrument issuer must be a signer", signers.contains(groups.get(0).getInputs().get(0).getIssuer().getOwningKey()));
+            } else {
+                req.using("A snapshot must not have inputs, so its chain starts with it.", tx.getInputs().isEmpty());
+                req.using("A snapshot must not have reference inputs.", tx.getReferences().isEmpty());
+                req.using("A snapshot must produce 1 instrument.", groups.size() == 1 && groups.get(0).getOutputs().size() == 1);
+                req.using("A snapshot must name the transaction that retired the instrument.",
+                        ((Commands.Snapshot) command.getValue()).getRetiredBy() != null);
+
+                InstrumentState instrumentState = groups.get(0).getOutputs().get(0);
+                req.using("Valuation must be greater than 0.", instrumentState.getValuation().getQuantity() > 0);
+                req.using("Resale Valuation must be greater than 0.", instrumentState.getResaleValuation().getQuantity() > 0);
+                req.using("Instrument issuer must be a signer", signers.contains(instrumentState.getIssuer().getOwningKey()));
+
+                List<NonFungibleToken> heldTokens = heldTokensOf(tx, instrumentState.getLinearId());
+                req.using("A snapshot must re-create 1 held token of the instrument.", heldTokens.size() == 1);
+                req.using("Holder of the held token must be a signer", signers.contains(heldTokens.get(0).getHolder().getOwningKey()));
+            }
 
-            InstrumentState instrumentState = (InstrumentState) outputState.get(0);
-            LocalDate localDate = LocalDate.now();
-            int currentYear = localDate.getYear();
-            req.using("yom(Year of Manufacture) cannot be greater than current year", currentYear >= instrumentState.getYom());
-            req.using("Valuation while creatio must be greater than 0.", instrumentState.getValuation().getQuantity() > 0);
-            req.using("Years of Warranty must be more than 0.", instrumentState.getWarranty() > 0);
-            req.using("Resale valuation must be equal to valuation while creating instrument", instrumentState.getValuation().getQuantity() == instrumentState.getResaleValuation().getQuantity());
+            return null;
+        });
+    }
 
-            if (! (tx.getCommand(0).getSigners().contains(((InstrumentState) outputState.get(0)).getIssuer().getOwningKey())) )
-                throw new IllegalArgumentException("Instrument issuer must be a signer");
+    @Override
+    public void additionalCreateChecks(@NotNull LedgerTransaction tx) {
+
+        Set<PublicKey> signers = new HashSet<>(
+                requireSingleCommand(tx.getCommands(), EvolvableTokenTypeCommand.class).getSigners());
+        List<LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier>> groups =
+                tx.groupStates(InstrumentState.class, InstrumentState::getLinearId);
+
+        requireThat(req -> {
+
+            req.using("Inputs while creating instrument must be 0.", tx.getInputs().isEmpty());
+            req.using("Outputs while creating instrument must be at least 1", !groups.isEmpty());
+            req.using("Output state while creating instrument must be of type InstrumentState", onlyInstrumentOutputs(tx.getOutputs()));
+
+            checkCreated(req, groups, signers, manufactureYearBound(tx));
 
             return null;
         });
@@ -45,25 +114,103 @@ public class InstrumentContract extends EvolvableTokenContract implements Contra
     @Override
     public void additionalUpdateChecks(@NotNull LedgerTransaction tx) {
 
-        List<ContractState> outputState = tx.getOutputStates();
-        List<ContractState> inputState = tx.getInputStates();
+        Set<PublicKey> signers = new HashSet<>(
+                requireSingleCommand(tx.getCommands(), EvolvableTokenTypeCommand.class).getSigners());
+        List<LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier>> groups =
+                tx.groupStates(InstrumentState.class, InstrumentState::getLinearId);
 
         requireThat(req -> {
+            checkUpdated(req, tx, groups, signers);
+            return null;
+        });
+    }
+
+    /* Each instrument evolves from exactly one input to exactly one output */
+    private static void checkUpdated(Requirements req, LedgerTransaction tx,
+                                     List<LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier>> groups,
+                                     Set<PublicKey> signers) {
+        req.using("Inputs while updating instrument must be instruments.", onlyInstrumentInputs(tx.getInputs()));
+        req.using("Output state while creating instrument must be of type InstrumentState", onlyInstrumentOutputs(tx.getOutputs()));
+        req.using("Outputs while creating instrument must be at least 1", !groups.isEmpty());
 
-            req.using("Inputs while updating instrument must be 1.",inputState.size() == 1);
-            req.using("Outputs while creating instrument must be 1", outputState.size() == 1);
-            req.using("Output state while creating instrument must be of type InstrumentState", outputState.get(0) instanceof InstrumentState);
+        for (LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier> group : groups) {
+            req.using("Inputs while updating instrument must be 1.", group.getInputs().size() == 1);
+            req.using("Outputs while creating instrument must be 1", group.getOutputs().size() == 1);
 
-            InstrumentState instrumentState = (InstrumentState) outputState.get(0);
-            LocalDate localDate = LocalDate.now();
-            int currentYear = localDate.getYear();
+            InstrumentState instrumentState = group.getOutputs().get(0);
             req.using("Valuation while creatio must be greater than 0.", instrumentState.getValuation().getQuantity() > 0);
             req.using("Resale Valuation while creatio must be greater than 0.", instrumentState.getResaleValuation().getQuantity() > 0);
 
-            if (! (tx.getCommand(0).getSigners().contains(((InstrumentState) outputState.get(0)).getIssuer().getOwningKey())) )
+            if (!signers.contains(instrumentState.getIssuer().getOwningKey()))
                 throw new IllegalArgumentException("Instrument issuer must be a signer");
+        }
+    }
 
-            return null;
-        });
+    /* Every group must be a new instrument, i.e. no input and exactly one output */
+    private static void checkCreated(Requirements req, List<LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier>> groups,
+                                     Set<PublicKey> signers, int manufactureYearBound) {
+        for (LedgerTransaction.InOutGroup<InstrumentState, UniqueIdentifier> group : groups) {
+            req.using("Inputs while creating instrument must be 0.", group.getInputs().isEmpty());
+            req.using("Each instrument must be created once", group.getOutputs().size() == 1);
+
+            InstrumentState instrumentState = group.getOutputs().get(0);
+            req.using("yom(Year of Manufacture) cannot be greater than current year", manufactureYearBound >= instrumentState.getYom());
+            req.using("Valuation while creatio must be greater than 0.", instrumentState.getValuation().getQuantity() > 0);
+            req.using("Years of Warranty must be more than 0.", instrumentState.getWarranty() > 0);
+            req.using("Resale valuation must be equal to valuation while creating instrument", instrumentState.getValuation().getQuantity() == instrumentState.getResaleValuation().getQuantity());
+
+            if (!signers.contains(instrumentState.getIssuer().getOwningKey()))
+                throw new IllegalArgumentException("Instrument issuer must be a signer");
+        }
+    }
+
+    /* The latest year a created instrument may have been manufactured in: the year the time window opens, which the
+     notary has checked has passed, or else the current year */
+    private static int manufactureYearBound(LedgerTransaction tx) {
+        TimeWindow timeWindow = tx.getTimeWindow();
+        Instant from = timeWindow == null ? null : timeWindow.getFromTime();
+        return from != null ? from.atZone(ZoneOffset.UTC).getYear() : LocalDate.now().getYear();
+    }
+
+    private static List<NonFungibleToken> heldTokensOf(LedgerTransaction tx, UniqueIdentifier linearId) {
+        List<NonFungibleToken> heldTokens = new ArrayList<>();
+        for (NonFungibleToken token : tx.outputsOfType(NonFungibleToken.class))
+            if (token.getTokenType() instanceof TokenPointer
+                    && ((TokenPointer<?>) token.getTokenType()).getPointer().getPointer().equals(linearId))
+                heldTokens.add(token);
+        return heldTokens;
+    }
+
+    private static boolean onlyInstrumentOutputs(List<? extends TransactionState<?>> states) {
+        for (TransactionState<?> state : states)
+            if (!(state.getData() instanceof InstrumentState)) return false;
+        return true;
+    }
+
+    private static boolean onlyInstrumentInputs(List<? extends StateAndRef<?>> states) {
+        for (StateAndRef<?> state : states)
+            if (!(state.getState().getData() instanceof InstrumentState)) return false;
+        return true;
+    }
+
+    public interface Commands extends CommandData {
+        class BulkCreate implements Commands {}
+
+        class BulkUpdate implements Commands {}
+
+        class Retire implements Commands {}
+
+        class Snapshot implements Commands {
+            private final SecureHash retiredBy;
+
+            public Snapshot(SecureHash retiredBy) {
+                this.retiredBy = retiredBy;
+            }
+
+            /* The notarised transaction that retired the instrument this snapshot re-creates */
+            public SecureHash getRetiredBy() {
+                return retiredBy;
+            }
+        }
     }
 }
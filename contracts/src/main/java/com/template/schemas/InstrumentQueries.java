@@ -0,0 +1,28 @@
+package com.template.schemas;
+
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.FieldInfo;
+import net.corda.core.node.services.vault.QueryCriteria;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Vault query criteria over the indexed columns of {@link InstrumentSchemaV1}.
+ */
+public class InstrumentQueries {
+
+    private InstrumentQueries() {
+    }
+
+    /* Unconsumed instruments with the given name */
+    public static QueryCriteria byName(String name) {
+        FieldInfo nameField = getField("name", InstrumentSchemaV1.PersistentInstrument.class);
+        return new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(nameField, name));
+    }
+
+    /* Unconsumed instruments of the given batch no. */
+    public static QueryCriteria byBatchNo(String batchNo) {
+        FieldInfo batchNoField = getField("batchNo", InstrumentSchemaV1.PersistentInstrument.class);
+        return new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(batchNoField, batchNo));
+    }
+}
@@ -0,0 +1,7 @@
+package com.template.schemas;
+
+/**
+ * The family of schemas for {@link com.template.states.InstrumentState}.
+ */
+public class InstrumentSchema {
+}
@@ -0,0 +1,113 @@
+package com.template.schemas;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import org.jetbrains.annotations.Nullable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * An InstrumentState schema. Every column used to look instruments up is indexed, so vault queries on them are an
+ * index hit instead of a scan over all instrument states. The linear id is kept as the string the tokens SDK uses as
+ * token identifier of a pointer, so held tokens join their instrument on it.
+ */
+public class InstrumentSchemaV1 extends MappedSchema {
+
+    public InstrumentSchemaV1() {
+        super(InstrumentSchema.class, 1, ImmutableList.of(PersistentInstrument.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "instrument.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "instrument_states", indexes = {
+            @Index(name = "instrument_name_idx", columnList = "name"),
+            @Index(name = "instrument_batch_no_idx", columnList = "batch_no"),
+            @Index(name = "instrument_yom_idx", columnList = "yom"),
+            @Index(name = "instrument_issuer_idx", columnList = "issuer"),
+            @Index(name = "instrument_valuation_idx", columnList = "valuation"),
+            @Index(name = "instrument_linear_id_idx", columnList = "linear_id")
+    })
+    public static class PersistentInstrument extends PersistentState {
+
+        @Column(name = "linear_id") private final String linearId;
+        @Column(name = "name") private final String name;
+        @Column(name = "batch_no") private final String batchNo;
+        @Column(name = "yom") private final int yom;
+        @Column(name = "issuer") private final String issuer;
+        @Column(name = "valuation") private final long valuation;
+        @Column(name = "valuation_currency") private final String valuationCurrency;
+        @Column(name = "resale_valuation") private final long resaleValuation;
+        @Column(name = "warranty") private final int warranty;
+
+        public PersistentInstrument(String linearId, String name, String batchNo, int yom, String issuer,
+                                    long valuation, String valuationCurrency, long resaleValuation, int warranty) {
+            this.linearId = linearId;
+            this.name = name;
+            this.batchNo = batchNo;
+            this.yom = yom;
+            this.issuer = issuer;
+            this.valuation = valuation;
+            this.valuationCurrency = valuationCurrency;
+            this.resaleValuation = resaleValuation;
+            this.warranty = warranty;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentInstrument() {
+            this.linearId = null;
+            this.name = null;
+            this.batchNo = null;
+            this.yom = 0;
+            this.issuer = null;
+            this.valuation = 0;
+            this.valuationCurrency = null;
+            this.resaleValuation = 0;
+            this.warranty = 0;
+        }
+
+        public String getLinearId() {
+            return linearId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getBatchNo() {
+            return batchNo;
+        }
+
+        public int getYom() {
+            return yom;
+        }
+
+        public String getIssuer() {
+            return issuer;
+        }
+
+        public long getValuation() {
+            return valuation;
+        }
+
+        public String getValuationCurrency() {
+            return valuationCurrency;
+        }
+
+        public long getResaleValuation() {
+            return resaleValuation;
+        }
+
+        public int getWarranty() {
+            return warranty;
+        }
+    }
+}
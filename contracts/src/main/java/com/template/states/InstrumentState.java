@@ -2,16 +2,21 @@ package com.template.states;
 
 import com.r3.corda.lib.tokens.contracts.states.EvolvableTokenType;
 import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.google.common.collect.ImmutableList;
 import com.template.contracts.InstrumentContract;
+import com.template.schemas.InstrumentSchemaV1;
 import net.corda.core.contracts.*;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Currency;
 import java.util.List;
 
 @BelongsToContract(InstrumentContract.class)
-public class InstrumentState extends EvolvableTokenType {
+public class InstrumentState extends EvolvableTokenType implements QueryableState {
 
     private final UniqueIdentifier linearId;
     private final List<Party> maintainers;
@@ -88,4 +93,22 @@ public class InstrumentState extends EvolvableTokenType {
         return new TokenPointer<>(linearPointer, fractionDigits);
     }
 
+    @NotNull
+    @Override
+    public PersistentState generateMappedObject(@NotNull MappedSchema schema) {
+        if (schema instanceof InstrumentSchemaV1) {
+            return new InstrumentSchemaV1.PersistentInstrument(linearId.getId().toString(), name, batchNo, yom,
+                    issuer.getName().toString(), valuation.getQuantity(), valuation.getToken().getCurrencyCode(),
+                    resaleValuation.getQuantity(), warranty);
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new InstrumentSchemaV1());
+    }
+
 }
@@ -1,13 +1,262 @@
 package com.template.contracts;
 
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.NonFungibleTokenContract;
+import com.r3.corda.lib.tokens.contracts.commands.Create;
+import com.r3.corda.lib.tokens.contracts.commands.IssueTokenCommand;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.TimeWindow;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
 import net.corda.testing.node.MockServices;
 import org.junit.Test;
 
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
 public class ContractTests {
-    private final MockServices ledgerServices = new MockServices();
+    private static final String INSTRUMENT_CONTRACT = InstrumentContract.class.getName();
+    private static final String TOKEN_CONTRACT = NonFungibleTokenContract.class.getName();
+
+    private final TestIdentity maker = new TestIdentity(CordaX500Name.parse("O=PartyA,L=London,C=GB"));
+    private final TestIdentity holder = new TestIdentity(CordaX500Name.parse("O=PartyB,L=New York,C=US"));
+    private final MockServices ledgerServices = new MockServices(
+            ImmutableList.of("com.template.contracts", "com.r3.corda.lib.tokens.contracts"), maker);
+
+    /* Transactions are dated mid 2020, so instruments may have been manufactured in 2020 at the latest */
+    private final TimeWindow in2020 = TimeWindow.between(
+            Instant.parse("2020-06-01T00:00:00Z"), Instant.parse("2020-06-01T00:01:00Z"));
+
+    /* A command of another contract, listed ahead of the instrument's own */
+    private static class OtherCommand implements CommandData {}
+
+    @Test
+    public void bulkCreateVerifiesWithTheIssuerSignature() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument(2019));
+                tx.output(INSTRUMENT_CONTRACT, instrument(2020));
+                tx.timeWindow(in2020);
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.BulkCreate());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void bulkCreateFailsWithoutTheIssuerSignature() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument(2019));
+                tx.timeWindow(in2020);
+                tx.command(holder.getPublicKey(), new InstrumentContract.Commands.BulkCreate());
+                return tx.failsWith("Instrument issuer must be a signer");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void bulkCreateFailsWithAnInput() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(INSTRUMENT_CONTRACT, instrument(2019));
+                tx.output(INSTRUMENT_CONTRACT, instrument(2019));
+                tx.timeWindow(in2020);
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.BulkCreate());
+                return tx.failsWith("Inputs while creating instruments must be 0.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void manufactureYearIsBoundByTheTimeWindow() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument(2021));
+                tx.timeWindow(in2020);
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.BulkCreate());
+                return tx.failsWith("yom(Year of Manufacture) cannot be greater than current year");
+            });
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument(2021));
+                tx.timeWindow(in2020);
+                tx.command(maker.getPublicKey(), new Create());
+                return tx.failsWith("yom(Year of Manufacture) cannot be greater than current year");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void createTakesSignersFromTheEvolvableTokenCommand() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument(2019));
+                tx.timeWindow(in2020);
+                tx.command(holder.getPublicKey(), new OtherCommand());
+                tx.command(maker.getPublicKey(), new Create());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void bulkUpdateVerifiesWithTheIssuerSignature() {
+        InstrumentState instrument = instrument(2019);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(INSTRUMENT_CONTRACT, instrument);
+                tx.output(INSTRUMENT_CONTRACT, revalued(instrument, ImmutableList.of(maker.getParty())));
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.BulkUpdate());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void bulkUpdateFailsWhenTheMaintainersChange() {
+        InstrumentState instrument = instrument(2019);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(INSTRUMENT_CONTRACT, instrument);
+                tx.output(INSTRUMENT_CONTRACT,
+                        revalued(instrument, ImmutableList.of(maker.getParty(), holder.getParty())));
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.BulkUpdate());
+                return tx.failsWith("Maintainers of an instrument cannot change");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void bulkUpdateFailsWithoutAnInput() {
+        InstrumentState instrument = instrument(2019);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, revalued(instrument, ImmutableList.of(maker.getParty())));
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.BulkUpdate());
+                return tx.failsWith("Inputs while updating instrument must be 1.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void retireVerifiesWithTheIssuerSignature() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(INSTRUMENT_CONTRACT, instrument(2019));
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.Retire());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void retireFailsWithoutTheIssuerSignatureOrWithAnOutput() {
+        InstrumentState instrument = instrument(2019);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(INSTRUMENT_CONTRACT, instrument);
+                tx.command(holder.getPublicKey(), new InstrumentContract.Commands.Retire());
+                return tx.failsWith("Instrument issuer must be a signer");
+            });
+            l.transaction(tx -> {
+                tx.input(INSTRUMENT_CONTRACT, instrument);
+                tx.output(INSTRUMENT_CONTRACT, instrument);
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.Retire());
+                return tx.failsWith("Retiring must not produce an instrument.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void snapshotVerifiesWithTheIssuerAndHolderSignatures() {
+        InstrumentState instrument = instrument(2019);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument);
+                tx.output(TOKEN_CONTRACT, heldToken(instrument));
+                tx.command(ImmutableList.of(maker.getPublicKey(), holder.getPublicKey()),
+                        new InstrumentContract.Commands.Snapshot(SecureHash.randomSHA256()));
+                tx.command(maker.getPublicKey(), new IssueTokenCommand(issuedType(instrument), Collections.singletonList(1)));
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void snapshotFailsWithoutTheHolderSignature() {
+        InstrumentState instrument = instrument(2019);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument);
+                tx.output(TOKEN_CONTRACT, heldToken(instrument));
+                tx.command(maker.getPublicKey(), new InstrumentContract.Commands.Snapshot(SecureHash.randomSHA256()));
+                tx.command(maker.getPublicKey(), new IssueTokenCommand(issuedType(instrument), Collections.singletonList(1)));
+                return tx.failsWith("Holder of the held token must be a signer");
+            });
+            return null;
+        });
+    }
 
     @Test
-    public void dummyTest() {
+    public void snapshotFailsWithAnInputOrWithoutTheHeldToken() {
+        InstrumentState instrument = instrument(2019);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(INSTRUMENT_CONTRACT, instrument);
+                tx.output(INSTRUMENT_CONTRACT, instrument);
+                tx.command(ImmutableList.of(maker.getPublicKey(), holder.getPublicKey()),
+                        new InstrumentContract.Commands.Snapshot(SecureHash.randomSHA256()));
+                return tx.failsWith("A snapshot must not have inputs, so its chain starts with it.");
+            });
+            l.transaction(tx -> {
+                tx.output(INSTRUMENT_CONTRACT, instrument);
+                tx.command(ImmutableList.of(maker.getPublicKey(), holder.getPublicKey()),
+                        new InstrumentContract.Commands.Snapshot(SecureHash.randomSHA256()));
+                return tx.failsWith("A snapshot must re-create 1 held token of the instrument.");
+            });
+            return null;
+        });
+    }
+
+    private InstrumentState instrument(int yom) {
+        Amount<Currency> valuation = Amount.parseCurrency("1000 USD");
+        return new InstrumentState(new UniqueIdentifier(), ImmutableList.of(maker.getParty()), "Guitar", yom, "B-0001",
+                valuation, 2, valuation);
+    }
+
+    private static InstrumentState revalued(InstrumentState instrument, List<Party> maintainers) {
+        return new InstrumentState(instrument.getLinearId(), maintainers, instrument.getName(), instrument.getYom(),
+                instrument.getBatchNo(), instrument.getValuation(), instrument.getWarranty(),
+                Amount.parseCurrency("900 USD"));
+    }
+
+    private IssuedTokenType issuedType(InstrumentState instrument) {
+        return new IssuedTokenType(maker.getParty(), instrument.toPointer());
+    }
 
+    private NonFungibleToken heldToken(InstrumentState instrument) {
+        return new NonFungibleToken(issuedType(instrument), holder.getParty(), new UniqueIdentifier(), null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.template.states.InstrumentState;
+import kotlin.Pair;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+
+/**
+ * Buyer side of {@link BatchSellInstrumentFlow}. Receives all instruments of the batch at once and pays for them
+ * with a single token selection covering the summed resale valuations.
+ */
+@InitiatedBy(BatchSellInstrumentFlow.class)
+public class BatchBuyInstrumentFlow extends FlowLogic<SignedTransaction> {
+
+    private final FlowSession SellerSession;
+
+    private final ProgressTracker.Step GETTING_NFTS = new ProgressTracker.Step("Getting Non-Fungible Tokens of the batch from seller");
+    private final ProgressTracker.Step GETTING_HOLDNFTS = new ProgressTracker.Step("Getting Held Non-Fungible Tokens of the batch by seller");
+    private final ProgressTracker.Step GETTING_ISSUEDCURRENCY = new ProgressTracker.Step("Getting issued currency");
+    private final ProgressTracker.Step QUERYING_TOKENS = new ProgressTracker.Step("Selecting tokens for the whole batch");
+    private final ProgressTracker.Step SENDING_INPUTFT = new ProgressTracker.Step("Send Input FT");
+    private final ProgressTracker.Step SENDING_OUTPUTFT = new ProgressTracker.Step("Sending Output FT");
+    private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
+
+    private final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step("Obtaining notary signature and recording transaction.") {
+        @Override
+        public ProgressTracker childProgressTracker() {
+            return FinalityFlow.Companion.tracker();
+        }
+    };
+
+    private final ProgressTracker progressTracker = new ProgressTracker(
+            GETTING_NFTS,
+            GETTING_HOLDNFTS,
+            GETTING_ISSUEDCURRENCY,
+            QUERYING_TOKENS,
+            SENDING_INPUTFT,
+            SENDING_OUTPUTFT,
+            SIGNING_TRANSACTION,
+            FINALISING_TRANSACTION
+    );
+
+    public BatchBuyInstrumentFlow(FlowSession sellerSession) {
+        this.SellerSession = sellerSession;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+
+        progressTracker.setCurrentStep(GETTING_NFTS);
+
+        final List<StateAndRef<InstrumentState>> instrumentStateStateAndRefList =
+                subFlow(new ReceiveStateAndRefFlow<>(SellerSession));
+
+        if (instrumentStateStateAndRefList.isEmpty())
+            throw new FlowException(" Received an empty batch of instruments (StateAndRef)");
+
+        progressTracker.setCurrentStep(GETTING_HOLDNFTS);
+
+        final List<StateAndRef<NonFungibleToken>> ownedinstrumentStateStateAndRefList =
+                subFlow(new ReceiveStateAndRefFlow<>(SellerSession));
+
+        if (ownedinstrumentStateStateAndRefList.size() != instrumentStateStateAndRefList.size())
+            throw new FlowException(" Received " + ownedinstrumentStateStateAndRefList.size() + " held instruments for "
+                    + instrumentStateStateAndRefList.size() + " instruments");
+
+        /* Checking that every held instrument matches the instrument sent at the same position, and that the batch
+         holds no duplicates */
+        final Set<UniqueIdentifier> seen = new HashSet<>();
+        long price = 0L;
+        for (int i = 0; i < instrumentStateStateAndRefList.size(); i++) {
+            InstrumentState instrumentState = instrumentStateStateAndRefList.get(i).getState().getData();
+            UniqueIdentifier heldLinearId = ((TokenPointer<InstrumentState>) ownedinstrumentStateStateAndRefList.get(i)
+                    .getState().getData().getTokenType()).getPointer().getPointer();
+
+            if (!instrumentState.getLinearId().equals(heldLinearId))
+                throw new FlowException(" Received instrument and held instrument sent by user do not match");
+            if (!seen.add(heldLinearId))
+                throw new FlowException(" Received instrument " + heldLinearId + " more than once");
+
+            price = Math.addExact(price, instrumentState.getResaleValuation().getQuantity());
+        }
+
+        progressTracker.setCurrentStep(GETTING_ISSUEDCURRENCY);
+
+        final IssuedTokenType issuedCurrency = SellerSession.receive(IssuedTokenType.class).unwrap(it -> it);
+
+        progressTracker.setCurrentStep(QUERYING_TOKENS);
+
+        /* Generate the buyer's currency inputs, to be spent, and the outputs, the currency tokens that will be
+         held by the seller and our change, from the node's striped cash pool. The inputs are moved onto the notary
+         of the held instrument if they live on another one. */
+        final Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> inputsAndOutputs =
+                BuyerCashSelection.selectPayment(this, issuedCurrency, price, SellerSession.getCounterparty(),
+                        ownedinstrumentStateStateAndRefList.get(0).getState().getNotary());
+
+        /* The selected tokens stay reserved until the transaction is recorded, and go back to the pool on any failure */
+        final SignedTransaction recordedTxn;
+        try {
+            progressTracker.setCurrentStep(SENDING_INPUTFT);
+
+            subFlow(new SendStateAndRefFlow(SellerSession, inputsAndOutputs.getFirst()));
+
+            progressTracker.setCurrentStep(SENDING_OUTPUTFT);
+
+            SellerSession.send(inputsAndOutputs.getSecond());
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+            final long batchPrice = price;
+            final SecureHash SignedTxn = subFlow(new SignTransactionFlow(SellerSession){
+                @Override
+                protected void checkTransaction(@NotNull SignedTransaction stx) throws FlowException {
+                    checkSellerOutputs(stx, ownedinstrumentStateStateAndRefList, inputsAndOutputs.getFirst(),
+                            issuedCurrency, batchPrice, seen);
+                }
+            } ).getId();
+
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+            recordedTxn = subFlow(new ReceiveFinalityFlow(SellerSession, SignedTxn));
+        } catch (Throwable e) {
+            BuyerCashSelection.release(this);
+            throw e;
+        }
+        BuyerCashSelection.spent(this);
+        PurchasedInstruments.record(this, instrumentStateStateAndRefList);
+        return recordedTxn;
+    }
+
+    /* The seller built the transaction: it may only spend the held tokens and the inputs we sent, must move every
+     instrument of the batch to us, must pay the seller exactly the price and must return the rest to us as change */
+    private void checkSellerOutputs(SignedTransaction stx, List<StateAndRef<NonFungibleToken>> heldTokens,
+                                    List<StateAndRef<FungibleToken>> inputs, IssuedTokenType issuedCurrency, long price,
+                                    Set<UniqueIdentifier> linearIds) throws FlowException {
+        final Set<StateRef> allowedInputs = new HashSet<>();
+        for (StateAndRef<NonFungibleToken> heldToken : heldTokens) allowedInputs.add(heldToken.getRef());
+        long sent = 0L;
+        for (StateAndRef<FungibleToken> input : inputs) {
+            allowedInputs.add(input.getRef());
+            sent = Math.addExact(sent, input.getState().getData().getAmount().getQuantity());
+        }
+        if (!allowedInputs.containsAll(stx.getTx().getInputs()))
+            throw new FlowException(" Transaction spends states we did not offer");
+
+        final Party seller = SellerSession.getCounterparty();
+        long change = 0L;
+        long paid = 0L;
+        final Set<UniqueIdentifier> toUs = new HashSet<>();
+        for (ContractState output : stx.getTx().getOutputStates()) {
+            if (output instanceof FungibleToken) {
+                FungibleToken token = (FungibleToken) output;
+                if (!token.getIssuedTokenType().equals(issuedCurrency)) continue;
+                if (token.getHolder().equals(getOurIdentity()))
+                    change = Math.addExact(change, token.getAmount().getQuantity());
+                else if (token.getHolder().equals(seller))
+                    paid = Math.addExact(paid, token.getAmount().getQuantity());
+            } else if (output instanceof NonFungibleToken) {
+                NonFungibleToken token = (NonFungibleToken) output;
+                if (token.getHolder().equals(getOurIdentity()) && token.getTokenType() instanceof TokenPointer)
+                    toUs.add(((TokenPointer<?>) token.getTokenType()).getPointer().getPointer());
+            }
+        }
+        if (!toUs.containsAll(linearIds))
+            throw new FlowException(" Transaction moves only " + toUs.size() + " of the " + linearIds.size()
+                    + " instruments of the batch to us");
+        if (paid != price)
+            throw new FlowException(" Transaction pays the seller " + paid + " instead of the proposed " + price);
+        if (sent - change != price)
+            throw new FlowException(" Transaction takes " + (sent - change) + " of our " + sent + " instead of " + price);
+    }
+}
@@ -0,0 +1,300 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.internal.schemas.PersistentNonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.money.FiatCurrency;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
+import com.template.schemas.InstrumentQueries;
+import com.template.services.DistributionListCoalescer;
+import com.template.services.NetworkTopologyService;
+import com.template.services.SellOrderIntake;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.node.services.vault.VaultSchemaV1;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities.heldTokenCriteria;
+
+/**
+ * Sells a whole batch of instruments to one buyer in a single DvP transaction. The instruments are either given
+ * explicitly by linear id or selected by batch no., in which case only those we still hold are sold. All NFT moves and one aggregated payment from the buyer
+ * (see {@link BatchBuyInstrumentFlow}) go into the same transaction, so the batch costs one session, one signature
+ * round and one notarisation instead of one of each per instrument.
+ */
+@InitiatingFlow
+@StartableByRPC
+public class BatchSellInstrumentFlow extends FlowLogic<String> {
+
+    private static final int BATCH_PAGE_SIZE = 200;
+
+    private final List<String> instrumentIds;
+    private final String batchNo;
+    private final Party buyer;
+    private final String issuedCurrency;
+
+    private final ProgressTracker.Step GETTING_NFTS = new ProgressTracker.Step("Getting Non-Fungible Tokens of the batch");
+    private final ProgressTracker.Step GETTING_HOLDNFTS = new ProgressTracker.Step("Getting Held Non-Fungible Tokens of the batch");
+    private final ProgressTracker.Step START_BUYERSESSION = new ProgressTracker.Step("Starting Buyer Session");
+    private final ProgressTracker.Step SENDING_NFTS = new ProgressTracker.Step("Sending NFTs");
+    private final ProgressTracker.Step SENDING_HOLDNFTS = new ProgressTracker.Step("Sending Hold NFTs");
+    private final ProgressTracker.Step SENDING_ISSUEDCURRENCY = new ProgressTracker.Step("Sending issued currency");
+    private final ProgressTracker.Step RECEIVED_INPUTTOKENS = new ProgressTracker.Step("Received Input tokens");
+    private final ProgressTracker.Step RECEIVED_OUTPUTTOKENS = new ProgressTracker.Step("Received output tokens");
+    private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
+
+    private final ProgressTracker.Step GATHERING_SIGS = new ProgressTracker.Step("Gathering the counterparty's signature.") {
+        @Override
+        public ProgressTracker childProgressTracker() {
+            return CollectSignaturesFlow.Companion.tracker();
+        }
+    };
+    private final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step("Obtaining notary signature and recording transaction.") {
+        @Override
+        public ProgressTracker childProgressTracker() {
+            return FinalityFlow.Companion.tracker();
+        }
+    };
+
+    private final ProgressTracker progressTracker = new ProgressTracker(
+            GETTING_NFTS,
+            GETTING_HOLDNFTS,
+            START_BUYERSESSION,
+            SENDING_NFTS,
+            SENDING_HOLDNFTS,
+            SENDING_ISSUEDCURRENCY,
+            RECEIVED_INPUTTOKENS,
+            RECEIVED_OUTPUTTOKENS,
+            SIGNING_TRANSACTION,
+            GATHERING_SIGS,
+            FINALISING_TRANSACTION
+    );
+
+    /* Sells the instruments with the given linear ids */
+    public BatchSellInstrumentFlow(List<String> instrumentIds, Party buyer, String issuedCurrency) {
+        this.instrumentIds = instrumentIds;
+        this.batchNo = null;
+        this.buyer = buyer;
+        this.issuedCurrency = issuedCurrency;
+    }
+
+    /* Sells every instrument of the given batch no. */
+    public BatchSellInstrumentFlow(String batchNo, Party buyer, String issuedCurrency) {
+        this.instrumentIds = null;
+        this.batchNo = batchNo;
+        this.buyer = buyer;
+        this.issuedCurrency = issuedCurrency;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public String call() throws FlowException {
+
+        progressTracker.setCurrentStep(GETTING_NFTS);
+
+        final List<StateAndRef<InstrumentState>> instrumentStateStateAndRefList = queryInstruments();
+        if (instrumentStateStateAndRefList.isEmpty()) throw new FlowException(" No instruments found for the batch");
+
+        /* No instrument of the batch may be sold by another flow or sell order at the same time */
+        final SellOrderIntake intake = getServiceHub().cordaService(SellOrderIntake.class);
+        final String flowId = getRunId().getUuid().toString();
+        final List<String> claimed = new ArrayList<>();
+        try {
+            for (StateAndRef<InstrumentState> instrumentStateAndRef : instrumentStateStateAndRefList) {
+                String linearId = instrumentStateAndRef.getState().getData().getLinearId().getId().toString();
+                SellOrderIntake.Claim claim = intake.claimForFlow(linearId, flowId);
+                if (claim != null)
+                    throw new FlowException("Instrument " + linearId + " is already being sold by " + claim.getClientOrderId());
+                claimed.add(linearId);
+            }
+            return sell(instrumentStateStateAndRefList);
+        } finally {
+            for (String linearId : claimed) intake.releaseForFlow(linearId, flowId);
+        }
+    }
+
+    @Suspendable
+    private String sell(List<StateAndRef<InstrumentState>> instrumentStateStateAndRefList) throws FlowException {
+
+        progressTracker.setCurrentStep(GETTING_HOLDNFTS);
+
+        /* Fetching the held NFT of every instrument, in the same order as the instruments */
+        final List<StateAndRef<NonFungibleToken>> ownedInstrumentTokensList = new ArrayList<>();
+        for (StateAndRef<InstrumentState> instrumentStateAndRef : instrumentStateStateAndRefList) {
+            TokenPointer<InstrumentState> tokenPointer = instrumentStateAndRef.getState().getData().toPointer();
+            List<StateAndRef<NonFungibleToken>> heldTokens = getServiceHub().getVaultService()
+                    .queryBy(NonFungibleToken.class, heldTokenCriteria(tokenPointer)).getStates();
+            if (heldTokens.size() != 1)
+                throw new FlowException("Held Non Fungible token not found for instrument "
+                        + instrumentStateAndRef.getState().getData().getLinearId());
+            ownedInstrumentTokensList.add(heldTokens.get(0));
+        }
+
+        /* One transaction has one notary, so the whole batch must live on the same notary shard */
+        final Party notary = ownedInstrumentTokensList.get(0).getState().getNotary();
+        for (StateAndRef<NonFungibleToken> heldToken : ownedInstrumentTokensList) {
+            if (!heldToken.getState().getNotary().equals(notary))
+                throw new FlowException("Instruments of the batch are on different notaries, " + notary.getName()
+                        + " and " + heldToken.getState().getNotary().getName() + ", sell them per notary");
+        }
+
+        progressTracker.setCurrentStep(START_BUYERSESSION);
+
+        final FlowSession buyerSession = initiateFlow(buyer);
+
+        progressTracker.setCurrentStep(SENDING_NFTS);
+
+        subFlow(new SendStateAndRefFlow(buyerSession, instrumentStateStateAndRefList));
+
+        progressTracker.setCurrentStep(SENDING_HOLDNFTS);
+
+        subFlow(new SendStateAndRefFlow(buyerSession, ownedInstrumentTokensList));
+
+        progressTracker.setCurrentStep(SENDING_ISSUEDCURRENCY);
+
+        final NetworkTopologyService topology = getServiceHub().cordaService(NetworkTopologyService.class);
+        TokenType tokenType = FiatCurrency.Companion.getInstance(issuedCurrency);
+        final Party currencyIssuer = topology.currencyIssuer(issuedCurrency);
+        if (currencyIssuer == null) throw new FlowException("No issuer of " + issuedCurrency + " on the network");
+        IssuedTokenType issuedCurrencyType = new IssuedTokenType(currencyIssuer, tokenType);
+        buyerSession.send(issuedCurrencyType);
+
+        /* Let's build the transaction with every NFT move until we receive inputs and outputs from Buyer */
+        TransactionBuilder transactionBuilder = new TransactionBuilder(notary);
+
+        for (StateAndRef<InstrumentState> instrumentStateAndRef : instrumentStateStateAndRefList) {
+            MoveTokensUtilities.addMoveNonFungibleTokens(transactionBuilder, getServiceHub(),
+                    instrumentStateAndRef.getState().getData().toPointer(), buyer);
+        }
+
+        /* Receive the currency states that will go as inputs to the transaction */
+        List<StateAndRef<FungibleToken>> inputCurrencyTokens = subFlow(new ReceiveStateAndRefFlow<FungibleToken>(buyerSession));
+
+        progressTracker.setCurrentStep(RECEIVED_INPUTTOKENS);
+
+        /* Check that none of the input tokens belong to us */
+        final long myOwnCurrency = inputCurrencyTokens.stream()
+                .filter(it -> it.getState().getData().getHolder().equals(getOurIdentity()))
+                .count();
+        if (myOwnCurrency != 0) throw new FlowException("Buyer sent us " + myOwnCurrency + " our own Token(s)");
+
+        /* Receive the currency states that will go as outputs to the transaction */
+        final List<FungibleToken> outputCurrencyTokens = buyerSession.receive(List.class).unwrap(it -> it);
+
+        progressTracker.setCurrentStep(RECEIVED_OUTPUTTOKENS);
+
+        /* Extracting the sum that will be paid by the buyer from output currency tokens */
+        final long sumPaid = outputCurrencyTokens.stream()
+                .filter(it -> it.getHolder().equals(getOurIdentity()))
+                .map(FungibleToken::getAmount)
+                .filter(it -> it.getToken().equals(issuedCurrencyType))
+                .map(Amount::getQuantity)
+                .reduce(0L, Math::addExact);
+
+        /* Check to ensure the sum to be paid by buyer covers the resale value of the whole batch, as the buyer pays it */
+        final long price = instrumentStateStateAndRefList.stream()
+                .map(it -> it.getState().getData().getResaleValuation().getQuantity())
+                .reduce(0L, Math::addExact);
+        if (sumPaid < price)
+        {
+            throw new FlowException(" We were being paid only " + sumPaid + " instead of " + price
+                    + " for a batch of " + instrumentStateStateAndRefList.size() + " instruments");
+        }
+
+        MoveTokensUtilities.addMoveTokens(transactionBuilder, inputCurrencyTokens, outputCurrencyTokens);
+
+        progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+        final SignedTransaction partiallySignedTransaction = getServiceHub().
+                signInitialTransaction(transactionBuilder, getOurIdentity().getOwningKey());
+
+        progressTracker.setCurrentStep(GATHERING_SIGS);
+
+        final SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow
+                (partiallySignedTransaction, Collections.singletonList(buyerSession)));
+
+        progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+        final SignedTransaction notarisedTxn =
+                subFlow(new FinalityFlow(fullySignedTransaction, Collections.singletonList(buyerSession)));
+
+        /* The maintainers learn of the new holders in a later batch, outside the sale */
+        final DistributionListCoalescer coalescer = getServiceHub().cordaService(DistributionListCoalescer.class);
+        for (StateAndRef<InstrumentState> instrumentStateAndRef : instrumentStateStateAndRefList)
+            coalescer.enqueue(instrumentStateAndRef.getState().getData(), buyer);
+
+        return "Batch of " + instrumentStateStateAndRefList.size() + " instruments sold in transaction " + notarisedTxn.getId();
+    }
+
+    /* Resolves the instruments of the batch either from the explicit linear ids or from the batch no. */
+    private List<StateAndRef<InstrumentState>> queryInstruments() throws FlowException {
+        if (instrumentIds != null) {
+            if (instrumentIds.isEmpty()) throw new FlowException(" No instrument ids given");
+
+            List<UUID> linearIds = instrumentIds.stream().map(UUID::fromString).distinct().collect(Collectors.toList());
+            QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null,
+                    linearIds, null, Vault.StateStatus.UNCONSUMED);
+
+            List<StateAndRef<InstrumentState>> states = getServiceHub().getVaultService()
+                    .queryBy(InstrumentState.class, queryCriteria, new PageSpecification(1, linearIds.size())).getStates();
+            if (states.size() != linearIds.size())
+                throw new FlowException(" Found " + states.size() + " of " + linearIds.size() + " instruments");
+            return states;
+        }
+
+        /* A batch may be larger than a page, and holds instruments we already sold on */
+        final List<StateAndRef<InstrumentState>> held = new ArrayList<>();
+        int page = 1;
+        long seen = 0;
+        while (true) {
+            Vault.Page<InstrumentState> results = getServiceHub().getVaultService().queryBy(InstrumentState.class,
+                    InstrumentQueries.byBatchNo(batchNo), new PageSpecification(page, BATCH_PAGE_SIZE));
+            Set<String> heldIds = heldByUs(results.getStates());
+            for (StateAndRef<InstrumentState> instrument : results.getStates())
+                if (heldIds.contains(instrument.getState().getData().getLinearId().getId().toString()))
+                    held.add(instrument);
+            seen += results.getStates().size();
+            if (seen >= results.getTotalStatesAvailable() || results.getStates().isEmpty()) break;
+            page++;
+        }
+        return held;
+    }
+
+    /* The linear ids, of the given instruments, of those we hold the unconsumed NFT of, in one query */
+    private Set<String> heldByUs(List<StateAndRef<InstrumentState>> instruments) {
+        if (instruments.isEmpty()) return Collections.emptySet();
+        final List<String> linearIds = instruments.stream()
+                .map(it -> it.getState().getData().getLinearId().getId().toString())
+                .collect(Collectors.toList());
+        return new HashSet<>(getServiceHub().withEntityManager((EntityManager entityManager) -> entityManager
+                .createQuery("SELECT t.tokenIdentifier FROM " + PersistentNonFungibleToken.class.getName() + " t, "
+                        + VaultSchemaV1.VaultStates.class.getName() + " tv"
+                        + " WHERE tv.stateRef = t.stateRef AND tv.stateStatus = :unconsumed"
+                        + " AND t.holder = :us AND t.tokenIdentifier IN :linearIds", String.class)
+                .setParameter("unconsumed", Vault.StateStatus.UNCONSUMED)
+                .setParameter("us", getOurIdentity())
+                .setParameter("linearIds", linearIds)
+                .getResultList()));
+    }
+}
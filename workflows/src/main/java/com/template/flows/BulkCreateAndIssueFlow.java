@@ -0,0 +1,99 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.BulkIssueService;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowExternalAsyncOperation;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.utilities.ProgressTracker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates many instruments and issues their tokens with few transactions, for onboarding a whole catalogue where
+ * {@link CreateAndIssue} would run two transactions per instrument.
+ *
+ * The specs are handed to the {@link BulkIssueService}, which issues every chunk of them as its own
+ * {@link CreateAndIssueChunkFlow} transaction holding both the instruments and their tokens. This flow drops the specs
+ * once they are handed over and only waits, so its checkpoint does not grow with the catalogue, and neither does that
+ * of any chunk flow. The chunk size comes from the constructor or the {@code bulkIssue.chunkSize} CorDapp config key,
+ * 100 if neither is given.
+ *
+ * Returns the linear ids of the created instruments, in the order of the specs. The issuance lives in the node's
+ * memory only: after a node restart this flow fails, while the chunks already started finish on their own.
+ */
+@StartableByRPC
+public class BulkCreateAndIssueFlow extends FlowLogic<List<UniqueIdentifier>> {
+
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /* Null once handed to the service, so the checkpoint taken while waiting does not carry the catalogue */
+    private List<InstrumentSpec> specs;
+    private final int chunkSize;
+
+    private final ProgressTracker.Step DISPATCHING = new ProgressTracker.Step("Handing the specs to the bulk issuer");
+    private final ProgressTracker.Step ISSUING = new ProgressTracker.Step("Awaiting the chunks");
+
+    private final ProgressTracker progressTracker = new ProgressTracker(DISPATCHING, ISSUING);
+
+    public BulkCreateAndIssueFlow(List<InstrumentSpec> specs) {
+        this(specs, 0);
+    }
+
+    public BulkCreateAndIssueFlow(List<InstrumentSpec> specs, int chunkSize) {
+        this.specs = specs;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public List<UniqueIdentifier> call() throws FlowException {
+
+        final int size = chunkSize > 0 ? chunkSize
+                : getServiceHub().getAppContext().getConfig().exists("bulkIssue.chunkSize")
+                ? getServiceHub().getAppContext().getConfig().getInt("bulkIssue.chunkSize") : DEFAULT_CHUNK_SIZE;
+        if (size < 1) throw new FlowException("Chunk size must be at least 1");
+
+        progressTracker.setCurrentStep(DISPATCHING);
+
+        final BulkIssueService bulkIssue = getServiceHub().cordaService(BulkIssueService.class);
+        final String issueId = bulkIssue.issue(specs, size);
+        specs = null;
+
+        progressTracker.setCurrentStep(ISSUING);
+
+        try {
+            return await(new Completion(bulkIssue, issueId));
+        } finally {
+            /* Also when the flow is killed or fails while waiting, so the issuance is not kept forever */
+            bulkIssue.release(issueId);
+        }
+    }
+
+    /* Suspends the flow until every chunk of the issuance is issued */
+    private static class Completion implements FlowExternalAsyncOperation<List<UniqueIdentifier>> {
+        private final BulkIssueService bulkIssue;
+        private final String issueId;
+
+        private Completion(BulkIssueService bulkIssue, String issueId) {
+            this.bulkIssue = bulkIssue;
+            this.issueId = issueId;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<List<UniqueIdentifier>> execute(@NotNull String deduplicationId) {
+            /* A replay from the last checkpoint waits on the same issuance */
+            return bulkIssue.completion(issueId);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ProgressTracker;
+
+import javax.persistence.EntityManager;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Revalues many instruments we maintain at once, e.g. from an end-of-day price file, where
+ * {@link UpdateInstrumentFlow} would run one transaction and one round of distribution per instrument.
+ *
+ * The revaluations come as a list or from a CSV file on the node with the columns linearId, resaleValuation (e.g.
+ * "1200 USD") and warranty, optionally under a header line. A file is read one chunk at a time, so its size does not
+ * matter. Each chunk of at most the chunk size is loaded with one vault query, along with the distribution lists of its
+ * instruments, and split by notary and by distribution list, so a holder only records the revaluations of its own
+ * instruments. Every part is one {@link UpdateInstrumentChunkFlow} transaction, sent once to each party on that
+ * distribution list. The chunk size comes from the constructor or the {@code bulkUpdate.chunkSize} CorDapp config key, 100
+ * if neither is given.
+ *
+ * Instruments that are not found unconsumed in our vault, or that we do not maintain, are skipped and logged.
+ */
+@StartableByRPC
+public class BulkUpdateInstrumentFlow extends FlowLogic<String> {
+
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private final List<InstrumentRevaluation> revaluations;
+    private final String csvPath;
+    private final int chunkSize;
+
+    private final ProgressTracker.Step REVALUING = new ProgressTracker.Step("Revaluing instruments chunk by chunk");
+
+    private final ProgressTracker progressTracker = new ProgressTracker(REVALUING);
+
+    public BulkUpdateInstrumentFlow(List<InstrumentRevaluation> revaluations) {
+        this(revaluations, 0);
+    }
+
+    public BulkUpdateInstrumentFlow(List<InstrumentRevaluation> revaluations, int chunkSize) {
+        this.revaluations = revaluations;
+        this.csvPath = null;
+        this.chunkSize = chunkSize;
+    }
+
+    public BulkUpdateInstrumentFlow(String csvPath) {
+        this(csvPath, 0);
+    }
+
+    public BulkUpdateInstrumentFlow(String csvPath, int chunkSize) {
+        this.revaluations = null;
+        this.csvPath = csvPath;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public String call() throws FlowException {
+
+        final int size = chunkSize > 0 ? chunkSize
+                : getServiceHub().getAppContext().getConfig().exists("bulkUpdate.chunkSize")
+                ? getServiceHub().getAppContext().getConfig().getInt("bulkUpdate.chunkSize") : DEFAULT_CHUNK_SIZE;
+
+        progressTracker.setCurrentStep(REVALUING);
+
+        final Tally tally = new Tally();
+        if (csvPath == null) {
+            for (int from = 0; from < revaluations.size(); from += size)
+                revalue(new ArrayList<>(revaluations.subList(from, Math.min(from + size, revaluations.size()))), tally);
+        } else {
+            long offset = 0L;
+            while (true) {
+                final CsvChunk chunk = readChunk(csvPath, offset, size);
+                if (chunk.revaluations.isEmpty()) break;
+                offset = chunk.next;
+                revalue(chunk.revaluations, tally);
+            }
+        }
+
+        return "Revalued " + tally.updated + " instruments in " + tally.transactions + " transactions, skipped "
+                + tally.skipped + ".";
+    }
+
+    @Suspendable
+    private void revalue(List<InstrumentRevaluation> chunk, Tally tally) throws FlowException {
+
+        /* The last revaluation of an instrument within the chunk wins */
+        final Map<UniqueIdentifier, InstrumentRevaluation> byLinearId = new LinkedHashMap<>();
+        for (InstrumentRevaluation revaluation : chunk) byLinearId.put(revaluation.getLinearId(), revaluation);
+
+        final List<UUID> ids = byLinearId.keySet().stream().map(UniqueIdentifier::getId).collect(Collectors.toList());
+        final QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(null, ids, null,
+                Vault.StateStatus.UNCONSUMED);
+        final Map<UniqueIdentifier, StateAndRef<InstrumentState>> current = new HashMap<>();
+        for (StateAndRef<InstrumentState> stateAndRef : getServiceHub().getVaultService()
+                .queryBy(InstrumentState.class, criteria, new PageSpecification(1, ids.size())).getStates())
+            current.put(stateAndRef.getState().getData().getLinearId(), stateAndRef);
+
+        final Map<UUID, Set<Party>> distributionLists = distributionLists(ids);
+
+        /* Parts keyed by notary and distribution list */
+        final Map<List<Object>, List<StateAndRef<InstrumentState>>> inputs = new LinkedHashMap<>();
+        final Map<List<Object>, List<InstrumentState>> outputs = new LinkedHashMap<>();
+        for (InstrumentRevaluation revaluation : byLinearId.values()) {
+            StateAndRef<InstrumentState> stateAndRef = current.get(revaluation.getLinearId());
+            if (stateAndRef == null || !stateAndRef.getState().getData().getMaintainers().contains(getOurIdentity())) {
+                getLogger().warn("Skipping revaluation of {}, not an instrument we maintain", revaluation.getLinearId());
+                tally.skipped++;
+                continue;
+            }
+
+            InstrumentState instrumentState = stateAndRef.getState().getData();
+            List<Object> part = Arrays.asList(stateAndRef.getState().getNotary(),
+                    distributionLists.getOrDefault(instrumentState.getLinearId().getId(), Collections.emptySet()));
+            inputs.computeIfAbsent(part, it -> new ArrayList<>()).add(stateAndRef);
+            outputs.computeIfAbsent(part, it -> new ArrayList<>()).add(new InstrumentState(instrumentState.getLinearId(),
+                    instrumentState.getMaintainers(), instrumentState.getName(), instrumentState.getYom(),
+                    instrumentState.getBatchNo(), instrumentState.getValuation(), revaluation.getWarranty(),
+                    revaluation.getResaleValuation()));
+        }
+
+        for (List<Object> part : inputs.keySet()) {
+            @SuppressWarnings("unchecked")
+            final Set<Party> recipients = (Set<Party>) part.get(1);
+            final SignedTransaction stx = subFlow(new UpdateInstrumentChunkFlow(inputs.get(part), outputs.get(part),
+                    new HashSet<>(recipients)));
+            tally.updated += inputs.get(part).size();
+            tally.transactions++;
+            getLogger().info("Revalued {} instruments in {}", inputs.get(part).size(), stx.getId());
+        }
+    }
+
+    /* The parties the tokens SDK recorded as holding a token of each instrument, in one query */
+    private Map<UUID, Set<Party>> distributionLists(List<UUID> linearIds) {
+        final List<Object[]> records = getServiceHub().withEntityManager((EntityManager entityManager) -> entityManager
+                .createQuery("SELECT DISTINCT r.linearId, r.party FROM DistributionRecord r WHERE r.linearId IN :linearIds",
+                        Object[].class)
+                .setParameter("linearIds", linearIds)
+                .getResultList());
+        final Map<UUID, Set<Party>> distributionLists = new HashMap<>();
+        for (Object[] record : records)
+            distributionLists.computeIfAbsent((UUID) record[0], it -> new HashSet<>()).add((Party) record[1]);
+        return distributionLists;
+    }
+
+    /* Reads up to max revaluations from the file, starting at the byte offset; the next chunk starts where this ends.
+     An open file cannot be checkpointed across the chunk's transactions, so each chunk reopens it, but seeks straight
+     to its offset: every byte of the file is read once over the whole run. */
+    private static CsvChunk readChunk(String csvPath, long offset, int max) throws FlowException {
+        final List<InstrumentRevaluation> revaluations = new ArrayList<>();
+        long position = offset;
+        try (FileChannel channel = FileChannel.open(Paths.get(csvPath), StandardOpenOption.READ);
+             InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(offset)))) {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while (revaluations.size() < max && (b = in.read()) != -1) {
+                position++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                InstrumentRevaluation revaluation = parse(line);
+                if (revaluation != null) revaluations.add(revaluation);
+                line.reset();
+            }
+            if (revaluations.size() < max && line.size() > 0) {
+                InstrumentRevaluation revaluation = parse(line);
+                if (revaluation != null) revaluations.add(revaluation);
+            }
+        } catch (IOException e) {
+            throw new FlowException("Could not read revaluations from " + csvPath, e);
+        }
+        return new CsvChunk(revaluations, position);
+    }
+
+    private static InstrumentRevaluation parse(ByteArrayOutputStream bytes) throws FlowException {
+        final String line = new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+        if (line.isEmpty() || line.startsWith("linearId")) return null;
+
+        final String[] columns = line.split(",");
+        try {
+            if (columns.length != 3) throw new IllegalArgumentException("expected 3 columns");
+            return new InstrumentRevaluation(UniqueIdentifier.Companion.fromString(columns[0].trim()),
+                    Amount.parseCurrency(columns[1].trim()), Integer.parseInt(columns[2].trim()));
+        } catch (IllegalArgumentException e) {
+            throw new FlowException("Malformed revaluation line \"" + line + "\": " + e.getMessage());
+        }
+    }
+
+    private static class CsvChunk {
+        private final List<InstrumentRevaluation> revaluations;
+        private final long next;
+
+        private CsvChunk(List<InstrumentRevaluation> revaluations, long next) {
+            this.revaluations = revaluations;
+            this.next = next;
+        }
+    }
+
+    private static class Tally {
+        private int updated;
+        private int skipped;
+        private int transactions;
+    }
+}
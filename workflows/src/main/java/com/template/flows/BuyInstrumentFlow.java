@@ -6,31 +6,29 @@ import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
 import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
 import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
 import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
-import com.r3.corda.lib.tokens.contracts.types.TokenType;
-import com.r3.corda.lib.tokens.contracts.utilities.AmountUtilities;
-import com.r3.corda.lib.tokens.selection.TokenQueryBy;
-import com.r3.corda.lib.tokens.selection.database.selector.DatabaseTokenSelection;
-import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
-import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
+import com.r3.corda.lib.tokens.money.FiatCurrency;
+import com.template.services.FlowMetricsService;
+import com.template.services.FxRateService;
+import com.template.services.QuoteReservations;
 import com.template.states.InstrumentState;
 import kotlin.Pair;
-import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.PrivacySalt;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
 
-import static com.r3.corda.lib.tokens.selection.database.config.DatabaseSelectionConfigKt.RETRY_SLEEP_DEFAULT;
-import static com.r3.corda.lib.tokens.selection.database.config.DatabaseSelectionConfigKt.RETRY_CAP_DEFAULT;
-import static com.r3.corda.lib.tokens.selection.database.config.DatabaseSelectionConfigKt.PAGE_SIZE_DEFAULT;
-import static com.r3.corda.lib.tokens.selection.database.config.DatabaseSelectionConfigKt.MAX_RETRIES_DEFAULT;
 
 @InitiatedBy(SellInstrumentFlow.class)
 public class BuyInstrumentFlow extends FlowLogic<SignedTransaction> {
@@ -40,12 +38,14 @@ public class BuyInstrumentFlow extends FlowLogic<SignedTransaction> {
 
 
 
+    private final ProgressTracker.Step GETTING_PROPOSAL = new ProgressTracker.Step("Getting trade proposal from seller");
     private final ProgressTracker.Step GETTING_NFT = new ProgressTracker.Step("Getting Non-Fungible Token from seller");
     private final ProgressTracker.Step GETTING_HOLDNFT = new ProgressTracker.Step("Getting Held Non-Fungible Token by seller");
     private final ProgressTracker.Step GETTING_ISSUEDCURRENCY = new ProgressTracker.Step("Getting issued currency");
     private final ProgressTracker.Step QUERYING_TOKENS = new ProgressTracker.Step("Starting Buyer Session");
     private final ProgressTracker.Step SENDING_INPUTFT = new ProgressTracker.Step("Send Input FT");
     private final ProgressTracker.Step SENDING_OUTPUTFT = new ProgressTracker.Step("Sending Output NFT");
+    private final ProgressTracker.Step BUILDING_TRANSACTION = new ProgressTracker.Step("Building and signing the transaction for the seller");
     private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
     private final ProgressTracker.Step SENDING_TRANSACTION = new ProgressTracker.Step("Signing the transaction");
 
@@ -60,12 +60,14 @@ public class BuyInstrumentFlow extends FlowLogic<SignedTransaction> {
     // checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
     // function.
     private final ProgressTracker progressTracker = new ProgressTracker(
+            GETTING_PROPOSAL,
             GETTING_NFT,
             GETTING_HOLDNFT,
             GETTING_ISSUEDCURRENCY,
             QUERYING_TOKENS,
             SENDING_INPUTFT,
             SENDING_OUTPUTFT,
+            BUILDING_TRANSACTION,
             SIGNING_TRANSACTION,
             FINALISING_TRANSACTION
     );
@@ -88,80 +90,246 @@ public class BuyInstrumentFlow extends FlowLogic<SignedTransaction> {
     @Override
     public SignedTransaction call() throws FlowException {
 
-        progressTracker.setCurrentStep(GETTING_NFT);
-
-        /* Recieve the list of Instrument StateAndRef sent from Seller */
-        final List<StateAndRef<InstrumentState>> instrumentStateStateAndRefList =
-                subFlow(new ReceiveStateAndRefFlow<>(SellerSession));
-
-        /* Checking size of instrumentStateStateAndRefList to ensure only one StateAndRef was received */
-        if (instrumentStateStateAndRefList.size() != 1)
-            throw new FlowException(" Received multiple instrument type (StateAndRef)");
-
-        progressTracker.setCurrentStep(GETTING_HOLDNFT);
-
-        /* Recieve the list of Instrument StateAndRef sent from Seller that he owns */
-        final List<StateAndRef<NonFungibleToken>> ownedinstrumentStateStateAndRefList =
-                subFlow(new ReceiveStateAndRefFlow<>(SellerSession));
-
-        /* Checking size of instrumentStateStateAndRefList to ensure only one StateAndRef was received */
-        if (ownedinstrumentStateStateAndRefList.size() != 1)
-            throw new FlowException(" Received multiple owned instrument type (StateAndRef)");
+        /* Step timings, vault queries and round trips of this run are published by the metrics service */
+        final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+        metrics.track(this);
+
+        final StateAndRef<InstrumentState> instrumentStateAndRef;
+        final StateAndRef<NonFungibleToken> heldTokenStateAndRef;
+        final IssuedTokenType issuedCurrency;
+        /* The quote the seller named, whose reserved tokens we pay with; version 5 sellers only */
+        UUID quoteId = null;
+        /* The currencies and rates the seller accepts payment in; version 6 sellers only */
+        SettlementTerms terms = null;
+
+        /* Sellers on protocol version 2 open with a single trade proposal and send both states in one go; from
+         version 3 we also build and sign the transaction ourselves */
+        final int sellerVersion = SellerSession.getCounterpartyFlowInfo().getFlowVersion();
+        final boolean proposed = sellerVersion >= 2;
+        if (proposed) {
+            progressTracker.setCurrentStep(GETTING_PROPOSAL);
+
+            final TradeProposal proposal = SellerSession.receive(TradeProposal.class).unwrap(it -> it);
+            if (sellerVersion >= 6) terms = SellerSession.receive(SettlementTerms.class).unwrap(it -> {
+                if (it.getAccepted().isEmpty() || !it.getAccepted().get(0).equals(proposal.getIssuedCurrency()))
+                    throw new IllegalArgumentException("Settlement terms do not accept the proposed currency");
+                return it;
+            });
+            /* From version 4 the seller announces the back-chain of both states and we fetch what we lack in batches */
+            if (sellerVersion >= 4) subFlow(new ReceiveTransactionChainFlow(SellerSession));
+            final List<StateAndRef<ContractState>> proposedStates = subFlow(new ReceiveStateAndRefFlow<>(SellerSession));
+            metrics.roundTrip();
+
+            if (proposedStates.size() != 2
+                    || !proposedStates.get(0).getRef().equals(proposal.getInstrumentRef())
+                    || !proposedStates.get(1).getRef().equals(proposal.getHeldTokenRef())
+                    || !(proposedStates.get(0).getState().getData() instanceof InstrumentState)
+                    || !(proposedStates.get(1).getState().getData() instanceof NonFungibleToken))
+                throw new FlowException(" Received states do not match the trade proposal");
+
+            instrumentStateAndRef = cast(proposedStates.get(0));
+            heldTokenStateAndRef = cast(proposedStates.get(1));
+            issuedCurrency = proposal.getIssuedCurrency();
+            quoteId = proposal.getQuoteId();
+
+            /* We pay the resale valuation, as with version 1, from version 6 converted into the proposed currency at the
+             seller's rate if that agrees with ours */
+            final long resaleValuation = terms != null
+                    ? expectedPrice(terms, instrumentStateAndRef.getState().getData(), issuedCurrency)
+                    : instrumentStateAndRef.getState().getData().getResaleValuation().getQuantity();
+            if (proposal.getPrice() != resaleValuation)
+                throw new FlowException(" Proposed price " + proposal.getPrice() + " is not the resale valuation " + resaleValuation);
+        } else {
+            progressTracker.setCurrentStep(GETTING_NFT);
+
+            /* Recieve the list of Instrument StateAndRef sent from Seller */
+            final List<StateAndRef<InstrumentState>> instrumentStateStateAndRefList =
+                    subFlow(new ReceiveStateAndRefFlow<>(SellerSession));
+            metrics.roundTrip();
+
+            /* Checking size of instrumentStateStateAndRefList to ensure only one StateAndRef was received */
+            if (instrumentStateStateAndRefList.size() != 1)
+                throw new FlowException(" Received multiple instrument type (StateAndRef)");
+
+            progressTracker.setCurrentStep(GETTING_HOLDNFT);
+
+            /* Recieve the list of Instrument StateAndRef sent from Seller that he owns */
+            final List<StateAndRef<NonFungibleToken>> ownedinstrumentStateStateAndRefList =
+                    subFlow(new ReceiveStateAndRefFlow<>(SellerSession));
+            metrics.roundTrip();
+
+            /* Checking size of instrumentStateStateAndRefList to ensure only one StateAndRef was received */
+            if (ownedinstrumentStateStateAndRefList.size() != 1)
+                throw new FlowException(" Received multiple owned instrument type (StateAndRef)");
+
+            instrumentStateAndRef = instrumentStateStateAndRefList.get(0);
+            heldTokenStateAndRef = ownedinstrumentStateStateAndRefList.get(0);
+
+            progressTracker.setCurrentStep(GETTING_ISSUEDCURRENCY);
+
+            issuedCurrency = SellerSession.receive(IssuedTokenType.class).unwrap(it -> it);
+            metrics.roundTrip();
+        }
 
         /* Checking that the stateAndRef received for both instrument and owned instrument are the same */
-        if (!(instrumentStateStateAndRefList.get(0).getState().getData().getLinearId()
-                .equals(( (TokenPointer<InstrumentState>) ownedinstrumentStateStateAndRefList.get(0).getState().getData().getTokenType()).getPointer().getPointer() )))
+        final UniqueIdentifier linearId = instrumentStateAndRef.getState().getData().getLinearId();
+        if (!(linearId.equals(( (TokenPointer<InstrumentState>) heldTokenStateAndRef.getState().getData().getTokenType()).getPointer().getPointer() )))
             throw new FlowException(" Received instrument and held instrument sent by user do not match");
 
-        InstrumentState instrumentState = instrumentStateStateAndRefList.get(0).getState().getData();
-
-        final long price = instrumentState.getResaleValuation().getQuantity();
+        InstrumentState instrumentState = instrumentStateAndRef.getState().getData();
 
-        progressTracker.setCurrentStep(GETTING_ISSUEDCURRENCY);
+        final long price = terms != null
+                ? expectedPrice(terms, instrumentState, issuedCurrency) : instrumentState.getResaleValuation().getQuantity();
 
-        final IssuedTokenType issuedCurrency = SellerSession.receive(IssuedTokenType.class).unwrap(it -> it);
-
-        /* Assembling the currency states */
-        QueryCriteria heldByme = QueryUtilities
-                .heldTokenAmountCriteria(issuedCurrency.getTokenType(), getOurIdentity());
-
-        QueryCriteria properlyIssued = QueryUtilities
-                .tokenAmountWithIssuerCriteria(issuedCurrency.getTokenType(), issuedCurrency.getIssuer());
+        /* A quote is only paid from if we asked this seller for it, for this instrument, currency and price */
+        if (quoteId != null && !getServiceHub().cordaService(QuoteReservations.class)
+                .take(quoteId, SellerSession.getCounterparty(), linearId.getId(), issuedCurrency, price)) {
+            getLogger().warn("Ignoring quote {} named by {}, which does not match a quote we hold for the sale",
+                    quoteId, SellerSession.getCounterparty());
+            quoteId = null;
+        }
 
-        /* Have the utility do the "dollars to cents" conversion for us */
-        final Amount<TokenType> priceInCurrency = AmountUtilities.amount(price, issuedCurrency.getTokenType());
+        progressTracker.setCurrentStep(QUERYING_TOKENS);
 
         /* Generate the buyer's currency inputs, to be spent, and the outputs, the currency tokens that will be
-         held by Alice */
-        final DatabaseTokenSelection tokenSelection = new DatabaseTokenSelection(
-                getServiceHub(), 8, RETRY_SLEEP_DEFAULT, RETRY_CAP_DEFAULT, PAGE_SIZE_DEFAULT);
+         held by the seller and our change, from the node's striped cash pool. The inputs are moved onto the notary
+         of the held instrument if they live on another one. Under settlement terms, and without a quote reserving
+         tokens of the proposed currency, we pay from whichever accepted currencies take the fewest tokens. */
+        final Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> inputsAndOutputs = terms != null && quoteId == null
+                ? BuyerCashSelection.selectSettlement(this, terms, issuedCurrency, price, SellerSession.getCounterparty(),
+                        heldTokenStateAndRef.getState().getNotary())
+                : BuyerCashSelection.selectPayment(this, issuedCurrency, price, SellerSession.getCounterparty(),
+                        heldTokenStateAndRef.getState().getNotary(), quoteId);
+
+        /* The selected tokens stay reserved until the transaction is recorded, and go back to the pool on any failure */
+        final SignedTransaction recordedTxn;
+        try {
+            final SecureHash SignedTxn;
+            if (sellerVersion >= 3) {
+                progressTracker.setCurrentStep(BUILDING_TRANSACTION);
+
+                /* The seller only checks, countersigns and finalises what we send; it resolves our cash back-chain
+                 while receiving it */
+                final SignedTransaction buyerSignedTransaction =
+                        buildAndSign(instrumentStateAndRef, heldTokenStateAndRef, inputsAndOutputs);
+                subFlow(new SendTransactionFlow(SellerSession, buyerSignedTransaction));
+                SignedTxn = buyerSignedTransaction.getId();
+            } else {
+                SignedTxn = sendInputsAndSign(proposed, inputsAndOutputs, heldTokenStateAndRef.getRef(),
+                        issuedCurrency, price, linearId, metrics);
+            }
 
-        progressTracker.setCurrentStep(QUERYING_TOKENS);
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
-        final Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> inputsAndOutputs;
-        inputsAndOutputs = tokenSelection.generateMove(
-                Collections.singletonList(new kotlin.Pair<>(SellerSession.getCounterparty(), priceInCurrency)),
-                getOurIdentity(),
-                new TokenQueryBy(issuedCurrency.getIssuer(), it-> true, heldByme.and(properlyIssued)),
-                getRunId().getUuid());
+            recordedTxn = subFlow(new ReceiveFinalityFlow(SellerSession, SignedTxn));
+            metrics.roundTrip();
+        } catch (Throwable e) {
+            BuyerCashSelection.release(this);
+            throw e;
+        }
+        BuyerCashSelection.spent(this);
+        PurchasedInstruments.record(this, Collections.singletonList(instrumentStateAndRef));
+        return recordedTxn;
+    }
 
+    /* Protocol versions 1 and 2: we send our inputs, and with version 1 our outputs too, and sign the transaction the
+     seller builds from them */
+    @Suspendable
+    private SecureHash sendInputsAndSign(boolean proposed,
+                                         Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> inputsAndOutputs,
+                                         StateRef heldTokenRef, IssuedTokenType issuedCurrency, long price,
+                                         UniqueIdentifier linearId, FlowMetricsService metrics) throws FlowException {
         progressTracker.setCurrentStep(SENDING_INPUTFT);
 
         subFlow(new SendStateAndRefFlow(SellerSession, inputsAndOutputs.getFirst()));
 
-        progressTracker.setCurrentStep(SENDING_OUTPUTFT);
+        /* With version 2 the seller derives the outputs from our inputs, so they are not sent */
+        if (!proposed) {
+            progressTracker.setCurrentStep(SENDING_OUTPUTFT);
 
-        SellerSession.send(inputsAndOutputs.getSecond());
+            SellerSession.send(inputsAndOutputs.getSecond());
+        }
 
         progressTracker.setCurrentStep(SIGNING_TRANSACTION);
 
         final SecureHash SignedTxn = subFlow(new SignTransactionFlow(SellerSession){
             @Override
             protected void checkTransaction(@NotNull SignedTransaction stx) throws FlowException {
-
+                if (proposed)
+                    checkSellerOutputs(stx, inputsAndOutputs.getFirst(), heldTokenRef, issuedCurrency, price, linearId);
             }
         } ).getId();
+        metrics.roundTrip();
+        return SignedTxn;
+    }
+
+    /* Protocol version 3: the held token moves to us and our payment and change are added as selected, then we sign
+     first. The builder gets no service hub, so it does not try to resolve the instrument pointer from our vault,
+     which does not hold the instrument; the instrument goes in as a reference state instead. */
+    private SignedTransaction buildAndSign(StateAndRef<InstrumentState> instrumentStateAndRef,
+                                           StateAndRef<NonFungibleToken> heldTokenStateAndRef,
+                                           Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> inputsAndOutputs) {
+        final TransactionBuilder transactionBuilder = new TransactionBuilder(heldTokenStateAndRef.getState().getNotary(),
+                getRunId().getUuid(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                null, new PrivacySalt(), new ArrayList<>(), null);
+
+        transactionBuilder.addReferenceState(instrumentStateAndRef.referenced());
+        MoveTokensUtilities.addMoveTokens(transactionBuilder, ImmutableList.of(heldTokenStateAndRef),
+                ImmutableList.of(heldTokenStateAndRef.getState().getData().withNewHolder(getOurIdentity())));
+        MoveTokensUtilities.addMoveTokens(transactionBuilder, inputsAndOutputs.getFirst(), inputsAndOutputs.getSecond());
+
+        return getServiceHub().signInitialTransaction(transactionBuilder, getOurIdentity().getOwningKey());
+    }
+
+    /* With protocol version 2 the seller chose the currency outputs: the transaction may only spend the held token and
+     the inputs we sent, must move the instrument to us and must return our change less exactly the price */
+    private void checkSellerOutputs(SignedTransaction stx, List<StateAndRef<FungibleToken>> inputs, StateRef heldTokenRef,
+                                    IssuedTokenType issuedCurrency, long price, UniqueIdentifier linearId)
+            throws FlowException {
+        final Set<StateRef> allowedInputs = new HashSet<>();
+        allowedInputs.add(heldTokenRef);
+        long sent = 0L;
+        for (StateAndRef<FungibleToken> input : inputs) {
+            allowedInputs.add(input.getRef());
+            sent = Math.addExact(sent, input.getState().getData().getAmount().getQuantity());
+        }
+        if (!allowedInputs.containsAll(stx.getTx().getInputs()))
+            throw new FlowException(" Transaction spends states we did not offer");
+
+        long change = 0L;
+        boolean instrumentToUs = false;
+        for (ContractState output : stx.getTx().getOutputStates()) {
+            if (output instanceof FungibleToken) {
+                FungibleToken token = (FungibleToken) output;
+                if (token.getHolder().equals(getOurIdentity()) && token.getIssuedTokenType().equals(issuedCurrency))
+                    change = Math.addExact(change, token.getAmount().getQuantity());
+            } else if (output instanceof NonFungibleToken) {
+                NonFungibleToken token = (NonFungibleToken) output;
+                if (token.getHolder().equals(getOurIdentity()) && token.getTokenType() instanceof TokenPointer
+                        && ((TokenPointer<?>) token.getTokenType()).getPointer().getPointer().equals(linearId))
+                    instrumentToUs = true;
+            }
+        }
+        if (!instrumentToUs) throw new FlowException(" Transaction does not move the instrument to us");
+        if (sent - change != price)
+            throw new FlowException(" Transaction takes " + (sent - change) + " instead of the proposed " + price);
+    }
+
+    /* The resale valuation in the proposed currency, at the seller's rate, which must agree with ours */
+    private long expectedPrice(SettlementTerms terms, InstrumentState instrumentState, IssuedTokenType issuedCurrency)
+            throws FlowException {
+        final String valuationCode = instrumentState.getResaleValuation().getToken().getCurrencyCode();
+        final String settlementCode = issuedCurrency.getTokenType().getTokenIdentifier();
+        if (!valuationCode.equals(settlementCode)
+                && !getServiceHub().cordaService(FxRateService.class).agrees(terms.getRates(), valuationCode, settlementCode))
+            throw new FlowException(" Seller's " + valuationCode + "/" + settlementCode + " rate "
+                    + terms.getRates().rate(valuationCode, settlementCode) + " does not agree with ours");
+        return terms.getRates().convert(instrumentState.getResaleValuation().getQuantity(),
+                FiatCurrency.Companion.getInstance(valuationCode), issuedCurrency.getTokenType());
+    }
 
-        return subFlow(new ReceiveFinalityFlow(SellerSession, SignedTxn));
+    @SuppressWarnings("unchecked")
+    private static <T extends ContractState> StateAndRef<T> cast(StateAndRef<ContractState> stateAndRef) {
+        return (StateAndRef<T>) (StateAndRef<?>) stateAndRef;
     }
 }
@@ -0,0 +1,257 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
+import com.template.services.CashPoolService;
+import com.template.services.FxRateService;
+import kotlin.Pair;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FinalityFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.NotaryChangeFlow;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Buyer-side coin selection shared by the buy flows. Tokens are claimed from the node's striped
+ * {@link CashPoolService} under the flow's run id, then soft locked in one go so that token selections outside this
+ * CorDapp skip them too. The outputs pay the price to the payee and return any change to the buyer.
+ *
+ * The payment must be on the notary of the transaction, i.e. of the instrument's shard. Selected tokens on other
+ * notaries are merged into one token per notary and that token is moved with a single notary change, so a payment
+ * costs at most two extra transactions per foreign notary rather than one notary change per token.
+ *
+ * Under {@link SettlementTerms} the payment may mix the currencies the seller accepts, valued at the seller's rates
+ * where they agree with ours. The fewest, most valuable tokens are selected across those pools and the last currency
+ * drawn on is only paid as far as needed, with change in each currency.
+ */
+final class BuyerCashSelection {
+
+    private BuyerCashSelection() {
+    }
+
+    @Suspendable
+    static Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> selectPayment(
+            FlowLogic<?> flow, IssuedTokenType issuedCurrency, long price, AbstractParty payee, Party notary)
+            throws FlowException {
+        return selectPayment(flow, issuedCurrency, price, payee, notary, null);
+    }
+
+    /* Pays with the tokens reserved for the quote, if it is given and they still cover the price, and otherwise
+     selects afresh */
+    @Suspendable
+    static Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> selectPayment(
+            FlowLogic<?> flow, IssuedTokenType issuedCurrency, long price, AbstractParty payee, Party notary,
+            UUID quoteId) throws FlowException {
+
+        final CashPoolService cashPool = flow.getServiceHub().cordaService(CashPoolService.class);
+        final UUID reservationId = flow.getRunId().getUuid();
+
+        List<StateAndRef<FungibleToken>> selected = Collections.emptyList();
+        if (quoteId != null) {
+            selected = cashPool.takeOver(quoteId, reservationId);
+            long reserved = selected.stream()
+                    .filter(it -> it.getState().getData().getIssuedTokenType().equals(issuedCurrency))
+                    .map(it -> it.getState().getData().getAmount().getQuantity())
+                    .reduce(0L, Math::addExact);
+            if (!selected.isEmpty() && reserved < price) {
+                /* Some reserved tokens were spent since, or the quote was for another currency */
+                cashPool.release(reservationId);
+                selected = Collections.emptyList();
+            }
+        }
+        if (selected.isEmpty()) selected = cashPool.select(issuedCurrency, price, reservationId);
+        if (selected.isEmpty())
+            throw new FlowException("Insufficient " + issuedCurrency.getTokenType().getTokenIdentifier()
+                    + " issued by " + issuedCurrency.getIssuer().getName() + " to pay " + price);
+
+        softLock(flow, cashPool, selected);
+
+        final List<StateAndRef<FungibleToken>> inputs;
+        try {
+            inputs = moveToNotary(flow, cashPool, issuedCurrency, selected, notary);
+        } catch (Throwable e) {
+            cashPool.release(reservationId);
+            throw e;
+        }
+
+        long sum = inputs.stream()
+                .map(it -> it.getState().getData().getAmount().getQuantity())
+                .reduce(0L, Math::addExact);
+
+        final FungibleToken template = inputs.get(0).getState().getData();
+        final List<FungibleToken> outputs = new ArrayList<>();
+        outputs.add(new FungibleToken(new Amount<>(price, issuedCurrency), payee, template.getTokenTypeJarHash()));
+        if (sum > price)
+            outputs.add(new FungibleToken(new Amount<>(sum - price, issuedCurrency), flow.getOurIdentity(),
+                    template.getTokenTypeJarHash()));
+
+        return new Pair<>(inputs, outputs);
+    }
+
+    /* Pays the price, in the proposal's issued currency, in any mix of the currencies the seller's terms accept */
+    @Suspendable
+    static Pair<List<StateAndRef<FungibleToken>>, List<FungibleToken>> selectSettlement(
+            FlowLogic<?> flow, SettlementTerms terms, IssuedTokenType issuedCurrency, long price, AbstractParty payee,
+            Party notary) throws FlowException {
+
+        final CashPoolService cashPool = flow.getServiceHub().cordaService(CashPoolService.class);
+        final FxRateService fxRates = flow.getServiceHub().cordaService(FxRateService.class);
+        final UUID reservationId = flow.getRunId().getUuid();
+        final FxSnapshot rates = terms.getRates();
+        final TokenType settlementType = issuedCurrency.getTokenType();
+
+        /* Currencies whose rate we cannot confirm are left out rather than trusted */
+        final List<IssuedTokenType> usable = new ArrayList<>();
+        usable.add(issuedCurrency);
+        for (IssuedTokenType accepted : terms.getAccepted())
+            if (!usable.contains(accepted) && fxRates.agrees(rates, accepted.getTokenType().getTokenIdentifier(),
+                    settlementType.getTokenIdentifier()))
+                usable.add(accepted);
+
+        final List<StateAndRef<FungibleToken>> selected = cashPool.selectFewest(usable,
+                it -> rates.convert(it.getState().getData().getAmount().getQuantity(),
+                        it.getState().getData().getIssuedTokenType().getTokenType(), settlementType),
+                price, reservationId);
+        if (selected.isEmpty())
+            throw new FlowException("Insufficient funds in " + usable.size() + " accepted currencies to pay " + price
+                    + " " + settlementType.getTokenIdentifier());
+
+        softLock(flow, cashPool, selected);
+
+        /* Drawn on in selection order, so only the last currency reached pays part of what was selected */
+        final Map<IssuedTokenType, Long> paid = new LinkedHashMap<>();
+        IssuedTokenType last = null;
+        for (StateAndRef<FungibleToken> token : selected) {
+            last = token.getState().getData().getIssuedTokenType();
+            paid.merge(last, token.getState().getData().getAmount().getQuantity(), Math::addExact);
+            if (rates.value(paid, settlementType) >= price) break;
+        }
+        final long lastSelected = paid.remove(last);
+        final long shortfall = price - rates.value(paid, settlementType);
+        paid.put(last, Math.min(lastSelected, rates.required(shortfall, last.getTokenType(), settlementType)));
+
+        /* Notary changes and merges keep the sum of each currency, so the outputs follow from the sums */
+        final Map<IssuedTokenType, List<StateAndRef<FungibleToken>>> byCurrency = new LinkedHashMap<>();
+        for (StateAndRef<FungibleToken> token : selected)
+            byCurrency.computeIfAbsent(token.getState().getData().getIssuedTokenType(), it -> new ArrayList<>()).add(token);
+
+        final List<StateAndRef<FungibleToken>> inputs = new ArrayList<>();
+        final List<FungibleToken> outputs = new ArrayList<>();
+        try {
+            for (Map.Entry<IssuedTokenType, List<StateAndRef<FungibleToken>>> currency : byCurrency.entrySet()) {
+                final List<StateAndRef<FungibleToken>> currencyInputs =
+                        moveToNotary(flow, cashPool, currency.getKey(), currency.getValue(), notary);
+                inputs.addAll(currencyInputs);
+
+                long sum = currencyInputs.stream()
+                        .map(it -> it.getState().getData().getAmount().getQuantity())
+                        .reduce(0L, Math::addExact);
+                long pay = paid.getOrDefault(currency.getKey(), 0L);
+                SecureHash jarHash = currencyInputs.get(0).getState().getData().getTokenTypeJarHash();
+                if (pay > 0)
+                    outputs.add(new FungibleToken(new Amount<>(pay, currency.getKey()), payee, jarHash));
+                if (sum > pay)
+                    outputs.add(new FungibleToken(new Amount<>(sum - pay, currency.getKey()), flow.getOurIdentity(),
+                            jarHash));
+            }
+        } catch (Throwable e) {
+            cashPool.release(reservationId);
+            throw e;
+        }
+
+        return new Pair<>(inputs, outputs);
+    }
+
+    @Suspendable
+    private static List<StateAndRef<FungibleToken>> moveToNotary(
+            FlowLogic<?> flow, CashPoolService cashPool, IssuedTokenType issuedCurrency,
+            List<StateAndRef<FungibleToken>> tokens, Party notary) throws FlowException {
+
+        final Map<Party, List<StateAndRef<FungibleToken>>> foreign = tokens.stream()
+                .filter(it -> !it.getState().getNotary().equals(notary))
+                .collect(Collectors.groupingBy(it -> it.getState().getNotary()));
+        if (foreign.isEmpty()) return tokens;
+
+        final List<StateAndRef<FungibleToken>> moved = tokens.stream()
+                .filter(it -> it.getState().getNotary().equals(notary))
+                .collect(Collectors.toList());
+        final List<StateAndRef<FungibleToken>> changed = new ArrayList<>();
+        for (List<StateAndRef<FungibleToken>> group : foreign.values()) {
+            StateAndRef<FungibleToken> merged = group.size() == 1
+                    ? group.get(0) : merge(flow, cashPool, issuedCurrency, group);
+            StateAndRef<FungibleToken> onNotary = flow.subFlow(new NotaryChangeFlow<>(merged, notary));
+            claim(cashPool, issuedCurrency, onNotary, flow);
+            changed.add(onNotary);
+        }
+        softLock(flow, cashPool, changed);
+
+        moved.addAll(changed);
+        return moved;
+    }
+
+    /* Merges tokens held by us on one notary into a single token, in a transaction only we sign */
+    @Suspendable
+    private static StateAndRef<FungibleToken> merge(FlowLogic<?> flow, CashPoolService cashPool,
+                                                    IssuedTokenType issuedCurrency,
+                                                    List<StateAndRef<FungibleToken>> tokens) throws FlowException {
+        long sum = tokens.stream()
+                .map(it -> it.getState().getData().getAmount().getQuantity())
+                .reduce(0L, Math::addExact);
+
+        TransactionBuilder transactionBuilder = new TransactionBuilder(tokens.get(0).getState().getNotary());
+        MoveTokensUtilities.addMoveTokens(transactionBuilder, tokens, Collections.singletonList(
+                new FungibleToken(new Amount<>(sum, issuedCurrency), flow.getOurIdentity(),
+                        tokens.get(0).getState().getData().getTokenTypeJarHash())));
+        final SignedTransaction signedTransaction = flow.getServiceHub().signInitialTransaction(transactionBuilder);
+        final SignedTransaction notarisedTxn = flow.subFlow(new FinalityFlow(signedTransaction, Collections.emptyList()));
+
+        final StateAndRef<FungibleToken> merged = notarisedTxn.getTx().outRef(0);
+        claim(cashPool, issuedCurrency, merged, flow);
+        return merged;
+    }
+
+    private static void claim(CashPoolService cashPool, IssuedTokenType issuedCurrency,
+                              StateAndRef<FungibleToken> token, FlowLogic<?> flow) throws FlowException {
+        if (!cashPool.claim(issuedCurrency, token, flow.getRunId().getUuid()))
+            throw new FlowException("Token " + token.getRef() + " moved for this payment was taken by another flow");
+    }
+
+    private static void softLock(FlowLogic<?> flow, CashPoolService cashPool,
+                                 List<StateAndRef<FungibleToken>> tokens) throws FlowException {
+        final UUID reservationId = flow.getRunId().getUuid();
+        final List<StateRef> refs = tokens.stream().map(StateAndRef::getRef).collect(Collectors.toList());
+        try {
+            flow.getServiceHub().getVaultService().softLockReserve(reservationId, NonEmptySet.copyOf(refs));
+        } catch (StatesNotAvailableException e) {
+            cashPool.release(reservationId);
+            throw new FlowException("Selected tokens are locked by another flow", e);
+        }
+    }
+
+    /* Called once the transaction spending the selected tokens is notarised and recorded. Dropping them any earlier
+     would lose them from the pool if finality failed. */
+    static void spent(FlowLogic<?> flow) {
+        flow.getServiceHub().cordaService(CashPoolService.class).drop(flow.getRunId().getUuid());
+    }
+
+    /* Called when the purchase fails in any way, finality included, so the selected tokens can be used by other buyers.
+     Tokens the vault has seen consumed in the meantime have already left the reservation and stay out of the pool. */
+    static void release(FlowLogic<?> flow) {
+        flow.getServiceHub().cordaService(CashPoolService.class).release(flow.getRunId().getUuid());
+    }
+}
@@ -0,0 +1,114 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
+import com.template.services.CashPoolService;
+import com.template.services.NetworkTopologyService;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Merges the smallest currency tokens of one issued currency held by us into {@code targetStates} larger tokens, in
+ * a transaction only we sign, once per notary the tokens live on. Tokens are claimed from the {@link CashPoolService} like any purchase, so a merge never
+ * takes cash a running DvP has already selected. Started by the {@link com.template.services.CashConsolidationService}.
+ */
+@StartableByRPC
+@StartableByService
+public class ConsolidateCashFlow extends FlowLogic<String> {
+
+    private final IssuedTokenType issuedCurrency;
+    private final int minStates;
+    private final int maxInputs;
+    private final int targetStates;
+
+    public ConsolidateCashFlow(IssuedTokenType issuedCurrency, int minStates, int maxInputs, int targetStates) {
+        this.issuedCurrency = issuedCurrency;
+        this.minStates = minStates;
+        this.maxInputs = maxInputs;
+        this.targetStates = targetStates;
+    }
+
+    @Suspendable
+    @Override
+    public String call() throws FlowException {
+
+        if (targetStates < 1 || maxInputs <= targetStates)
+            throw new FlowException("Consolidation must merge more inputs than the " + targetStates + " target states");
+
+        /* Tokens are spent on the notary they live on, and under sharding that may be any notary, so each notary's
+         tokens are merged in a transaction of their own */
+        final List<String> results = new ArrayList<>();
+        for (Party notary : getServiceHub().cordaService(NetworkTopologyService.class).notaries()) {
+            String result = consolidate(notary);
+            if (result != null) results.add(result);
+        }
+        return results.isEmpty() ? "No " + issuedCurrency + " tokens to consolidate" : String.join("; ", results);
+    }
+
+    /* Consolidates the tokens on one notary; null if we hold none there */
+    @Suspendable
+    private String consolidate(Party notary) throws FlowException {
+        final CashPoolService cashPool = getServiceHub().cordaService(CashPoolService.class);
+        final UUID reservationId = getRunId().getUuid();
+
+        final List<StateAndRef<FungibleToken>> inputs =
+                cashPool.selectSmallest(issuedCurrency, notary, maxInputs, reservationId);
+        if (inputs.isEmpty()) return null;
+        if (inputs.size() < Math.max(minStates, targetStates + 1)) {
+            cashPool.release(reservationId);
+            return "Only " + inputs.size() + " " + issuedCurrency + " tokens on " + notary.getName()
+                    + ", nothing to consolidate";
+        }
+
+        final List<StateRef> refs = inputs.stream().map(StateAndRef::getRef).collect(Collectors.toList());
+        try {
+            getServiceHub().getVaultService().softLockReserve(reservationId, NonEmptySet.copyOf(refs));
+        } catch (StatesNotAvailableException e) {
+            cashPool.release(reservationId);
+            return "Tokens were taken by another flow, consolidation skipped";
+        }
+
+        /* Split the total evenly over the target states, the remainder going to the first one */
+        final long total = inputs.stream()
+                .map(it -> it.getState().getData().getAmount().getQuantity())
+                .reduce(0L, Math::addExact);
+        final long share = total / targetStates;
+        final List<FungibleToken> outputs = new ArrayList<>();
+        for (int i = 0; i < targetStates; i++) {
+            long quantity = i == 0 ? share + total % targetStates : share;
+            outputs.add(new FungibleToken(new Amount<>(quantity, issuedCurrency), getOurIdentity(),
+                    inputs.get(0).getState().getData().getTokenTypeJarHash()));
+        }
+
+        final SignedTransaction notarisedTxn;
+        try {
+            TransactionBuilder transactionBuilder = new TransactionBuilder(notary);
+            MoveTokensUtilities.addMoveTokens(transactionBuilder, inputs, outputs);
+            final SignedTransaction signedTransaction = getServiceHub().signInitialTransaction(transactionBuilder);
+            notarisedTxn = subFlow(new FinalityFlow(signedTransaction, Collections.emptyList()));
+        } catch (Throwable e) {
+            /* The inputs go back to the pool unless the vault has already seen them consumed */
+            cashPool.release(reservationId);
+            throw e;
+        }
+        cashPool.drop(reservationId);
+
+        return "Consolidated " + inputs.size() + " " + issuedCurrency + " tokens on " + notary.getName() + " into "
+                + targetStates + " in transaction " + notarisedTxn.getId();
+    }
+}
@@ -1,13 +1,13 @@
 package com.template.flows;
 
 import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.NetworkTopologyService;
 import com.template.states.InstrumentState;
 import com.google.common.collect.ImmutableList;
 import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
 import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
 import com.r3.corda.lib.tokens.contracts.utilities.TransactionUtilitiesKt;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.CreateEvolvableTokens;
-import com.r3.corda.lib.tokens.workflows.flows.rpc.IssueTokens;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.UniqueIdentifier;
@@ -51,14 +51,15 @@ public class CreateAndIssue extends FlowLogic<String> {
     @Suspendable
     public String call() throws FlowException {
 
-        /* Choose the notary for the transaction */
-        Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+        UniqueIdentifier uuid = UniqueIdentifier.Companion.fromString(UUID.randomUUID().toString());
+
+        /* Choose the notary for the transaction, the one the house's linear id is sharded to */
+        Party notary = getServiceHub().cordaService(NetworkTopologyService.class).notaryFor(uuid);
 
         /* Get a reference of own identity */
         Party issuer = getOurIdentity();
 
         /* Construct the output state */
-        UniqueIdentifier uuid = UniqueIdentifier.Companion.fromString(UUID.randomUUID().toString());
         final InstrumentState houseState = new InstrumentState(uuid, ImmutableList.of(issuer),
                 name, yom, batchNo, valuation, warranty, resaleValuation);
 
@@ -80,8 +81,9 @@ public class CreateAndIssue extends FlowLogic<String> {
         NonFungibleToken houseToken =
                 new NonFungibleToken(issuedHouseToken, owner, UniqueIdentifier.Companion.fromString(UUID.randomUUID().toString()), TransactionUtilitiesKt.getAttachmentIdForGenericParam(houseState.toPointer()));
 
-        /* Issue the house token by calling the IssueTokens flow provided with the TokenSDK */
-        SignedTransaction stx = subFlow(new IssueTokens(ImmutableList.of(houseToken)));
+        /* Issue the house token on the notary of the house. The IssueTokens flow provided with the TokenSDK would use
+        the preferred notary instead. */
+        SignedTransaction stx = subFlow(new IssueInstrumentTokenFlow(houseToken, notary));
         return "\nThe non-fungible house token is created with UUID: "+ uuid +". (This is what you will use in next step)"
                 +"\nTransaction ID: "+stx.getId();
 
@@ -0,0 +1,85 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.contracts.utilities.TransactionUtilitiesKt;
+import com.r3.corda.lib.tokens.workflows.flows.issue.IssueTokensUtilities;
+import com.r3.corda.lib.tokens.workflows.internal.flows.distribution.UpdateDistributionListFlow;
+import com.template.contracts.InstrumentContract;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.PrivacySalt;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One chunk of {@link BulkCreateAndIssueFlow}, started by the BulkIssueService: creates the instruments, all
+ * maintained by us, and issues their tokens to a single owner in one transaction on the given notary.
+ *
+ * The builder gets no service hub, so the tokens' pointers are not resolved to reference states; the instruments
+ * they point to are created by this very transaction.
+ */
+@InitiatingFlow
+@StartableByService
+public class CreateAndIssueChunkFlow extends FlowLogic<SignedTransaction> {
+
+    private final List<InstrumentSpec> specs;
+    private final List<UniqueIdentifier> linearIds;
+    private final Party notary;
+    private final Party owner;
+
+    public CreateAndIssueChunkFlow(List<InstrumentSpec> specs, List<UniqueIdentifier> linearIds, Party notary, Party owner) {
+        this.specs = specs;
+        this.linearIds = linearIds;
+        this.notary = notary;
+        this.owner = owner;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+
+        final Party issuer = getOurIdentity();
+
+        final TransactionBuilder transactionBuilder = new TransactionBuilder(notary, getRunId().getUuid(),
+                new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null, new PrivacySalt(),
+                new ArrayList<>(), null);
+        transactionBuilder.addCommand(new InstrumentContract.Commands.BulkCreate(), issuer.getOwningKey());
+
+        final List<NonFungibleToken> tokens = new ArrayList<>(specs.size());
+        for (int i = 0; i < specs.size(); i++) {
+            InstrumentSpec spec = specs.get(i);
+            InstrumentState instrumentState = new InstrumentState(linearIds.get(i), ImmutableList.of(issuer),
+                    spec.getName(), spec.getYom(), spec.getBatchNo(), spec.getValuation(), spec.getWarranty(),
+                    spec.getResaleValuation());
+            transactionBuilder.addOutputState(instrumentState);
+
+            TokenPointer<InstrumentState> tokenPointer = instrumentState.toPointer();
+            tokens.add(new NonFungibleToken(new IssuedTokenType(issuer, tokenPointer), owner, new UniqueIdentifier(),
+                    TransactionUtilitiesKt.getAttachmentIdForGenericParam(tokenPointer)));
+        }
+        IssueTokensUtilities.addIssueTokens(transactionBuilder, tokens);
+
+        final SignedTransaction signedTransaction = getServiceHub().signInitialTransaction(transactionBuilder);
+
+        /* The owner records the chunk unless we issue to ourselves */
+        final List<FlowSession> sessions = owner.equals(issuer)
+                ? Collections.emptyList() : Collections.singletonList(initiateFlow(owner));
+
+        final SignedTransaction notarisedTxn = subFlow(new FinalityFlow(signedTransaction, sessions));
+
+        /* Owners of the tokens receive the instruments' later updates */
+        subFlow(new UpdateDistributionListFlow(notarisedTxn));
+
+        return notarisedTxn;
+    }
+}
@@ -0,0 +1,26 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.*;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.SignedTransaction;
+
+/**
+ * Owner side of {@link CreateAndIssueChunkFlow}. Records the tokens and also the instruments they point to, which we
+ * are not a participant of but need in order to sell the tokens.
+ */
+@InitiatedBy(CreateAndIssueChunkFlow.class)
+public class CreateAndIssueChunkResponder extends FlowLogic<SignedTransaction> {
+
+    private final FlowSession issuerSession;
+
+    public CreateAndIssueChunkResponder(FlowSession issuerSession) {
+        this.issuerSession = issuerSession;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+        return subFlow(new ReceiveFinalityFlow(issuerSession, null, StatesToRecord.ALL_VISIBLE));
+    }
+}
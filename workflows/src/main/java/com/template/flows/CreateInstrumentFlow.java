@@ -2,6 +2,7 @@ package com.template.flows;
 
 import com.google.common.collect.ImmutableList;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.CreateEvolvableTokens;
+import com.template.services.NetworkTopologyService;
 import com.template.states.InstrumentState;
 import jdk.nashorn.internal.ir.annotations.Immutable;
 import net.corda.core.contracts.Amount;
@@ -40,11 +41,12 @@ public class CreateInstrumentFlow extends FlowLogic<String> {
     @Override
     public String call() throws FlowException {
 
-        Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+        UniqueIdentifier uniqueIdentifier = new UniqueIdentifier();
 
-        Party issuer = getOurIdentity();
+        /* The instrument stays on the notary its linear id is sharded to for its whole lifecycle */
+        Party notary = getServiceHub().cordaService(NetworkTopologyService.class).notaryFor(uniqueIdentifier);
 
-        UniqueIdentifier uniqueIdentifier = new UniqueIdentifier();
+        Party issuer = getOurIdentity();
 
         InstrumentState instrumentState = new InstrumentState(uniqueIdentifier, ImmutableList.of(issuer), name, yom, batchNo, valuation, warranty, resaleValuation);
 
@@ -0,0 +1,50 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.DistributionListCoalescer;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+
+import java.util.List;
+
+import static com.r3.corda.lib.tokens.workflows.utilities.DistributionListUtilities.addPartyToDistributionList;
+
+/**
+ * Sends a batch of holder changes collected by the {@link DistributionListCoalescer} to one maintainer in a single
+ * message and waits for it to confirm them, so a failure shows up here and the batch can be retried. Updates the
+ * maintainer rejects are counted out of the confirmation and not retried.
+ * Holder changes of instruments we maintain ourselves are recorded locally.
+ */
+@InitiatingFlow
+@StartableByService
+public class FlushDistributionListFlow extends FlowLogic<Integer> {
+
+    private final Party maintainer;
+    private final List<HolderUpdate> updates;
+
+    public FlushDistributionListFlow(Party maintainer, List<HolderUpdate> updates) {
+        this.maintainer = maintainer;
+        this.updates = updates;
+    }
+
+    @Suspendable
+    @Override
+    public Integer call() throws FlowException {
+        if (maintainer.equals(getOurIdentity())) {
+            for (HolderUpdate update : updates)
+                addPartyToDistributionList(getServiceHub(), update.getHolder(), update.getLinearId());
+            return updates.size();
+        }
+
+        final FlowSession maintainerSession = initiateFlow(maintainer);
+        final int recorded = maintainerSession.sendAndReceive(Integer.class, updates).unwrap(it -> {
+            if (it < 0 || it > updates.size())
+                throw new IllegalStateException(maintainer + " recorded " + it + " of " + updates.size() + " holders");
+            return it;
+        });
+        /* The maintainer skips updates it will not accept; sending them again would not change that */
+        if (recorded < updates.size())
+            getLogger().warn("{} recorded only {} of {} holders", maintainer, recorded, updates.size());
+        return recorded;
+    }
+}
@@ -0,0 +1,88 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.InstrumentStateCache;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.r3.corda.lib.tokens.workflows.utilities.DistributionListUtilities.addPartyToDistributionList;
+
+/**
+ * Maintainer side of {@link FlushDistributionListFlow}. Adds every new holder to the distribution list of its
+ * instrument in one go and answers with the number recorded.
+ *
+ * An update is only recorded for an instrument we maintain, and only from a party that held the instrument, i.e.
+ * is on its distribution list already, or that reports itself as the holder. Anything else is skipped, so no peer
+ * can subscribe others to the updates of our instruments.
+ */
+@InitiatedBy(FlushDistributionListFlow.class)
+public class FlushDistributionListResponder extends FlowLogic<Void> {
+
+    private final FlowSession sellerSession;
+
+    public FlushDistributionListResponder(FlowSession sellerSession) {
+        this.sellerSession = sellerSession;
+    }
+
+    @Suspendable
+    @Override
+    public Void call() throws FlowException {
+        final List<HolderUpdate> updates = sellerSession.receive(List.class).unwrap(it -> {
+            final List<HolderUpdate> checked = new ArrayList<>();
+            for (Object element : it) {
+                if (!(element instanceof HolderUpdate))
+                    throw new IllegalArgumentException("Expected holder updates, got " + element);
+                checked.add((HolderUpdate) element);
+            }
+            return checked;
+        });
+
+        final Party sender = sellerSession.getCounterparty();
+        final Set<UUID> heldBySender = onDistributionList(sender, updates);
+        final InstrumentStateCache instruments = getServiceHub().cordaService(InstrumentStateCache.class);
+
+        int recorded = 0;
+        for (HolderUpdate update : updates) {
+            StateAndRef<InstrumentState> instrument = instruments.get(update.getLinearId());
+            if (instrument == null || !instrument.getState().getData().getMaintainers().contains(getOurIdentity())) {
+                getLogger().warn("Ignoring holder of {} from {}, not an instrument we maintain", update.getLinearId(), sender);
+                continue;
+            }
+            if (!sender.equals(update.getHolder()) && !heldBySender.contains(update.getLinearId().getId())) {
+                getLogger().warn("Ignoring holder of {} from {}, which never held it", update.getLinearId(), sender);
+                continue;
+            }
+            /* Only record holders we can reach later */
+            Party holder = getServiceHub().getIdentityService().wellKnownPartyFromAnonymous(update.getHolder());
+            if (holder == null) {
+                getLogger().warn("Ignoring unknown holder {} of {}", update.getHolder(), update.getLinearId());
+                continue;
+            }
+            addPartyToDistributionList(getServiceHub(), holder, update.getLinearId());
+            recorded++;
+        }
+
+        sellerSession.send(recorded);
+        return null;
+    }
+
+    /* The instruments of the batch the party is on the distribution list of, in one query */
+    private Set<UUID> onDistributionList(Party party, List<HolderUpdate> updates) {
+        if (updates.isEmpty()) return Collections.emptySet();
+        final List<UUID> linearIds = updates.stream()
+                .map(it -> it.getLinearId().getId())
+                .collect(Collectors.toList());
+        return new HashSet<>(getServiceHub().withEntityManager((EntityManager entityManager) -> entityManager
+                .createQuery("SELECT DISTINCT r.linearId FROM DistributionRecord r WHERE r.party = :party"
+                        + " AND r.linearId IN :linearIds", UUID.class)
+                .setParameter("party", party)
+                .setParameter("linearIds", linearIds)
+                .getResultList()));
+    }
+}
@@ -0,0 +1,88 @@
+package com.template.flows;
+
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * An immutable copy of a node's FX rate table, taken once per trade so every conversion in it uses the same rates.
+ * Each currency is valued in a common unit of account, so any two currencies in the table convert without a direct
+ * quote between them. Quantities are in the smallest unit of their token type and conversions round down.
+ */
+@CordaSerializable
+public class FxSnapshot {
+
+    private final Map<String, BigDecimal> values;
+    private final Instant asOf;
+
+    public FxSnapshot(Map<String, BigDecimal> values, Instant asOf) {
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+        this.asOf = asOf;
+    }
+
+    /* Value of one unit of each currency, by currency code, in the common unit of account */
+    public Map<String, BigDecimal> getValues() {
+        return values;
+    }
+
+    public Instant getAsOf() {
+        return asOf;
+    }
+
+    public boolean has(String currencyCode) {
+        return values.containsKey(currencyCode);
+    }
+
+    /* Units of one currency that a unit of another buys, or null if either is not in the table */
+    public BigDecimal rate(String from, String to) {
+        if (from.equals(to)) return BigDecimal.ONE;
+        BigDecimal fromValue = values.get(from);
+        BigDecimal toValue = values.get(to);
+        if (fromValue == null || toValue == null) return null;
+        return fromValue.divide(toValue, 12, RoundingMode.HALF_EVEN);
+    }
+
+    /* The quantity converted into the other token type, rounded down */
+    public long convert(long quantity, TokenType from, TokenType to) {
+        if (from.getTokenIdentifier().equals(to.getTokenIdentifier())) return quantity;
+        return scaled(quantity, from, to).divide(scaled(1L, to, from), 0, RoundingMode.FLOOR).longValueExact();
+    }
+
+    /* The least quantity of the first token type that converts into at least the given quantity of the second */
+    public long required(long quantity, TokenType from, TokenType to) {
+        if (from.getTokenIdentifier().equals(to.getTokenIdentifier())) return quantity;
+        return scaled(quantity, to, from).divide(scaled(1L, from, to), 0, RoundingMode.CEILING).longValueExact();
+    }
+
+    /* Total value of amounts in several issued currencies, each converted into the token type as a whole */
+    public long value(Map<IssuedTokenType, Long> amounts, TokenType to) {
+        long sum = 0L;
+        for (Map.Entry<IssuedTokenType, Long> amount : amounts.entrySet())
+            sum = Math.addExact(sum, convert(amount.getValue(), amount.getKey().getTokenType(), to));
+        return sum;
+    }
+
+    /* A snapshot of only the given currencies, e.g. to send a counterparty just the rates a trade needs */
+    public FxSnapshot restrictTo(Set<String> currencyCodes) {
+        Map<String, BigDecimal> restricted = new HashMap<>(values);
+        restricted.keySet().retainAll(currencyCodes);
+        return new FxSnapshot(restricted, asOf);
+    }
+
+    /* quantity * value(of) * 10^digits(other), the numerator of a conversion from "of" into "other" */
+    private BigDecimal scaled(long quantity, TokenType of, TokenType other) {
+        BigDecimal value = values.get(of.getTokenIdentifier());
+        if (value == null) throw new IllegalArgumentException("No FX rate for " + of.getTokenIdentifier());
+        return BigDecimal.valueOf(quantity).multiply(value).scaleByPowerOfTen(other.getFractionDigits());
+    }
+
+    @Override
+    public String toString() {
+        return "FxSnapshot(" + values + " as of " + asOf + ")";
+    }
+}
@@ -0,0 +1,34 @@
+package com.template.flows;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * The latest holder of an instrument's token, as sent to the instrument's maintainer by
+ * {@link FlushDistributionListFlow} so that future updates of the instrument reach that holder.
+ */
+@CordaSerializable
+public class HolderUpdate {
+
+    private final UniqueIdentifier linearId;
+    private final Party holder;
+
+    public HolderUpdate(UniqueIdentifier linearId, Party holder) {
+        this.linearId = linearId;
+        this.holder = holder;
+    }
+
+    public UniqueIdentifier getLinearId() {
+        return linearId;
+    }
+
+    public Party getHolder() {
+        return holder;
+    }
+
+    @Override
+    public String toString() {
+        return linearId + " held by " + holder;
+    }
+}
@@ -0,0 +1,61 @@
+package com.template.flows;
+
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * A held instrument token as returned by {@link QueryPortfolioFlow}: just the columns a portfolio view shows, instead
+ * of the instrument and token states with their transaction references.
+ */
+@CordaSerializable
+public class InstrumentHolding {
+
+    private final String linearId;
+    private final String name;
+    private final String batchNo;
+    private final long resaleValuation;
+    private final String currency;
+    private final AbstractParty holder;
+
+    public InstrumentHolding(String linearId, String name, String batchNo, long resaleValuation, String currency,
+                             AbstractParty holder) {
+        this.linearId = linearId;
+        this.name = name;
+        this.batchNo = batchNo;
+        this.resaleValuation = resaleValuation;
+        this.currency = currency;
+        this.holder = holder;
+    }
+
+    public String getLinearId() {
+        return linearId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBatchNo() {
+        return batchNo;
+    }
+
+    /* In the smallest unit of the currency, as stored in the vault */
+    public long getResaleValuation() {
+        return resaleValuation;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    /* Null when the holder is an anonymous party this node cannot resolve */
+    public AbstractParty getHolder() {
+        return holder;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + linearId + ", batch " + batchNo + ") held by " + holder + " at " + resaleValuation
+                + " " + currency;
+    }
+}
@@ -0,0 +1,42 @@
+package com.template.flows;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * One line of an end-of-day price file for {@link BulkUpdateInstrumentFlow}: the new resale valuation and warranty of
+ * an instrument.
+ */
+@CordaSerializable
+public class InstrumentRevaluation {
+
+    private final UniqueIdentifier linearId;
+    private final Amount<Currency> resaleValuation;
+    private final int warranty;
+
+    public InstrumentRevaluation(UniqueIdentifier linearId, Amount<Currency> resaleValuation, int warranty) {
+        this.linearId = linearId;
+        this.resaleValuation = resaleValuation;
+        this.warranty = warranty;
+    }
+
+    public UniqueIdentifier getLinearId() {
+        return linearId;
+    }
+
+    public Amount<Currency> getResaleValuation() {
+        return resaleValuation;
+    }
+
+    public int getWarranty() {
+        return warranty;
+    }
+
+    @Override
+    public String toString() {
+        return linearId + " -> " + resaleValuation + ", " + warranty + " years";
+    }
+}
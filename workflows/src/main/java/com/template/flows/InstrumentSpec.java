@@ -0,0 +1,66 @@
+package com.template.flows;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * One instrument handed to {@link BulkCreateAndIssueFlow}: its data and the owner its token is issued to.
+ */
+@CordaSerializable
+public class InstrumentSpec {
+
+    private final Party owner;
+    private final String name;
+    private final int yom;
+    private final String batchNo;
+    private final Amount<Currency> valuation;
+    private final int warranty;
+    private final Amount<Currency> resaleValuation;
+
+    public InstrumentSpec(Party owner, String name, int yom, String batchNo, Amount<Currency> valuation, int warranty,
+                          Amount<Currency> resaleValuation) {
+        this.owner = owner;
+        this.name = name;
+        this.yom = yom;
+        this.batchNo = batchNo;
+        this.valuation = valuation;
+        this.warranty = warranty;
+        this.resaleValuation = resaleValuation;
+    }
+
+    public Party getOwner() {
+        return owner;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getYom() {
+        return yom;
+    }
+
+    public String getBatchNo() {
+        return batchNo;
+    }
+
+    public Amount<Currency> getValuation() {
+        return valuation;
+    }
+
+    public int getWarranty() {
+        return warranty;
+    }
+
+    public Amount<Currency> getResaleValuation() {
+        return resaleValuation;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + batchNo + ") -> " + owner.getName();
+    }
+}
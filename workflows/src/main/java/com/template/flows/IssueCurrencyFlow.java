@@ -1,23 +1,27 @@
 package com.template.flows;
 
 
+import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
 import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
 import com.r3.corda.lib.tokens.contracts.types.TokenType;
-import com.r3.corda.lib.tokens.contracts.utilities.TransactionUtilitiesKt;
 import com.r3.corda.lib.tokens.money.FiatCurrency;
-import com.r3.corda.lib.tokens.workflows.flows.rpc.IssueTokens;
-import jdk.nashorn.internal.parser.Token;
+import com.r3.corda.lib.tokens.workflows.flows.issue.IssueTokensUtilities;
+import com.template.services.NetworkTopologyService;
 import net.corda.core.contracts.Amount;
-import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
-import net.corda.core.flows.InitiatingFlow;
-import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
 
-import java.util.Currency;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * Issues currency tokens to the recipient on the notary {@link NetworkTopologyService#notary()} picks for new cash,
+ * rather than on the SDK's preferred notary, which IssueTokens always uses.
+ */
 @InitiatingFlow
 @StartableByRPC
 public class IssueCurrencyFlow extends FlowLogic<String> {
@@ -32,18 +36,27 @@ public class IssueCurrencyFlow extends FlowLogic<String> {
         this.recipient = recipient;
     }
 
+    @Suspendable
     @Override
     public String call() throws FlowException {
 
-        Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
-
         TokenType tokenType = FiatCurrency.Companion.getInstance(currency);
 
         IssuedTokenType issuedTokenType = new IssuedTokenType(getOurIdentity(), tokenType);
 
         FungibleToken fungibleToken = new FungibleToken( new Amount<>(amount, issuedTokenType), recipient, null);
 
-        subFlow(new IssueTokens(ImmutableList.of(fungibleToken), ImmutableList.of(recipient)));
+        final Party notary = getServiceHub().cordaService(NetworkTopologyService.class).notary();
+        final TransactionBuilder transactionBuilder = new TransactionBuilder(notary);
+        IssueTokensUtilities.addIssueTokens(transactionBuilder, ImmutableList.of(fungibleToken));
+
+        final SignedTransaction signedTransaction = getServiceHub().signInitialTransaction(transactionBuilder);
+
+        /* The recipient records the issuance unless we issue to ourselves */
+        final List<FlowSession> sessions = recipient.equals(getOurIdentity())
+                ? Collections.emptyList() : Collections.singletonList(initiateFlow(recipient));
+
+        subFlow(new FinalityFlow(signedTransaction, sessions));
 
         return " " + this.amount + " " + this.currency + " are issued to the " + this.recipient + " ";
     }
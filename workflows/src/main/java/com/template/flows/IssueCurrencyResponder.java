@@ -0,0 +1,24 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.*;
+import net.corda.core.transactions.SignedTransaction;
+
+/**
+ * Recipient side of {@link IssueCurrencyFlow}, records the issued currency tokens.
+ */
+@InitiatedBy(IssueCurrencyFlow.class)
+public class IssueCurrencyResponder extends FlowLogic<SignedTransaction> {
+
+    private final FlowSession issuerSession;
+
+    public IssueCurrencyResponder(FlowSession issuerSession) {
+        this.issuerSession = issuerSession;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+        return subFlow(new ReceiveFinalityFlow(issuerSession));
+    }
+}
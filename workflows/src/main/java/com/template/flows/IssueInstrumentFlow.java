@@ -1,11 +1,10 @@
 package com.template.flows;
 
-import com.google.common.collect.ImmutableList;
 import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
 import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
 import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import com.r3.corda.lib.tokens.contracts.utilities.TransactionUtilitiesKt;
-import com.r3.corda.lib.tokens.workflows.flows.rpc.IssueTokens;
+import com.template.schemas.InstrumentQueries;
 import com.template.states.InstrumentState;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.StateAndRef;
@@ -34,9 +33,10 @@ public class IssueInstrumentFlow extends FlowLogic<String> {
     @Override
     public String call() throws FlowException {
 
+        /* Indexed lookup on the instrument name column instead of loading every instrument */
         StateAndRef<InstrumentState> instrumentStateStateAndRef = getServiceHub().getVaultService().
-                queryBy(InstrumentState.class).getStates().stream()
-                .filter(sf -> sf.getState().getData().getName().equals(this.name)).findAny()
+                queryBy(InstrumentState.class, InstrumentQueries.byName(this.name)).getStates().stream()
+                .findAny()
                 .orElseThrow(() -> new IllegalArgumentException("Instrument of name " + this.name + " not found"));
 
         InstrumentState instrumentState = instrumentStateStateAndRef.getState().getData();
@@ -47,7 +47,9 @@ public class IssueInstrumentFlow extends FlowLogic<String> {
 
         NonFungibleToken nonFungibleToken = new NonFungibleToken(issuedTokenType, owner, new UniqueIdentifier(), TransactionUtilitiesKt.getAttachmentIdForGenericParam(tokenPointer));
 
-        SignedTransaction signedTransaction =  subFlow(new IssueTokens(ImmutableList.of(nonFungibleToken)));
+        /* Issued on the instrument's own notary so the token can be moved together with it */
+        SignedTransaction signedTransaction =  subFlow(new IssueInstrumentTokenFlow(nonFungibleToken,
+                instrumentStateStateAndRef.getState().getNotary()));
 
         return "The instrument " + this.name + " is issued to " + this.owner + ".";
     }
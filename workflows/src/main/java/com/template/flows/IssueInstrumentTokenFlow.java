@@ -0,0 +1,54 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.workflows.flows.issue.IssueTokensUtilities;
+import com.r3.corda.lib.tokens.workflows.internal.flows.distribution.UpdateDistributionListFlow;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Issues the non-fungible token of an instrument on the given notary, normally the notary the instrument itself was
+ * created on. The SDK's IssueTokens always uses the preferred notary, which with sharded notaries would put the token
+ * and its instrument on different notaries.
+ */
+@InitiatingFlow
+public class IssueInstrumentTokenFlow extends FlowLogic<SignedTransaction> {
+
+    private final NonFungibleToken token;
+    private final Party notary;
+
+    public IssueInstrumentTokenFlow(NonFungibleToken token, Party notary) {
+        this.token = token;
+        this.notary = notary;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+
+        TransactionBuilder transactionBuilder = new TransactionBuilder(notary);
+        IssueTokensUtilities.addIssueTokens(transactionBuilder, ImmutableList.of(token));
+
+        final SignedTransaction signedTransaction = getServiceHub().signInitialTransaction(transactionBuilder);
+
+        /* The holder records the issuance unless we issue to ourselves */
+        final Party holder = getServiceHub().getIdentityService().wellKnownPartyFromAnonymous(token.getHolder());
+        if (holder == null) throw new FlowException("Unknown holder " + token.getHolder());
+        final List<FlowSession> sessions = holder.equals(getOurIdentity())
+                ? Collections.emptyList() : Collections.singletonList(initiateFlow(holder));
+
+        final SignedTransaction notarisedTxn = subFlow(new FinalityFlow(signedTransaction, sessions));
+
+        /* Holders of the token receive the instrument's later updates */
+        subFlow(new UpdateDistributionListFlow(notarisedTxn));
+
+        return notarisedTxn;
+    }
+}
@@ -0,0 +1,24 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.*;
+import net.corda.core.transactions.SignedTransaction;
+
+/**
+ * Holder side of {@link IssueInstrumentTokenFlow}, records the issued token.
+ */
+@InitiatedBy(IssueInstrumentTokenFlow.class)
+public class IssueInstrumentTokenResponder extends FlowLogic<SignedTransaction> {
+
+    private final FlowSession issuerSession;
+
+    public IssueInstrumentTokenResponder(FlowSession issuerSession) {
+        this.issuerSession = issuerSession;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+        return subFlow(new ReceiveFinalityFlow(issuerSession));
+    }
+}
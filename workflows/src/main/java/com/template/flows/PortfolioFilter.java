@@ -0,0 +1,66 @@
+package com.template.flows;
+
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * What {@link QueryPortfolioFlow} selects held instruments by. Every criterion is optional and given ones must all
+ * match; ranges are inclusive and valuations are in the smallest unit of the currency.
+ */
+@CordaSerializable
+public class PortfolioFilter {
+
+    private final Party holder;
+    private final String batchNo;
+    private final String issuer;
+    private final Integer yomFrom;
+    private final Integer yomTo;
+    private final Long valuationFrom;
+    private final Long valuationTo;
+
+    public PortfolioFilter(Party holder, String batchNo, String issuer, Integer yomFrom, Integer yomTo,
+                           Long valuationFrom, Long valuationTo) {
+        this.holder = holder;
+        this.batchNo = batchNo;
+        this.issuer = issuer;
+        this.yomFrom = yomFrom;
+        this.yomTo = yomTo;
+        this.valuationFrom = valuationFrom;
+        this.valuationTo = valuationTo;
+    }
+
+    public Party getHolder() {
+        return holder;
+    }
+
+    public String getBatchNo() {
+        return batchNo;
+    }
+
+    /* The X.500 name of the issuer */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public Integer getYomFrom() {
+        return yomFrom;
+    }
+
+    public Integer getYomTo() {
+        return yomTo;
+    }
+
+    public Long getValuationFrom() {
+        return valuationFrom;
+    }
+
+    public Long getValuationTo() {
+        return valuationTo;
+    }
+
+    @Override
+    public String toString() {
+        return "holder " + holder + ", batchNo " + batchNo + ", issuer " + issuer + ", yom " + yomFrom + ".." + yomTo
+                + ", valuation " + valuationFrom + ".." + valuationTo;
+    }
+}
@@ -0,0 +1,37 @@
+package com.template.flows;
+
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Buyer-side recording of bought instruments, shared by the buy flows. A sale only moves the held tokens, so the
+ * instrument states reach the buyer as part of the back-chain, which is stored without touching the vault. Recording
+ * their transactions as visible puts the instruments in the buyer's vault, where its portfolio queries join the held
+ * tokens to them. Later revisions arrive through the distribution list.
+ */
+final class PurchasedInstruments {
+
+    private PurchasedInstruments() {
+    }
+
+    static void record(FlowLogic<?> flow, List<StateAndRef<InstrumentState>> instruments) {
+        final Set<SecureHash> txIds = new LinkedHashSet<>();
+        for (StateAndRef<InstrumentState> instrument : instruments) txIds.add(instrument.getRef().getTxhash());
+
+        final List<SignedTransaction> transactions = new ArrayList<>();
+        for (SecureHash txId : txIds) {
+            SignedTransaction stx = flow.getServiceHub().getValidatedTransactions().getTransaction(txId);
+            if (stx != null) transactions.add(stx);
+        }
+        flow.getServiceHub().recordTransactions(StatesToRecord.ALL_VISIBLE, transactions);
+    }
+}
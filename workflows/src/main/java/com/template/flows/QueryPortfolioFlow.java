@@ -0,0 +1,104 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.internal.schemas.PersistentNonFungibleToken;
+import com.template.schemas.InstrumentSchemaV1;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.node.services.Vault;
+import net.corda.node.services.vault.VaultSchemaV1;
+
+import javax.persistence.TypedQuery;
+import java.util.*;
+
+/**
+ * One page of the instrument tokens held in our vault that match a {@link PortfolioFilter}, as
+ * {@link InstrumentHolding} projections ordered by instrument linear id.
+ *
+ * A single query joins the unconsumed held tokens to their unconsumed instruments on the indexed linear id column of
+ * {@link InstrumentSchemaV1}, and only the projected columns leave the database. Pages are keyed by the last linear id
+ * of the previous page rather than by offset, so each page costs the same however deep into the portfolio it is.
+ * Bought instruments are in our vault too, since the buy flows record them (see {@link PurchasedInstruments}).
+ */
+@StartableByRPC
+public class QueryPortfolioFlow extends FlowLogic<List<InstrumentHolding>> {
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final PortfolioFilter filter;
+    private final String afterLinearId;
+    private final int pageSize;
+
+    public QueryPortfolioFlow(PortfolioFilter filter, String afterLinearId, int pageSize) {
+        this.filter = filter;
+        this.afterLinearId = afterLinearId;
+        this.pageSize = pageSize;
+    }
+
+    @Suspendable
+    @Override
+    public List<InstrumentHolding> call() throws FlowException {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE)
+            throw new FlowException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+
+        final StringBuilder jpql = new StringBuilder()
+                .append("SELECT i.linearId, i.name, i.batchNo, i.resaleValuation, i.valuationCurrency, t.holder")
+                .append(" FROM ").append(InstrumentSchemaV1.PersistentInstrument.class.getName()).append(" i, ")
+                .append(VaultSchemaV1.VaultStates.class.getName()).append(" iv, ")
+                .append(PersistentNonFungibleToken.class.getName()).append(" t, ")
+                .append(VaultSchemaV1.VaultStates.class.getName()).append(" tv")
+                .append(" WHERE iv.stateRef = i.stateRef AND iv.stateStatus = :unconsumed")
+                .append(" AND tv.stateRef = t.stateRef AND tv.stateStatus = :unconsumed")
+                .append(" AND t.tokenIdentifier = i.linearId");
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("unconsumed", Vault.StateStatus.UNCONSUMED);
+
+        if (filter.getHolder() != null) {
+            jpql.append(" AND t.holder = :holder");
+            parameters.put("holder", filter.getHolder());
+        }
+        if (filter.getBatchNo() != null) {
+            jpql.append(" AND i.batchNo = :batchNo");
+            parameters.put("batchNo", filter.getBatchNo());
+        }
+        if (filter.getIssuer() != null) {
+            jpql.append(" AND i.issuer = :issuer");
+            parameters.put("issuer", filter.getIssuer());
+        }
+        if (filter.getYomFrom() != null) {
+            jpql.append(" AND i.yom >= :yomFrom");
+            parameters.put("yomFrom", filter.getYomFrom());
+        }
+        if (filter.getYomTo() != null) {
+            jpql.append(" AND i.yom <= :yomTo");
+            parameters.put("yomTo", filter.getYomTo());
+        }
+        if (filter.getValuationFrom() != null) {
+            jpql.append(" AND i.valuation >= :valuationFrom");
+            parameters.put("valuationFrom", filter.getValuationFrom());
+        }
+        if (filter.getValuationTo() != null) {
+            jpql.append(" AND i.valuation <= :valuationTo");
+            parameters.put("valuationTo", filter.getValuationTo());
+        }
+        if (afterLinearId != null) {
+            jpql.append(" AND i.linearId > :after");
+            parameters.put("after", afterLinearId);
+        }
+        jpql.append(" ORDER BY i.linearId");
+
+        final List<Object[]> rows = getServiceHub().withEntityManager(entityManager -> {
+            TypedQuery<Object[]> query = entityManager.createQuery(jpql.toString(), Object[].class);
+            parameters.forEach(query::setParameter);
+            return query.setMaxResults(pageSize).getResultList();
+        });
+
+        final List<InstrumentHolding> holdings = new ArrayList<>(rows.size());
+        for (Object[] row : rows)
+            holdings.add(new InstrumentHolding((String) row[0], (String) row[1], (String) row[2], (Long) row[3],
+                    (String) row[4], (AbstractParty) row[5]));
+        return holdings;
+    }
+}
@@ -0,0 +1,54 @@
+package com.template.flows;
+
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A seller's price for selling an instrument to one buyer, valid until it expires. The buyer reserves the cash for it
+ * under the quote id, and a sale proposed against the quote before it expires is paid from that reservation.
+ */
+@CordaSerializable
+public class Quote {
+
+    private final UUID quoteId;
+    private final String instrumentId;
+    private final IssuedTokenType issuedCurrency;
+    private final long price;
+    private final Instant expiresAt;
+
+    public Quote(UUID quoteId, String instrumentId, IssuedTokenType issuedCurrency, long price, Instant expiresAt) {
+        this.quoteId = quoteId;
+        this.instrumentId = instrumentId;
+        this.issuedCurrency = issuedCurrency;
+        this.price = price;
+        this.expiresAt = expiresAt;
+    }
+
+    public UUID getQuoteId() {
+        return quoteId;
+    }
+
+    public String getInstrumentId() {
+        return instrumentId;
+    }
+
+    public IssuedTokenType getIssuedCurrency() {
+        return issuedCurrency;
+    }
+
+    public long getPrice() {
+        return price;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    @Override
+    public String toString() {
+        return "Quote " + quoteId + ": " + instrumentId + " for " + price + " " + issuedCurrency + " until " + expiresAt;
+    }
+}
@@ -0,0 +1,31 @@
+package com.template.flows;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * A buyer's request to the seller of an instrument for a {@link Quote}, sent by {@link RequestQuoteFlow}.
+ */
+@CordaSerializable
+public class QuoteRequest {
+
+    private final String instrumentId;
+    private final String issuedCurrency;
+
+    public QuoteRequest(String instrumentId, String issuedCurrency) {
+        this.instrumentId = instrumentId;
+        this.issuedCurrency = issuedCurrency;
+    }
+
+    public String getInstrumentId() {
+        return instrumentId;
+    }
+
+    public String getIssuedCurrency() {
+        return issuedCurrency;
+    }
+
+    @Override
+    public String toString() {
+        return "Quote request for " + instrumentId + " in " + issuedCurrency;
+    }
+}
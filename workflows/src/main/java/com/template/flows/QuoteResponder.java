@@ -0,0 +1,66 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.money.FiatCurrency;
+import com.template.services.FlowMetricsService;
+import com.template.services.InstrumentStateCache;
+import com.template.services.NetworkTopologyService;
+import com.template.services.QuoteBook;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+
+import java.util.UUID;
+
+import static com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities.heldTokenCriteria;
+
+/**
+ * Seller side of {@link RequestQuoteFlow}. Quotes the resale valuation of an instrument we hold, in the requested
+ * currency, and keeps the quote in the {@link QuoteBook} for the sale to pick up.
+ */
+@InitiatedBy(RequestQuoteFlow.class)
+public class QuoteResponder extends FlowLogic<Void> {
+
+    private final FlowSession buyerSession;
+
+    public QuoteResponder(FlowSession buyerSession) {
+        this.buyerSession = buyerSession;
+    }
+
+    @Suspendable
+    @Override
+    public Void call() throws FlowException {
+        final QuoteRequest request = buyerSession.receive(QuoteRequest.class).unwrap(it -> it);
+
+        final UUID linearId;
+        try {
+            linearId = UUID.fromString(request.getInstrumentId());
+        } catch (IllegalArgumentException e) {
+            throw new FlowException("Malformed instrument id " + request.getInstrumentId());
+        }
+
+        final StateAndRef<InstrumentState> instrumentStateAndRef = getServiceHub()
+                .cordaService(InstrumentStateCache.class).get(new UniqueIdentifier(null, linearId));
+        if (instrumentStateAndRef == null) throw new FlowException("Instrument " + linearId + " not found");
+        final InstrumentState instrumentState = instrumentStateAndRef.getState().getData();
+
+        final int held = getServiceHub().getVaultService()
+                .queryBy(NonFungibleToken.class, heldTokenCriteria(instrumentState.toPointer())).getStates().size();
+        getServiceHub().cordaService(FlowMetricsService.class).vaultQuery();
+        if (held != 1) throw new FlowException("We do not hold instrument " + linearId);
+
+        final Party currencyIssuer = getServiceHub().cordaService(NetworkTopologyService.class)
+                .currencyIssuer(request.getIssuedCurrency());
+        if (currencyIssuer == null) throw new FlowException("No issuer of " + request.getIssuedCurrency() + " on the network");
+        final IssuedTokenType issuedCurrency = new IssuedTokenType(currencyIssuer,
+                FiatCurrency.Companion.getInstance(request.getIssuedCurrency()));
+
+        buyerSession.send(getServiceHub().cordaService(QuoteBook.class).quote(buyerSession.getCounterparty(),
+                request.getInstrumentId(), issuedCurrency, instrumentState.getResaleValuation().getQuantity()));
+        return null;
+    }
+}
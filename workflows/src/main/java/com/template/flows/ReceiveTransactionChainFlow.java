@@ -0,0 +1,141 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.FlowMetricsService;
+import com.template.services.TransactionChainService;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.node.services.TransactionStorage;
+import net.corda.core.transactions.CoreTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
+
+import java.security.SignatureException;
+import java.util.*;
+
+
+/**
+ * Receiving side of {@link SendTransactionChainFlow}. Walks the announced chain, dependencies first, and asks for the
+ * transactions missing from our storage in batches of {@code chainSync.batchSize}, so at most one batch is held in
+ * memory and a chain of any depth costs one round trip per batch. Transactions already in our storage, i.e. verified
+ * on an earlier trade, are never asked for again.
+ *
+ * Each batch is verified and recorded, without recording any states, before the next is asked for. Signatures only
+ * need the transaction, so those of a batch are checked in parallel; contract verification needs the node's
+ * storage and runs on the flow, in chain order. Transactions whose attachments, network parameters or dependencies
+ * we lack end the walk, and the usual resolution when the states arrive fetches what is left.
+ *
+ * Returns the number of transactions recorded.
+ */
+public class ReceiveTransactionChainFlow extends FlowLogic<Integer> {
+
+    private final FlowSession otherSideSession;
+
+    public ReceiveTransactionChainFlow(FlowSession otherSideSession) {
+        this.otherSideSession = otherSideSession;
+    }
+
+    @Suspendable
+    @Override
+    public Integer call() throws FlowException {
+        final List<SecureHash> chain = otherSideSession.receive(List.class).unwrap(ReceiveTransactionChainFlow::checkChain);
+        if (chain.isEmpty()) return 0;
+
+        final int batchSize = getServiceHub().cordaService(TransactionChainService.class).getBatchSize();
+        final TransactionStorage storage = getServiceHub().getValidatedTransactions();
+
+        int recorded = 0;
+        final List<SecureHash> batch = new ArrayList<>();
+        for (int i = 0; i < chain.size(); i++) {
+            if (storage.getTransaction(chain.get(i)) == null) batch.add(chain.get(i));
+            if (batch.size() == batchSize || (i == chain.size() - 1 && !batch.isEmpty())) {
+                int fromBatch = fetchAndRecord(batch);
+                recorded += fromBatch;
+                if (fromBatch < batch.size()) break;
+                batch.clear();
+            }
+        }
+
+        /* An empty request ends the exchange */
+        otherSideSession.send(Collections.emptyList());
+        return recorded;
+    }
+
+    /* Returns how many of the batch, in order, were verified and recorded */
+    @Suspendable
+    private int fetchAndRecord(List<SecureHash> batch) throws FlowException {
+        final List<SecureHash> requested = new ArrayList<>(batch);
+        otherSideSession.send(requested);
+        final List<SignedTransaction> received = otherSideSession.receive(List.class).unwrap(it -> checkBatch(it, requested));
+        getServiceHub().cordaService(FlowMetricsService.class).roundTrip();
+
+        final boolean signed = received.parallelStream()
+                .filter(it -> it.getCoreTransaction() instanceof WireTransaction)
+                .allMatch(ReceiveTransactionChainFlow::hasRequiredSignatures);
+        if (!signed) throw new FlowException("Chain transaction is missing required signatures");
+
+        int recorded = 0;
+        for (SignedTransaction stx : received) {
+            if (!resolvable(stx)) break;
+            try {
+                /* Signatures of other kinds of transaction need their inputs, so they are checked here */
+                stx.verify(getServiceHub(), !(stx.getCoreTransaction() instanceof WireTransaction));
+            } catch (SignatureException e) {
+                throw new FlowException("Chain transaction " + stx.getId() + " is not properly signed", e);
+            }
+            getServiceHub().recordTransactions(StatesToRecord.NONE, Collections.singletonList(stx));
+            recorded++;
+        }
+        return recorded;
+    }
+
+    /* Whether the transaction can be verified with what the node holds */
+    private boolean resolvable(SignedTransaction stx) {
+        final CoreTransaction tx = stx.getCoreTransaction();
+        final TransactionStorage storage = getServiceHub().getValidatedTransactions();
+        for (StateRef input : tx.getInputs())
+            if (storage.getTransaction(input.getTxhash()) == null) return false;
+        for (StateRef reference : tx.getReferences())
+            if (storage.getTransaction(reference.getTxhash()) == null) return false;
+        if (tx instanceof WireTransaction)
+            for (SecureHash attachment : ((WireTransaction) tx).getAttachments())
+                if (!getServiceHub().getAttachments().hasAttachment(attachment)) return false;
+        final SecureHash parameters = tx.getNetworkParametersHash();
+        return parameters == null || getServiceHub().getNetworkParametersService().lookup(parameters) != null;
+    }
+
+    private static boolean hasRequiredSignatures(SignedTransaction stx) {
+        try {
+            stx.verifyRequiredSignatures();
+            return true;
+        } catch (SignatureException e) {
+            return false;
+        }
+    }
+
+    private static List<SecureHash> checkChain(List<?> chain) throws FlowException {
+        final List<SecureHash> ids = new ArrayList<>(chain.size());
+        for (Object id : chain) {
+            if (!(id instanceof SecureHash)) throw new FlowException("Announced chain holds " + id);
+            ids.add((SecureHash) id);
+        }
+        return ids;
+    }
+
+    private static List<SignedTransaction> checkBatch(List<?> batch, List<SecureHash> requested) throws FlowException {
+        if (batch.size() != requested.size())
+            throw new FlowException("Asked for " + requested.size() + " chain transactions, received " + batch.size());
+        final List<SignedTransaction> transactions = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Object stx = batch.get(i);
+            if (!(stx instanceof SignedTransaction) || !((SignedTransaction) stx).getId().equals(requested.get(i)))
+                throw new FlowException("Received a chain transaction that was not asked for");
+            transactions.add((SignedTransaction) stx);
+        }
+        return transactions;
+    }
+}
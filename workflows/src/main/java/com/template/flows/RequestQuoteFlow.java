@@ -0,0 +1,69 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.CashPoolService;
+import com.template.services.QuoteReservations;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.utilities.ProgressTracker;
+
+/**
+ * Asks the seller of an instrument for a {@link Quote} ahead of buying it, then reserves currency tokens covering the
+ * quoted price in the {@link CashPoolService} under the quote id until the quote expires, but no longer than our own
+ * maximum (see {@link QuoteReservations}). A sale the seller then proposes against the quote (see
+ * {@link SellInstrumentFlow}, protocol version 5) takes this reservation over if it matches the quote, so
+ * {@link BuyInstrumentFlow} skips token selection. Reservations not taken over in time are released by the pool.
+ */
+@InitiatingFlow
+@StartableByRPC
+public class RequestQuoteFlow extends FlowLogic<Quote> {
+
+    private final Party seller;
+    private final String instrumentId;
+    private final String issuedCurrency;
+
+    private final ProgressTracker.Step REQUESTING_QUOTE = new ProgressTracker.Step("Requesting a quote from the seller");
+    private final ProgressTracker.Step RESERVING_TOKENS = new ProgressTracker.Step("Reserving tokens for the quote");
+
+    private final ProgressTracker progressTracker = new ProgressTracker(REQUESTING_QUOTE, RESERVING_TOKENS);
+
+    public RequestQuoteFlow(Party seller, String instrumentId, String issuedCurrency) {
+        this.seller = seller;
+        this.instrumentId = instrumentId;
+        this.issuedCurrency = issuedCurrency;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public Quote call() throws FlowException {
+
+        progressTracker.setCurrentStep(REQUESTING_QUOTE);
+
+        final FlowSession sellerSession = initiateFlow(seller);
+        final Quote quote = sellerSession.sendAndReceive(Quote.class, new QuoteRequest(instrumentId, issuedCurrency))
+                .unwrap(it -> {
+                    if (!it.getInstrumentId().equals(instrumentId)
+                            || !it.getIssuedCurrency().getTokenType().getTokenIdentifier().equals(issuedCurrency))
+                        throw new IllegalArgumentException("Quote does not match the request");
+                    if (it.getPrice() <= 0) throw new IllegalArgumentException("Quoted price must be positive");
+                    return it;
+                });
+
+        progressTracker.setCurrentStep(RESERVING_TOKENS);
+
+        final QuoteReservations quoteReservations = getServiceHub().cordaService(QuoteReservations.class);
+        final long expiresAtMillis = quoteReservations.expiresAtMillis(quote);
+        if (getServiceHub().cordaService(CashPoolService.class).reserve(quote.getIssuedCurrency(), quote.getPrice(),
+                quote.getQuoteId(), expiresAtMillis).isEmpty())
+            throw new FlowException("Insufficient " + issuedCurrency + " issued by "
+                    + quote.getIssuedCurrency().getIssuer().getName() + " to reserve " + quote.getPrice());
+        quoteReservations.record(seller, quote, expiresAtMillis);
+
+        return quote;
+    }
+}
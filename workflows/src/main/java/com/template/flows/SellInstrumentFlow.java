@@ -9,29 +9,54 @@ import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import com.r3.corda.lib.tokens.contracts.types.TokenType;
 import com.r3.corda.lib.tokens.money.*;
 import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
-import com.r3.corda.lib.tokens.workflows.internal.flows.distribution.UpdateDistributionListFlow;
 import com.r3.corda.lib.tokens.workflows.types.PartyAndToken;
+import com.template.services.DistributionListCoalescer;
+import com.template.services.FlowMetricsService;
+import com.template.services.FxRateService;
+import com.template.services.InstrumentStateCache;
+import com.template.services.NetworkTopologyService;
+import com.template.services.QuoteBook;
+import com.template.services.SellOrderIntake;
 import com.template.states.InstrumentState;
 import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
-import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.RPCOps;
-import net.corda.core.node.services.Vault;
+import net.corda.core.node.StatesToRecord;
 import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.LedgerTransaction;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 
 import static com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities.heldTokenCriteria;
 
-@InitiatingFlow
+/**
+ * Sells an instrument to a buyer against currency tokens in one DvP transaction.
+ *
+ * Version 2 of the protocol opens with a single {@link TradeProposal} followed by both states in one
+ * SendStateAndRefFlow, and the buyer answers with its currency inputs only; we derive the payment and change outputs.
+ * Version 3 opens the same way, but the buyer builds the complete transaction from the proposal, signs it first and
+ * sends it over; we only check it, countersign and finalise, saving the signature collection round trip.
+ * Version 4 adds the back-chain of both states to the opening, announced in full and fetched in batches by the buyer
+ * (see {@link SendTransactionChainFlow}), so long-lived instruments resolve in a few round trips.
+ * Version 5 names, in the proposal, the quote the buyer got from {@link RequestQuoteFlow} for this instrument and price,
+ * so the buyer pays with the tokens it reserved for the quote instead of selecting them.
+ * Version 6 follows the proposal with {@link SettlementTerms}: the buyer may pay in any mix of the issued currencies we
+ * hold FX rates and know an issuer for, and we value the payment at our rates in a single pass over the outputs. The
+ * proposed price is the resale valuation converted into the proposal's currency, where the two differ.
+ * Buyers that only know version 1 still get the instrument, the held token and the issued currency in separate
+ * messages and send outputs of their own.
+ */
+@InitiatingFlow(version = 6)
 @StartableByRPC
+@StartableByService
 public class SellInstrumentFlow extends FlowLogic<String> {
 
     private final String instrumentId;
@@ -45,11 +70,13 @@ public class SellInstrumentFlow extends FlowLogic<String> {
     private final ProgressTracker.Step GETTING_NFT = new ProgressTracker.Step("Getting Non-Fungible Token");
     private final ProgressTracker.Step GETTING_HOLDNFT = new ProgressTracker.Step("Getting Held Non-Fungible Token");
     private final ProgressTracker.Step START_BUYERSESSION = new ProgressTracker.Step("Starting Buyer Session");
+    private final ProgressTracker.Step SENDING_PROPOSAL = new ProgressTracker.Step("Sending trade proposal");
     private final ProgressTracker.Step SENDING_NFT = new ProgressTracker.Step("Send NFT");
     private final ProgressTracker.Step SENDING_HOLDNFT = new ProgressTracker.Step("Sending Hold NFT");
     private final ProgressTracker.Step SENDING_ISSUEDCURRENCY = new ProgressTracker.Step("Sending issued currency");
     private final ProgressTracker.Step RECEIVED_INPUTTOKENS = new ProgressTracker.Step("Received Input tokens");
     private final ProgressTracker.Step RECEIVED_OUTPUTTOKENS = new ProgressTracker.Step("Received output tokens");
+    private final ProgressTracker.Step RECEIVING_BUYER_TRANSACTION = new ProgressTracker.Step("Receiving the transaction built and signed by the buyer");
     private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
     private final ProgressTracker.Step SENDING_TRANSACTION = new ProgressTracker.Step("Sending the transaction");
 
@@ -75,11 +102,13 @@ public class SellInstrumentFlow extends FlowLogic<String> {
             GETTING_NFT,
             GETTING_HOLDNFT,
             START_BUYERSESSION,
+            SENDING_PROPOSAL,
             SENDING_NFT,
             SENDING_HOLDNFT,
             SENDING_ISSUEDCURRENCY,
             RECEIVED_INPUTTOKENS,
             RECEIVED_OUTPUTTOKENS,
+            RECEIVING_BUYER_TRANSACTION,
             SIGNING_TRANSACTION,
             SENDING_TRANSACTION,
             GATHERING_SIGS,
@@ -108,22 +137,38 @@ public class SellInstrumentFlow extends FlowLogic<String> {
     @Suspendable
     @Override
     public String call() throws FlowException {
+        /* No two flows sell the same instrument at once, whether or not the sale comes through a sell order */
+        final SellOrderIntake intake = getServiceHub().cordaService(SellOrderIntake.class);
+        final String flowId = getRunId().getUuid().toString();
+        final SellOrderIntake.Claim claim = intake.claimForFlow(instrumentId, flowId);
+        if (claim != null)
+            throw new FlowException("Instrument " + instrumentId + " is already being sold by " + claim.getClientOrderId());
+        try {
+            return sell();
+        } finally {
+            intake.releaseForFlow(instrumentId, flowId);
+        }
+    }
+
+    @Suspendable
+    private String sell() throws FlowException {
+
+        /* Step timings, vault queries and round trips of this run are published by the metrics service */
+        final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+        metrics.track(this);
 
         progressTracker.setCurrentStep(EXTRACTING_UUID);
 
         /* Extracting the UUID (linear id) from the string instrumentId */
         UUID linearId = UUID.fromString(instrumentId);
 
-        /* QueryCriteria to query the StateAndRef from UUID */
-        QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null,
-                ImmutableList.of(linearId), null, Vault.StateStatus.UNCONSUMED);
-
         progressTracker.setCurrentStep(GETTING_NFT);
 
-        /* Fetching the StateAndRef of Instrument using the query criteria */
-        List<StateAndRef<InstrumentState>> instrumentStateStateAndRefList = getServiceHub().getVaultService().
-                queryBy(InstrumentState.class, queryCriteria).getStates();
-        if (instrumentStateStateAndRefList.size() != 1) throw new FlowException(" Non Fungible token not found");
+        /* Fetching the StateAndRef of Instrument from the node-local cache, which falls back to the vault */
+        StateAndRef<InstrumentState> instrumentStateAndRef = getServiceHub().cordaService(InstrumentStateCache.class)
+                .get(new UniqueIdentifier(null, linearId));
+        if (instrumentStateAndRef == null) throw new FlowException(" Non Fungible token not found");
+        List<StateAndRef<InstrumentState>> instrumentStateStateAndRefList = ImmutableList.of(instrumentStateAndRef);
 
 
 
@@ -137,39 +182,82 @@ public class SellInstrumentFlow extends FlowLogic<String> {
         /* Fetching the StateAndRef of Instrument using the query criteria */
         final List<StateAndRef<NonFungibleToken>> ownedInstrumentTokensList = getServiceHub().getVaultService()
                 .queryBy(NonFungibleToken.class, heldTokenCriteria).getStates();
+        metrics.vaultQuery();
         if (ownedInstrumentTokensList.size() != 1) throw new FlowException("Held Non Fungible token not found");
 
         progressTracker.setCurrentStep(START_BUYERSESSION);
 
         final FlowSession buyerSession = initiateFlow(buyer);
 
-        progressTracker.setCurrentStep(SENDING_NFT);
+        /* The currency issuer is resolved once per node by the topology service */
+        final NetworkTopologyService topology = getServiceHub().cordaService(NetworkTopologyService.class);
+        TokenType tokenType = FiatCurrency.Companion.getInstance(issuedCurrency);
+        final Party currencyIssuer = topology.currencyIssuer(issuedCurrency);
+        if (currencyIssuer == null) throw new FlowException("No issuer of " + issuedCurrency + " on the network");
+        IssuedTokenType issuedCurrencyType = new IssuedTokenType(currencyIssuer, tokenType);
 
-        /* Send the StateAndRef and issuedCurrency of the Instrument to the Buyer so that he can extract the data earlier himself */
-        subFlow(new SendStateAndRefFlow(buyerSession , instrumentStateStateAndRefList));
+        InstrumentState instrumentState = instrumentStateStateAndRefList.get(0).getState().getData();
 
-        progressTracker.setCurrentStep(SENDING_HOLDNFT);
+        /* Asked on every run, never cached: the buyer branches on our live version, so both ends must agree even
+         right after either side upgrades the CorDapp */
+        final int buyerVersion = buyerSession.getCounterpartyFlowInfo().getFlowVersion();
+        /* From version 6 the buyer may pay in any currency we can value, at one snapshot of our rates */
+        final SettlementTerms terms = buyerVersion >= 6
+                ? settlementTerms(topology, issuedCurrencyType, instrumentState) : null;
+        if (buyerVersion >= 2) {
+            progressTracker.setCurrentStep(SENDING_PROPOSAL);
+
+            /* One proposal message, then both states in one send so the buyer resolves them in a single pass */
+            final long proposedPrice = terms != null
+                    ? settlementPrice(terms, instrumentState, tokenType) : instrumentState.getResaleValuation().getQuantity();
+            /* A quote we gave this buyer for the same terms, if still open; older buyers cannot hold one */
+            final UUID quoteId = buyerVersion >= 5 ? getServiceHub().cordaService(QuoteBook.class)
+                    .take(buyer, linearId.toString(), issuedCurrencyType, proposedPrice) : null;
+            buyerSession.send(new TradeProposal(instrumentStateAndRef.getRef(), ownedInstrumentTokensList.get(0).getRef(),
+                    issuedCurrencyType, proposedPrice, quoteId));
+            if (terms != null) buyerSession.send(terms);
+            if (buyerVersion >= 4)
+                subFlow(new SendTransactionChainFlow(buyerSession,
+                        ImmutableList.of(instrumentStateAndRef.getRef(), ownedInstrumentTokensList.get(0).getRef())));
+            subFlow(new SendStateAndRefFlow(buyerSession,
+                    ImmutableList.of(instrumentStateAndRef, ownedInstrumentTokensList.get(0))));
+        } else {
+            progressTracker.setCurrentStep(SENDING_NFT);
+
+            /* Send the StateAndRef and issuedCurrency of the Instrument to the Buyer so that he can extract the data earlier himself */
+            subFlow(new SendStateAndRefFlow(buyerSession , instrumentStateStateAndRefList));
+
+            progressTracker.setCurrentStep(SENDING_HOLDNFT);
+
+            subFlow(new SendStateAndRefFlow(buyerSession, ownedInstrumentTokensList));
+
+            progressTracker.setCurrentStep(SENDING_ISSUEDCURRENCY);
+
+            buyerSession.send(issuedCurrencyType);
+        }
 
-        subFlow(new SendStateAndRefFlow(buyerSession, ownedInstrumentTokensList));
+        if (buyerVersion >= 3) {
+            countersignBuyerTransaction(buyerSession, ownedInstrumentTokensList.get(0), instrumentState,
+                    issuedCurrencyType, terms, metrics);
 
-        progressTracker.setCurrentStep(SENDING_ISSUEDCURRENCY);
+            /* The maintainers learn of the new holder in a later batch, outside the sale */
+            getServiceHub().cordaService(DistributionListCoalescer.class).enqueue(instrumentState, buyer);
 
-        TokenType tokenType = FiatCurrency.Companion.getInstance(issuedCurrency);
-        final CordaX500Name x500Name = CordaX500Name.parse("O=CurrencyIssuer,L=New York,C=US");
-        IssuedTokenType issuedCurrencyType = new IssuedTokenType( getServiceHub().getNetworkMapCache().getPeerByLegalName(x500Name), tokenType);
-        buyerSession.send(issuedCurrencyType);
+            return "Flow completed";
+        }
 
-        /* Let's build the transaction until we receive inputs and outputs from Buyer */
-        final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+        /* Let's build the transaction until we receive inputs and outputs from Buyer. The transaction follows the
+         notary of the held token; the buyer moves its cash onto that notary if needed. */
+        final Party notary = ownedInstrumentTokensList.get(0).getState().getNotary();
         TransactionBuilder transactionBuilder = new TransactionBuilder(notary);
 
-        InstrumentState instrumentState = instrumentStateStateAndRefList.get(0).getState().getData();
-
         MoveTokensUtilities.addMoveNonFungibleTokens(transactionBuilder, getServiceHub(),
                 instrumentState.toPointer(), buyer);
+        metrics.vaultQuery();
 
         /* Receive the currency states that will go as inputs to the transaction */
         List<StateAndRef<FungibleToken>> inputCurrencyTokens = subFlow(new ReceiveStateAndRefFlow<FungibleToken>(buyerSession));
+        metrics.roundTrip();
 
         progressTracker.setCurrentStep(RECEIVED_INPUTTOKENS);
 
@@ -179,8 +267,16 @@ public class SellInstrumentFlow extends FlowLogic<String> {
                 .count();
         if (myOwnCurrency != 0) throw new FlowException("Buyer sent us " + myOwnCurrency + " our own Token(s)");
 
-        /* Receive the currency states that will go as outputs to the transaction */
-        final List<FungibleToken> outputCurrencyTokens = buyerSession.receive(List.class).unwrap(it -> it);
+        final List<FungibleToken> outputCurrencyTokens;
+        if (buyerVersion >= 2) {
+            /* The buyer only sent its inputs: we pay ourselves the proposed price and return the change */
+            outputCurrencyTokens = paymentOutputs(inputCurrencyTokens, issuedCurrencyType,
+                    instrumentState.getResaleValuation().getQuantity());
+        } else {
+            /* Receive the currency states that will go as outputs to the transaction */
+            outputCurrencyTokens = buyerSession.receive(List.class).unwrap(it -> it);
+            metrics.roundTrip();
+        }
 
         progressTracker.setCurrentStep(RECEIVED_OUTPUTTOKENS);
 
@@ -192,12 +288,12 @@ public class SellInstrumentFlow extends FlowLogic<String> {
                 .map(Amount::getQuantity)
                 .reduce(0L, Math::addExact);
 
-        /* Check to ensure the sum to be paid by buyer is more than or equal to the valuation price */
-        final long price = instrumentState.getValuation().getQuantity();
+        /* Check to ensure the sum to be paid by buyer is more than or equal to the resale value the buyer pays */
+        final long price = instrumentState.getResaleValuation().getQuantity();
         if (sumPaid < price)
         {
-            throw new FlowException(" We were being paid only " + sumPaid + instrumentState.getValuation().getToken().getCurrencyCode()
-                    + " instead of " + price + instrumentState.getValuation().getToken().getCurrencyCode());
+            throw new FlowException(" We were being paid only " + sumPaid + instrumentState.getResaleValuation().getToken().getCurrencyCode()
+                    + " instead of " + price + instrumentState.getResaleValuation().getToken().getCurrencyCode());
         }
 
         /* Adding the input and output currency states to the MoveTokenUtilities*/
@@ -213,18 +309,149 @@ public class SellInstrumentFlow extends FlowLogic<String> {
 
         final SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow
                 (partiallySignedTransaction, Collections.singletonList(buyerSession)));
+        metrics.roundTrip();
 
         progressTracker.setCurrentStep(FINALISING_TRANSACTION);
 
         /* finalising the transaction and getting it notarised */
-        final SignedTransaction notarisedTxn =
-                subFlow(new FinalityFlow(fullySignedTransaction, Collections.singletonList(buyerSession)));
+        subFlow(new FinalityFlow(fullySignedTransaction, Collections.singletonList(buyerSession)));
+        metrics.roundTrip();
 
-        /* Distributes the updates of the notarised txn to update the ledger */
-        subFlow(new UpdateDistributionListFlow(notarisedTxn));
+        /* The maintainers learn of the new holder in a later batch, outside the sale */
+        getServiceHub().cordaService(DistributionListCoalescer.class).enqueue(instrumentState, buyer);
 
         return "Flow completed";
 
     }
+
+    /* Protocol version 6: every issued currency we hold a rate for, with an issuer on the network, is accepted besides
+     the one of the proposal. The snapshot sent only carries the rates the trade needs. */
+    private SettlementTerms settlementTerms(NetworkTopologyService topology, IssuedTokenType issuedCurrencyType,
+                                            InstrumentState instrumentState) throws FlowException {
+        final FxSnapshot rates = getServiceHub().cordaService(FxRateService.class).snapshot();
+        final String settlementCode = issuedCurrencyType.getTokenType().getTokenIdentifier();
+        final String valuationCode = instrumentState.getResaleValuation().getToken().getCurrencyCode();
+        if (!valuationCode.equals(settlementCode) && rates.rate(valuationCode, settlementCode) == null)
+            throw new FlowException("No FX rate from " + valuationCode + " to " + settlementCode);
+
+        final List<IssuedTokenType> accepted = new ArrayList<>();
+        accepted.add(issuedCurrencyType);
+        final Set<String> codes = new HashSet<>();
+        codes.add(settlementCode);
+        codes.add(valuationCode);
+        if (rates.has(settlementCode))
+            for (String code : rates.getValues().keySet()) {
+                if (code.equals(settlementCode)) continue;
+                Party issuer = topology.currencyIssuer(code);
+                if (issuer == null) continue;
+                accepted.add(new IssuedTokenType(issuer, FiatCurrency.Companion.getInstance(code)));
+                codes.add(code);
+            }
+        return new SettlementTerms(accepted, rates.restrictTo(codes));
+    }
+
+    /* The resale valuation converted into the proposal's currency at the rates of the terms, rounded down */
+    private static long settlementPrice(SettlementTerms terms, InstrumentState instrumentState, TokenType settlementType) {
+        return terms.getRates().convert(instrumentState.getResaleValuation().getQuantity(),
+                FiatCurrency.Companion.getInstance(instrumentState.getResaleValuation().getToken().getCurrencyCode()),
+                settlementType);
+    }
+
+    /* Protocol version 3: the buyer built and signed the whole DvP from our proposal, so we only check that it gives
+     the held token to the buyer and pays us, countersign it and finalise it. Under settlement terms the payment is
+     valued across the accepted currencies at the rates we sent. */
+    @Suspendable
+    private SignedTransaction countersignBuyerTransaction(FlowSession buyerSession, StateAndRef<NonFungibleToken> heldToken,
+                                                          InstrumentState instrumentState, IssuedTokenType issuedCurrencyType,
+                                                          SettlementTerms terms, FlowMetricsService metrics)
+            throws FlowException {
+        progressTracker.setCurrentStep(RECEIVING_BUYER_TRANSACTION);
+
+        /* Resolves and verifies the buyer's back-chain; only the buyer has signed so far */
+        final SignedTransaction buyerSignedTransaction =
+                subFlow(new ReceiveTransactionFlow(buyerSession, false, StatesToRecord.NONE));
+        metrics.roundTrip();
+
+        if (!heldToken.getState().getNotary().equals(buyerSignedTransaction.getNotary()))
+            throw new FlowException("Buyer's transaction is not on the notary of the held token");
+
+        final LedgerTransaction ledgerTransaction = buyerSignedTransaction.toLedgerTransaction(getServiceHub(), false);
+
+        /* The only state of ours it may spend is the held token */
+        boolean spendsHeldToken = false;
+        for (StateAndRef<ContractState> input : ledgerTransaction.getInputs()) {
+            if (input.getRef().equals(heldToken.getRef())) spendsHeldToken = true;
+            else if (input.getState().getData().getParticipants().contains(getOurIdentity()))
+                throw new FlowException("Buyer's transaction spends our state " + input.getRef());
+        }
+        if (!spendsHeldToken) throw new FlowException("Buyer's transaction does not spend the held token");
+
+        final Collection<IssuedTokenType> accepted = terms != null
+                ? terms.getAccepted() : Collections.singletonList(issuedCurrencyType);
+        final Map<IssuedTokenType, Long> paid = new HashMap<>();
+        boolean instrumentToBuyer = false;
+        for (ContractState output : ledgerTransaction.getOutputStates()) {
+            if (output instanceof FungibleToken) {
+                FungibleToken token = (FungibleToken) output;
+                if (token.getHolder().equals(getOurIdentity()) && accepted.contains(token.getIssuedTokenType()))
+                    paid.merge(token.getIssuedTokenType(), token.getAmount().getQuantity(), Math::addExact);
+            } else if (output instanceof NonFungibleToken) {
+                NonFungibleToken token = (NonFungibleToken) output;
+                if (token.getHolder().equals(buyer) && token.getTokenType() instanceof TokenPointer
+                        && ((TokenPointer<?>) token.getTokenType()).getPointer().getPointer().equals(instrumentState.getLinearId()))
+                    instrumentToBuyer = true;
+            }
+        }
+        if (!instrumentToBuyer) throw new FlowException("Buyer's transaction does not move the instrument to the buyer");
+
+        if (terms != null) {
+            /* The proposed price, in the proposal's currency, against the payment valued at our rates */
+            final TokenType settlementType = issuedCurrencyType.getTokenType();
+            final long price = settlementPrice(terms, instrumentState, settlementType);
+            final long valuePaid = terms.getRates().value(paid, settlementType);
+            if (valuePaid < price)
+                throw new FlowException(" We were being paid only " + valuePaid + settlementType.getTokenIdentifier()
+                        + " worth of " + paid.keySet() + " instead of " + price + settlementType.getTokenIdentifier());
+        } else {
+            /* Check to ensure the sum to be paid by buyer is more than or equal to the resale value the buyer pays */
+            final long sumPaid = paid.getOrDefault(issuedCurrencyType, 0L);
+            final long price = instrumentState.getResaleValuation().getQuantity();
+            if (sumPaid < price)
+                throw new FlowException(" We were being paid only " + sumPaid + instrumentState.getResaleValuation().getToken().getCurrencyCode()
+                        + " instead of " + price + instrumentState.getResaleValuation().getToken().getCurrencyCode());
+        }
+
+        progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+
+        final SignedTransaction fullySignedTransaction = getServiceHub().addSignature(buyerSignedTransaction);
+
+        progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+
+        final SignedTransaction notarisedTxn =
+                subFlow(new FinalityFlow(fullySignedTransaction, Collections.singletonList(buyerSession)));
+        metrics.roundTrip();
+        return notarisedTxn;
+    }
+
+    /* Outputs of protocol version 2: the price to us and any change back to the buyer, who must hold every input */
+    private List<FungibleToken> paymentOutputs(List<StateAndRef<FungibleToken>> inputs,
+                                               IssuedTokenType issuedCurrencyType, long price) throws FlowException {
+        long sum = 0L;
+        for (StateAndRef<FungibleToken> input : inputs) {
+            FungibleToken token = input.getState().getData();
+            if (!token.getHolder().equals(buyer))
+                throw new FlowException("Buyer sent a token held by " + token.getHolder());
+            if (!token.getIssuedTokenType().equals(issuedCurrencyType))
+                throw new FlowException("Buyer sent a token of " + token.getIssuedTokenType() + " instead of " + issuedCurrencyType);
+            sum = Math.addExact(sum, token.getAmount().getQuantity());
+        }
+        if (sum < price) throw new FlowException("Buyer's tokens are worth " + sum + " instead of " + price);
+
+        final SecureHash jarHash = inputs.get(0).getState().getData().getTokenTypeJarHash();
+        final List<FungibleToken> outputs = new ArrayList<>();
+        outputs.add(new FungibleToken(new Amount<>(price, issuedCurrencyType), getOurIdentity(), jarHash));
+        if (sum > price) outputs.add(new FungibleToken(new Amount<>(sum - price, issuedCurrencyType), buyer, jarHash));
+        return outputs;
+    }
 }
 
@@ -0,0 +1,54 @@
+package com.template.flows;
+
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.ConstructorForDeserialization;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.UUID;
+
+/**
+ * One sale handed to {@link SellOrdersFlow}: which instrument goes to which buyer, paid in which currency. Each order
+ * runs through {@link SubmitSellOrderFlow} under its client order id, so submitting the same order again never sells
+ * twice. Without an explicit id the order gets a random one when created.
+ */
+@CordaSerializable
+public class SellOrder {
+
+    private final String clientOrderId;
+    private final String instrumentId;
+    private final Party buyer;
+    private final String issuedCurrency;
+
+    @ConstructorForDeserialization
+    public SellOrder(String clientOrderId, String instrumentId, Party buyer, String issuedCurrency) {
+        this.clientOrderId = clientOrderId;
+        this.instrumentId = instrumentId;
+        this.buyer = buyer;
+        this.issuedCurrency = issuedCurrency;
+    }
+
+    public SellOrder(String instrumentId, Party buyer, String issuedCurrency) {
+        this(UUID.randomUUID().toString(), instrumentId, buyer, issuedCurrency);
+    }
+
+    public String getClientOrderId() {
+        return clientOrderId;
+    }
+
+    public String getInstrumentId() {
+        return instrumentId;
+    }
+
+    public Party getBuyer() {
+        return buyer;
+    }
+
+    public String getIssuedCurrency() {
+        return issuedCurrency;
+    }
+
+    @Override
+    public String toString() {
+        return clientOrderId + ": " + instrumentId + " -> " + buyer.getName() + " (" + issuedCurrency + ")";
+    }
+}
@@ -0,0 +1,44 @@
+package com.template.flows;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * Result of one {@link SellOrder} run by {@link SellOrdersFlow}. The index is the position of the order in the
+ * submitted list, since outcomes are reported in completion order.
+ */
+@CordaSerializable
+public class SellOrderOutcome {
+
+    private final int index;
+    private final SellOrder order;
+    private final boolean settled;
+    private final String message;
+
+    public SellOrderOutcome(int index, SellOrder order, boolean settled, String message) {
+        this.index = index;
+        this.order = order;
+        this.settled = settled;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public SellOrder getOrder() {
+        return order;
+    }
+
+    public boolean isSettled() {
+        return settled;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "Order " + index + " " + order + (settled ? " settled: " : " failed: ") + message;
+    }
+}
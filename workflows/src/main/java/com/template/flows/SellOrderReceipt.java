@@ -0,0 +1,55 @@
+package com.template.flows;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * What {@link SubmitSellOrderFlow} answers for a client order id: the run id of the flow that owns the order, and how
+ * far it got. A retry of an order already taken in is answered with the original's receipt, marked as a duplicate.
+ */
+@CordaSerializable
+public class SellOrderReceipt {
+
+    @CordaSerializable
+    public enum Status { IN_FLIGHT, COMPLETED, FAILED }
+
+    private final String clientOrderId;
+    private final String flowId;
+    private final Status status;
+    private final String message;
+    private final boolean duplicate;
+
+    public SellOrderReceipt(String clientOrderId, String flowId, Status status, String message, boolean duplicate) {
+        this.clientOrderId = clientOrderId;
+        this.flowId = flowId;
+        this.status = status;
+        this.message = message;
+        this.duplicate = duplicate;
+    }
+
+    public String getClientOrderId() {
+        return clientOrderId;
+    }
+
+    public String getFlowId() {
+        return flowId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /* The sale's result, or why it failed */
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    @Override
+    public String toString() {
+        return "Order " + clientOrderId + " (flow " + flowId + ") " + status + (duplicate ? ", duplicate" : "")
+                + (message == null ? "" : ": " + message);
+    }
+}
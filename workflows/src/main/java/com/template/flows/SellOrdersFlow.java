@@ -0,0 +1,116 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.SellOrderDispatcher;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowExternalAsyncOperation;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.utilities.ProgressTracker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Orchestrates many sales from one RPC call, each an idempotent {@link SubmitSellOrderFlow} under the order's client
+ * order id. Orders are run by the {@link SellOrderDispatcher}
+ * with at most {@code window} sales in flight, keeping the order of sales per buyer only. A failed order is reported
+ * and does not hold back the others.
+ *
+ * Every order gets a "settled" and a "failed" step in the progress tracker, and the flow moves to the matching step
+ * as each outcome comes in, so RPC clients tracking the flow receive the outcomes as a stream. The full list is
+ * returned in submission order at the end.
+ *
+ * The dispatch lives in the node's memory only: after a node restart this flow fails, and resubmitting the same
+ * orders reports each one's outcome without selling it twice.
+ */
+@StartableByRPC
+public class SellOrdersFlow extends FlowLogic<List<SellOrderOutcome>> {
+
+    private static final int DEFAULT_WINDOW = 8;
+
+    private final List<SellOrder> orders;
+    private final int window;
+
+    private final ProgressTracker.Step DISPATCHING = new ProgressTracker.Step("Dispatching sell orders");
+    private final ProgressTracker.Step AWAITING_OUTCOMES = new ProgressTracker.Step("Awaiting sell order outcomes");
+    private final List<ProgressTracker.Step> SETTLED = new ArrayList<>();
+    private final List<ProgressTracker.Step> FAILED = new ArrayList<>();
+
+    private final ProgressTracker progressTracker;
+
+    public SellOrdersFlow(List<SellOrder> orders, int window) {
+        this.orders = orders;
+        this.window = window;
+
+        List<ProgressTracker.Step> steps = new ArrayList<>();
+        steps.add(DISPATCHING);
+        steps.add(AWAITING_OUTCOMES);
+        for (int i = 0; i < orders.size(); i++) {
+            SETTLED.add(new ProgressTracker.Step("Order " + i + " settled: " + orders.get(i)));
+            FAILED.add(new ProgressTracker.Step("Order " + i + " failed: " + orders.get(i)));
+            steps.add(SETTLED.get(i));
+            steps.add(FAILED.get(i));
+        }
+        this.progressTracker = new ProgressTracker(steps.toArray(new ProgressTracker.Step[0]));
+    }
+
+    public SellOrdersFlow(List<SellOrder> orders) {
+        this(orders, DEFAULT_WINDOW);
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public List<SellOrderOutcome> call() throws FlowException {
+
+        if (orders.isEmpty()) return Collections.emptyList();
+        if (window < 1) throw new FlowException("Concurrency window must be at least 1");
+
+        progressTracker.setCurrentStep(DISPATCHING);
+
+        final SellOrderDispatcher dispatcher = getServiceHub().cordaService(SellOrderDispatcher.class);
+        final String dispatchId = dispatcher.dispatch(orders, window);
+
+        progressTracker.setCurrentStep(AWAITING_OUTCOMES);
+
+        final SellOrderOutcome[] outcomes = new SellOrderOutcome[orders.size()];
+        try {
+            for (int received = 0; received < orders.size(); received++) {
+                SellOrderOutcome outcome = await(new NextOutcome(dispatcher, dispatchId));
+                outcomes[outcome.getIndex()] = outcome;
+                progressTracker.setCurrentStep(outcome.isSettled()
+                        ? SETTLED.get(outcome.getIndex())
+                        : FAILED.get(outcome.getIndex()));
+            }
+        } finally {
+            /* Also when the flow is killed or fails while waiting, so the dispatch is not kept forever */
+            dispatcher.release(dispatchId);
+        }
+
+        return Arrays.asList(outcomes);
+    }
+
+    /* Suspends the flow until the dispatcher reports the next finished order */
+    private static class NextOutcome implements FlowExternalAsyncOperation<SellOrderOutcome> {
+        private final SellOrderDispatcher dispatcher;
+        private final String dispatchId;
+
+        private NextOutcome(SellOrderDispatcher dispatcher, String dispatchId) {
+            this.dispatcher = dispatcher;
+            this.dispatchId = dispatchId;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<SellOrderOutcome> execute(@NotNull String deduplicationId) {
+            /* A replay from the last checkpoint asks again under the same id and gets the same outcome */
+            return dispatcher.nextOutcome(dispatchId, deduplicationId);
+        }
+    }
+}
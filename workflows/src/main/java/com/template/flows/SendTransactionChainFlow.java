@@ -0,0 +1,63 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.services.FlowMetricsService;
+import com.template.services.TransactionChainService;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.*;
+
+
+/**
+ * Sends the counterparty the ids of the whole back-chain of the states, dependencies first, then serves the batches
+ * of those transactions it asks for until it sends an empty request. Run just before sending the states themselves,
+ * so that {@link ReceiveTransactionChainFlow} has resolved the chain by the time they arrive.
+ *
+ * Only transactions of the announced chain are served. Short chains are not announced at all.
+ */
+public class SendTransactionChainFlow extends FlowLogic<Void> {
+
+    private final FlowSession otherSideSession;
+    private final List<StateRef> refs;
+
+    public SendTransactionChainFlow(FlowSession otherSideSession, List<StateRef> refs) {
+        this.otherSideSession = otherSideSession;
+        this.refs = refs;
+    }
+
+    @Suspendable
+    @Override
+    public Void call() throws FlowException {
+        final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+
+        final List<SecureHash> chain = getServiceHub().cordaService(TransactionChainService.class).chainOf(refs);
+        otherSideSession.send(chain);
+        if (chain.isEmpty()) return null;
+
+        final Set<SecureHash> announced = new HashSet<>(chain);
+        while (true) {
+            final List<SecureHash> request = otherSideSession.receive(List.class).unwrap(it -> checkRequest(it, announced));
+            metrics.roundTrip();
+            if (request.isEmpty()) return null;
+
+            final List<SignedTransaction> batch = new ArrayList<>(request.size());
+            for (SecureHash id : request) batch.add(getServiceHub().getValidatedTransactions().getTransaction(id));
+            otherSideSession.send(batch);
+        }
+    }
+
+    private static List<SecureHash> checkRequest(List<?> request, Set<SecureHash> announced) throws FlowException {
+        final List<SecureHash> ids = new ArrayList<>(request.size());
+        for (Object id : request) {
+            if (!(id instanceof SecureHash) || !announced.contains(id))
+                throw new FlowException("Counterparty asked for a transaction outside the announced chain: " + id);
+            ids.add((SecureHash) id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,39 @@
+package com.template.flows;
+
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sent after the {@link TradeProposal} from protocol version 6 of {@link SellInstrumentFlow}: the issued currencies
+ * the seller takes in payment, besides the one of the proposal, and the seller's FX rates between them. The buyer may
+ * pay in any mix of them; the seller values the payment at these rates, in the proposal's currency.
+ */
+@CordaSerializable
+public class SettlementTerms {
+
+    private final List<IssuedTokenType> accepted;
+    private final FxSnapshot rates;
+
+    public SettlementTerms(List<IssuedTokenType> accepted, FxSnapshot rates) {
+        this.accepted = Collections.unmodifiableList(new ArrayList<>(accepted));
+        this.rates = rates;
+    }
+
+    /* The issued currencies accepted in payment, the proposal's own first */
+    public List<IssuedTokenType> getAccepted() {
+        return accepted;
+    }
+
+    public FxSnapshot getRates() {
+        return rates;
+    }
+
+    @Override
+    public String toString() {
+        return "SettlementTerms(" + accepted + ", " + rates + ")";
+    }
+}
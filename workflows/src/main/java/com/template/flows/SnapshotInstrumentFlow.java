@@ -0,0 +1,136 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.workflows.flows.issue.IssueTokensUtilities;
+import com.r3.corda.lib.tokens.workflows.flows.redeem.RedeemTokensUtilities;
+import com.r3.corda.lib.tokens.workflows.internal.flows.distribution.UpdateDistributionListFlow;
+import com.template.contracts.InstrumentContract;
+import com.template.services.InstrumentStateCache;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.PrivacySalt;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.security.PublicKey;
+import java.util.*;
+
+import static com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities.heldTokenCriteria;
+
+/**
+ * Bounds the back-chain of an instrument we hold. A buyer of a long-lived instrument has to resolve every earlier
+ * update and sale; after a snapshot it only resolves from the snapshot on.
+ *
+ * Run by the holder together with the instrument's maintainer, who must also be the issuer of the held token. The
+ * first transaction retires the instrument and redeems the held token. The second re-creates both with the same
+ * linear ids and data in a transaction without inputs, whose Snapshot command names the retiring transaction, so the
+ * new chain starts there and is anchored to the notarised end of the old one. Both transactions are signed by the
+ * holder and the maintainer and stay on the instrument's notary.
+ */
+@InitiatingFlow
+@StartableByRPC
+public class SnapshotInstrumentFlow extends FlowLogic<SignedTransaction> {
+
+    private final String instrumentId;
+
+    private final ProgressTracker.Step RETIRING = new ProgressTracker.Step("Retiring the instrument and its held token");
+    private final ProgressTracker.Step SNAPSHOTTING = new ProgressTracker.Step("Re-creating the instrument and its held token");
+    private final ProgressTracker.Step DISTRIBUTING = new ProgressTracker.Step("Updating the distribution list");
+
+    private final ProgressTracker progressTracker = new ProgressTracker(RETIRING, SNAPSHOTTING, DISTRIBUTING);
+
+    public SnapshotInstrumentFlow(String instrumentId) {
+        this.instrumentId = instrumentId;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+
+        final StateAndRef<InstrumentState> instrumentStateAndRef = getServiceHub().cordaService(InstrumentStateCache.class)
+                .get(new UniqueIdentifier(null, UUID.fromString(instrumentId)));
+        if (instrumentStateAndRef == null) throw new FlowException("Instrument " + instrumentId + " not found");
+        final InstrumentState instrumentState = instrumentStateAndRef.getState().getData();
+
+        final List<StateAndRef<NonFungibleToken>> heldTokens = getServiceHub().getVaultService()
+                .queryBy(NonFungibleToken.class, heldTokenCriteria(instrumentState.toPointer())).getStates();
+        if (heldTokens.size() != 1) throw new FlowException("We do not hold instrument " + instrumentId);
+        final StateAndRef<NonFungibleToken> heldToken = heldTokens.get(0);
+
+        final Party maintainer = instrumentState.getIssuer();
+        if (!heldToken.getState().getData().getIssuer().equals(maintainer))
+            throw new FlowException("The held token of " + instrumentId + " was not issued by its maintainer");
+
+        final Party notary = instrumentStateAndRef.getState().getNotary();
+        if (!heldToken.getState().getNotary().equals(notary))
+            throw new FlowException("The instrument and its held token are on different notaries");
+
+        final List<FlowSession> sessions = maintainer.equals(getOurIdentity())
+                ? Collections.emptyList() : Collections.singletonList(initiateFlow(maintainer));
+        final List<PublicKey> signers = new ArrayList<>(new LinkedHashSet<>(
+                ImmutableList.of(maintainer.getOwningKey(), getOurIdentity().getOwningKey())));
+
+        progressTracker.setCurrentStep(RETIRING);
+
+        /* Builders without a service hub do not add the instrument the tokens point to as a reference; here it is an
+         input of the retirement and does not exist yet in the snapshot */
+        final TransactionBuilder retirement = builder(notary);
+        retirement.addInputState(instrumentStateAndRef);
+        retirement.addCommand(new InstrumentContract.Commands.Retire(), signers);
+        RedeemTokensUtilities.addTokensToRedeem(retirement, ImmutableList.of(heldToken), null);
+
+        final SignedTransaction retired = signAndFinalise(retirement, sessions);
+
+        progressTracker.setCurrentStep(SNAPSHOTTING);
+
+        final InstrumentState snapshotState = new InstrumentState(instrumentState.getLinearId(),
+                instrumentState.getMaintainers(), instrumentState.getName(), instrumentState.getYom(),
+                instrumentState.getBatchNo(), instrumentState.getValuation(), instrumentState.getWarranty(),
+                instrumentState.getResaleValuation());
+        final NonFungibleToken heldTokenData = heldToken.getState().getData();
+        final NonFungibleToken snapshotToken = new NonFungibleToken(heldTokenData.getIssuedTokenType(),
+                getOurIdentity(), heldTokenData.getLinearId(), heldTokenData.getTokenTypeJarHash());
+
+        final TransactionBuilder snapshot = builder(notary);
+        snapshot.addOutputState(snapshotState);
+        snapshot.addCommand(new InstrumentContract.Commands.Snapshot(retired.getId()), signers);
+        IssueTokensUtilities.addIssueTokens(snapshot, ImmutableList.of(snapshotToken));
+
+        final SignedTransaction notarisedTxn = signAndFinalise(snapshot, sessions);
+
+        /* The instrument's participants are its maintainers; we keep it to sell the token later */
+        getServiceHub().recordTransactions(StatesToRecord.ALL_VISIBLE, Collections.singletonList(notarisedTxn));
+
+        progressTracker.setCurrentStep(DISTRIBUTING);
+
+        subFlow(new UpdateDistributionListFlow(notarisedTxn));
+
+        return notarisedTxn;
+    }
+
+    private TransactionBuilder builder(Party notary) {
+        return new TransactionBuilder(notary, getRunId().getUuid(), new ArrayList<>(), new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>(), null, new PrivacySalt(), new ArrayList<>(), null);
+    }
+
+    @Suspendable
+    private SignedTransaction signAndFinalise(TransactionBuilder transactionBuilder, List<FlowSession> sessions)
+            throws FlowException {
+        final SignedTransaction signedTransaction = getServiceHub().signInitialTransaction(transactionBuilder);
+        final SignedTransaction fullySignedTransaction = sessions.isEmpty()
+                ? signedTransaction : subFlow(new CollectSignaturesFlow(signedTransaction, sessions));
+        return subFlow(new FinalityFlow(fullySignedTransaction, sessions));
+    }
+}
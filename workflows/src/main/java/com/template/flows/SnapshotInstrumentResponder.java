@@ -0,0 +1,130 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.commands.IssueTokenCommand;
+import com.r3.corda.lib.tokens.contracts.commands.RedeemTokenCommand;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.template.contracts.InstrumentContract;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import org.jetbrains.annotations.NotNull;
+
+import java.security.SignatureException;
+import java.util.List;
+
+/**
+ * Maintainer side of {@link SnapshotInstrumentFlow}. Signs the retirement only if it retires one of our instruments
+ * and redeems the holder's token of it, and signs the snapshot only if it re-creates exactly that instrument and token
+ * for the same holder and names the retirement we just recorded.
+ */
+@InitiatedBy(SnapshotInstrumentFlow.class)
+public class SnapshotInstrumentResponder extends FlowLogic<SignedTransaction> {
+
+    private final FlowSession holderSession;
+
+    public SnapshotInstrumentResponder(FlowSession holderSession) {
+        this.holderSession = holderSession;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+
+        final Retirement retirement = new Retirement();
+
+        final SignedTransaction retireTxn = subFlow(new SignTransactionFlow(holderSession) {
+            @Override
+            protected void checkTransaction(@NotNull SignedTransaction stx) throws FlowException {
+                checkRetirement(stx, retirement);
+            }
+        });
+        subFlow(new ReceiveFinalityFlow(holderSession, retireTxn.getId()));
+
+        final SignedTransaction snapshotTxn = subFlow(new SignTransactionFlow(holderSession) {
+            @Override
+            protected void checkTransaction(@NotNull SignedTransaction stx) throws FlowException {
+                checkSnapshot(stx, retireTxn.getId(), retirement);
+            }
+        });
+        return subFlow(new ReceiveFinalityFlow(holderSession, snapshotTxn.getId()));
+    }
+
+    private void checkRetirement(SignedTransaction stx, Retirement retirement) throws FlowException {
+        final LedgerTransaction ledgerTransaction = toLedgerTransaction(stx);
+
+        if (ledgerTransaction.commandsOfType(InstrumentContract.Commands.Retire.class).size() != 1
+                || ledgerTransaction.getCommands().size() != 2
+                || ledgerTransaction.commandsOfType(RedeemTokenCommand.class).size() != 1)
+            throw new FlowException("Retirement must only retire the instrument and redeem its token");
+        if (ledgerTransaction.getOutputs().size() != 0 || ledgerTransaction.getInputs().size() != 2)
+            throw new FlowException("Retirement must consume the instrument and its token and produce nothing");
+
+        final InstrumentState instrumentState = ledgerTransaction.inputsOfType(InstrumentState.class).get(0);
+        if (!instrumentState.getIssuer().equals(getOurIdentity()))
+            throw new FlowException("Instrument " + instrumentState.getLinearId() + " is not ours to retire");
+
+        final NonFungibleToken heldToken = ledgerTransaction.inputsOfType(NonFungibleToken.class).get(0);
+        if (!pointsTo(heldToken, instrumentState.getLinearId()) || !heldToken.getHolder().equals(holderSession.getCounterparty()))
+            throw new FlowException("Redeemed token is not the holder's token of the instrument");
+
+        retirement.instrument = instrumentState;
+        retirement.token = heldToken;
+    }
+
+    private void checkSnapshot(SignedTransaction stx, SecureHash retiredBy, Retirement retirement) throws FlowException {
+        final LedgerTransaction ledgerTransaction = toLedgerTransaction(stx);
+
+        final List<Command<InstrumentContract.Commands.Snapshot>> snapshots =
+                stx.getTx().commandsOfType(InstrumentContract.Commands.Snapshot.class);
+        if (snapshots.size() != 1 || !snapshots.get(0).getValue().getRetiredBy().equals(retiredBy)
+                || ledgerTransaction.getCommands().size() != 2
+                || ledgerTransaction.commandsOfType(IssueTokenCommand.class).size() != 1)
+            throw new FlowException("Snapshot must re-create the instrument retired by " + retiredBy + " and nothing else");
+        if (!ledgerTransaction.getInputs().isEmpty() || ledgerTransaction.getOutputs().size() != 2)
+            throw new FlowException("Snapshot must only produce the instrument and its token");
+
+        final InstrumentState retired = retirement.instrument;
+        final NonFungibleToken redeemed = retirement.token;
+        final InstrumentState instrumentState = ledgerTransaction.outputsOfType(InstrumentState.class).get(0);
+        final NonFungibleToken token = ledgerTransaction.outputsOfType(NonFungibleToken.class).get(0);
+
+        if (!instrumentState.getLinearId().equals(retired.getLinearId())
+                || !instrumentState.getMaintainers().equals(retired.getMaintainers())
+                || !instrumentState.getName().equals(retired.getName())
+                || instrumentState.getYom() != retired.getYom()
+                || !instrumentState.getBatchNo().equals(retired.getBatchNo())
+                || !instrumentState.getValuation().equals(retired.getValuation())
+                || instrumentState.getWarranty() != retired.getWarranty()
+                || !instrumentState.getResaleValuation().equals(retired.getResaleValuation()))
+            throw new FlowException("Snapshot changes the retired instrument");
+        if (!token.getLinearId().equals(redeemed.getLinearId())
+                || !token.getIssuedTokenType().equals(redeemed.getIssuedTokenType())
+                || !token.getHolder().equals(redeemed.getHolder()))
+            throw new FlowException("Snapshot changes the redeemed token");
+    }
+
+    private LedgerTransaction toLedgerTransaction(SignedTransaction stx) throws FlowException {
+        try {
+            return stx.toLedgerTransaction(getServiceHub(), false);
+        } catch (SignatureException e) {
+            throw new FlowException("Invalid signature on " + stx.getId(), e);
+        }
+    }
+
+    private static boolean pointsTo(NonFungibleToken token, UniqueIdentifier linearId) {
+        return token.getTokenType() instanceof TokenPointer
+                && ((TokenPointer<?>) token.getTokenType()).getPointer().getPointer().equals(linearId);
+    }
+
+    /* What the first signing retired, for the checks of the second */
+    private static class Retirement {
+        private InstrumentState instrument;
+        private NonFungibleToken token;
+    }
+}
@@ -0,0 +1,154 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
+import com.template.schemas.SellOrderSchemaV1.PersistentSellOrder;
+import com.template.services.InstrumentStateCache;
+import com.template.services.SellOrderIntake;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.utilities.ProgressTracker;
+
+import javax.persistence.EntityManager;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities.heldTokenCriteria;
+
+/**
+ * Idempotent entry point for {@link SellInstrumentFlow}. The client names each order with its own id, and retrying an
+ * order, e.g. after an RPC timeout, never starts a second sale:
+ *
+ * - an order whose flow is still running is answered with that flow's id, from memory;
+ * - an order for an instrument another order is selling is rejected, from memory;
+ * - an order already taken in is answered from the sell order table, looked up by its primary key.
+ *
+ * Only a new order records itself and runs the sale as a subflow. A sale that fails with a {@link FlowException} is
+ * recorded and reported in the receipt rather than thrown, so the failure is kept for retries to find. A sale that
+ * failed after the held token was already spent, e.g. after notarisation, is recorded as completed, never as failed.
+ * Any other error propagates, so the node retries or hospitalises the flow and the order stays in flight meanwhile.
+ */
+@StartableByRPC
+@StartableByService
+public class SubmitSellOrderFlow extends FlowLogic<SellOrderReceipt> {
+
+    private final String clientOrderId;
+    private final String instrumentId;
+    private final Party buyer;
+    private final String issuedCurrency;
+
+    private final ProgressTracker.Step CHECKING_ORDER = new ProgressTracker.Step("Checking the order against orders taken in");
+    private final ProgressTracker.Step SELLING = new ProgressTracker.Step("Selling the instrument");
+
+    private final ProgressTracker progressTracker = new ProgressTracker(CHECKING_ORDER, SELLING);
+
+    public SubmitSellOrderFlow(String clientOrderId, String instrumentId, Party buyer, String issuedCurrency) {
+        this.clientOrderId = clientOrderId;
+        this.instrumentId = instrumentId;
+        this.buyer = buyer;
+        this.issuedCurrency = issuedCurrency;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public SellOrderReceipt call() throws FlowException {
+        if (clientOrderId == null || clientOrderId.trim().isEmpty()) throw new FlowException("Client order id is required");
+        try {
+            UUID.fromString(instrumentId);
+        } catch (IllegalArgumentException e) {
+            throw new FlowException("Malformed instrument id " + instrumentId);
+        }
+
+        progressTracker.setCurrentStep(CHECKING_ORDER);
+
+        final SellOrderIntake intake = getServiceHub().cordaService(SellOrderIntake.class);
+        final String flowId = getRunId().getUuid().toString();
+
+        final SellOrderIntake.Claim claim = intake.claim(instrumentId, clientOrderId, flowId);
+        if (claim != null) {
+            if (!claim.getClientOrderId().equals(clientOrderId))
+                throw new FlowException("Instrument " + instrumentId + " is already being sold by order "
+                        + claim.getClientOrderId());
+            return new SellOrderReceipt(clientOrderId, claim.getFlowId(), SellOrderReceipt.Status.IN_FLIGHT, null, true);
+        }
+
+        try {
+            final PersistentSellOrder existing = getServiceHub().withEntityManager((EntityManager entityManager) ->
+                    entityManager.find(PersistentSellOrder.class, clientOrderId));
+            if (existing != null) {
+                if (!existing.getLinearId().equals(instrumentId))
+                    throw new FlowException("Order " + clientOrderId + " was taken in for instrument " + existing.getLinearId());
+                return new SellOrderReceipt(clientOrderId, existing.getFlowId(),
+                        SellOrderReceipt.Status.valueOf(existing.getStatus()), existing.getMessage(), true);
+            }
+
+            getServiceHub().withEntityManager(entityManager -> {
+                entityManager.persist(new PersistentSellOrder(clientOrderId, instrumentId, buyer.getName().toString(),
+                        issuedCurrency, flowId, SellOrderReceipt.Status.IN_FLIGHT.name()));
+            });
+
+            progressTracker.setCurrentStep(SELLING);
+
+            final StateRef heldToken = heldToken();
+
+            SellOrderReceipt.Status status;
+            String message;
+            try {
+                message = subFlow(new SellInstrumentFlow(instrumentId, buyer, issuedCurrency));
+                status = SellOrderReceipt.Status.COMPLETED;
+            } catch (FlowException e) {
+                /* The in-flight row is committed by now, so the failure must finish it */
+                message = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+                if (heldToken != null && isConsumed(heldToken)) {
+                    getLogger().warn("Sell order {} failed after its instrument was sold", clientOrderId, e);
+                    message = "Sold, but the sale then failed: " + message;
+                    status = SellOrderReceipt.Status.COMPLETED;
+                } else {
+                    getLogger().warn("Sell order {} failed", clientOrderId, e);
+                    status = SellOrderReceipt.Status.FAILED;
+                }
+            }
+
+            final String outcome = message;
+            final SellOrderReceipt.Status finalStatus = status;
+            getServiceHub().withEntityManager(entityManager -> {
+                entityManager.find(PersistentSellOrder.class, clientOrderId).finish(finalStatus.name(), outcome);
+            });
+            return new SellOrderReceipt(clientOrderId, flowId, status, message, false);
+        } finally {
+            intake.release(instrumentId, clientOrderId);
+        }
+    }
+
+    /* Our held token of the instrument, or null if we hold none, in which case the sale fails before spending anything */
+    private StateRef heldToken() {
+        final StateAndRef<InstrumentState> instrument = getServiceHub().cordaService(InstrumentStateCache.class)
+                .get(new UniqueIdentifier(null, UUID.fromString(instrumentId)));
+        if (instrument == null) return null;
+        final List<StateAndRef<NonFungibleToken>> heldTokens = getServiceHub().getVaultService()
+                .queryBy(NonFungibleToken.class, heldTokenCriteria(instrument.getState().getData().toPointer())).getStates();
+        return heldTokens.size() == 1 ? heldTokens.get(0).getRef() : null;
+    }
+
+    /* Whether the token was spent; the intake claim keeps any other sale of it away while this order runs */
+    private boolean isConsumed(StateRef ref) {
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.CONSUMED, null,
+                Collections.singletonList(ref));
+        return !getServiceHub().getVaultService().queryBy(NonFungibleToken.class, criteria).getStates().isEmpty();
+    }
+}
@@ -0,0 +1,61 @@
+package com.template.flows;
+
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.serialization.DeprecatedConstructorForDeserialization;
+
+import java.util.UUID;
+
+/**
+ * The seller's opening message of the DvP from protocol version 2 of {@link SellInstrumentFlow}: which instrument and
+ * held token are for sale, at what price and in which issued currency. The two states themselves follow in a single
+ * {@link net.corda.core.flows.SendStateAndRefFlow}, so the buyer resolves both back-chains in one pass.
+ *
+ * From protocol version 5 the proposal names the {@link Quote} it honours, if the buyer asked for one beforehand, so
+ * the buyer pays with the tokens it reserved for that quote instead of selecting them now.
+ */
+@CordaSerializable
+public class TradeProposal {
+
+    private final StateRef instrumentRef;
+    private final StateRef heldTokenRef;
+    private final IssuedTokenType issuedCurrency;
+    private final long price;
+    private final UUID quoteId;
+
+    public TradeProposal(StateRef instrumentRef, StateRef heldTokenRef, IssuedTokenType issuedCurrency, long price,
+                         UUID quoteId) {
+        this.instrumentRef = instrumentRef;
+        this.heldTokenRef = heldTokenRef;
+        this.issuedCurrency = issuedCurrency;
+        this.price = price;
+        this.quoteId = quoteId;
+    }
+
+    @DeprecatedConstructorForDeserialization(version = 1)
+    public TradeProposal(StateRef instrumentRef, StateRef heldTokenRef, IssuedTokenType issuedCurrency, long price) {
+        this(instrumentRef, heldTokenRef, issuedCurrency, price, null);
+    }
+
+    public StateRef getInstrumentRef() {
+        return instrumentRef;
+    }
+
+    public StateRef getHeldTokenRef() {
+        return heldTokenRef;
+    }
+
+    public IssuedTokenType getIssuedCurrency() {
+        return issuedCurrency;
+    }
+
+    public long getPrice() {
+        return price;
+    }
+
+    /* The quote this proposal honours, or null */
+    public UUID getQuoteId() {
+        return quoteId;
+    }
+}
@@ -0,0 +1,55 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.template.contracts.InstrumentContract;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One chunk of {@link BulkUpdateInstrumentFlow}: evolves the instruments, all maintained by us and on one notary, in
+ * a single transaction. Instead of one distribution per instrument, the transaction goes once to each of the given
+ * recipients. Every instrument of the chunk must have exactly these parties on its distribution list, so no party
+ * records the revaluation of an instrument it does not hold.
+ */
+@InitiatingFlow
+public class UpdateInstrumentChunkFlow extends FlowLogic<SignedTransaction> {
+
+    private final List<StateAndRef<InstrumentState>> inputs;
+    private final List<InstrumentState> outputs;
+    private final Set<Party> recipients;
+
+    public UpdateInstrumentChunkFlow(List<StateAndRef<InstrumentState>> inputs, List<InstrumentState> outputs,
+                                     Set<Party> recipients) {
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.recipients = recipients;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+
+        final TransactionBuilder transactionBuilder = new TransactionBuilder(inputs.get(0).getState().getNotary());
+        for (int i = 0; i < inputs.size(); i++) {
+            transactionBuilder.addInputState(inputs.get(i));
+            transactionBuilder.addOutputState(outputs.get(i));
+        }
+        transactionBuilder.addCommand(new InstrumentContract.Commands.BulkUpdate(), getOurIdentity().getOwningKey());
+
+        final SignedTransaction signedTransaction = getServiceHub().signInitialTransaction(transactionBuilder);
+
+        final List<FlowSession> sessions = new ArrayList<>();
+        for (Party party : recipients)
+            if (!party.equals(getOurIdentity())) sessions.add(initiateFlow(party));
+
+        return subFlow(new FinalityFlow(signedTransaction, sessions));
+    }
+}
@@ -0,0 +1,26 @@
+package com.template.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.*;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.SignedTransaction;
+
+/**
+ * Distribution list side of {@link UpdateInstrumentChunkFlow}. Records the revalued instruments, which we observe
+ * rather than participate in.
+ */
+@InitiatedBy(UpdateInstrumentChunkFlow.class)
+public class UpdateInstrumentChunkResponder extends FlowLogic<SignedTransaction> {
+
+    private final FlowSession maintainerSession;
+
+    public UpdateInstrumentChunkResponder(FlowSession maintainerSession) {
+        this.maintainerSession = maintainerSession;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+        return subFlow(new ReceiveFinalityFlow(maintainerSession, null, StatesToRecord.ALL_VISIBLE));
+    }
+}
@@ -1,20 +1,19 @@
 package com.template.flows;
 
 import co.paralleluniverse.fibers.Suspendable;
-import com.google.common.collect.ImmutableList;
 import com.r3.corda.lib.tokens.contracts.states.NonFungibleToken;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.UpdateEvolvableToken;
+import com.template.services.InstrumentStateCache;
 import com.template.states.InstrumentState;
 import jdk.nashorn.internal.ir.annotations.Immutable;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.QueryCriteria;
 
 import java.util.Currency;
 import java.util.List;
@@ -44,21 +43,20 @@ public class UpdateInstrumentFlow extends FlowLogic<String> {
 
         UUID instLinearId = UUID.fromString(linearId);
 
-        QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(instLinearId), null, Vault.StateStatus.UNCONSUMED);
-
-        List<StateAndRef<InstrumentState>> stateAndRefs = getServiceHub().getVaultService().
-                queryBy(InstrumentState.class, queryCriteria).getStates();
+        /* The node-local cache falls back to the vault on a miss */
+        StateAndRef<InstrumentState> stateAndRef = getServiceHub().cordaService(InstrumentStateCache.class)
+                .get(new UniqueIdentifier(null, instLinearId));
 
         InstrumentState instrumentState;
-        if (stateAndRefs.size() == 1) {
-            instrumentState = stateAndRefs.get(0).getState().getData();
+        if (stateAndRef != null) {
+            instrumentState = stateAndRef.getState().getData();
 
                 if (!(instrumentState.getMaintainers().contains(getOurIdentity())))
                     throw new FlowException("You are not among the maintainer of the Instrument Token. ");
 
         }
         else
-            throw new FlowException("More than one StateAndRef queried. ");
+            throw new FlowException("Instrument " + linearId + " not found. ");
 
         InstrumentState updatedInstState = new InstrumentState(instrumentState.getLinearId(), instrumentState.getMaintainers() ,instrumentState.getName(), instrumentState.getYom(),
                  instrumentState.getBatchNo(), instrumentState.getValuation(), warranty, reSaleValuation);
@@ -66,7 +64,7 @@ public class UpdateInstrumentFlow extends FlowLogic<String> {
         List<Party> partyList = instrumentState.getMaintainers();
         //partyList.add(getOurIdentity());
 
-        subFlow(new UpdateEvolvableToken(stateAndRefs.get(0) , updatedInstState, partyList ));
+        subFlow(new UpdateEvolvableToken(stateAndRef , updatedInstState, partyList ));
 
         return " Instrument state updated. ";
     }
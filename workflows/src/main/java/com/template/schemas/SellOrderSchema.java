@@ -0,0 +1,7 @@
+package com.template.schemas;
+
+/**
+ * The family of schemas for the sell orders taken in by {@link com.template.flows.SubmitSellOrderFlow}.
+ */
+public class SellOrderSchema {
+}
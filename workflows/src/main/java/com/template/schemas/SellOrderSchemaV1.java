@@ -0,0 +1,100 @@
+package com.template.schemas;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import org.jetbrains.annotations.Nullable;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Sell orders by client order id, in flight or finished, so a retried order is recognised with a primary key lookup.
+ * The instrument's linear id is indexed to find the orders of an instrument.
+ */
+public class SellOrderSchemaV1 extends MappedSchema {
+
+    public SellOrderSchemaV1() {
+        super(SellOrderSchema.class, 1, ImmutableList.of(PersistentSellOrder.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "sell-order.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "sell_orders", indexes = {
+            @Index(name = "sell_order_linear_id_idx", columnList = "linear_id")
+    })
+    public static class PersistentSellOrder {
+
+        @Id @Column(name = "client_order_id", nullable = false) private String clientOrderId;
+        @Column(name = "linear_id", nullable = false) private String linearId;
+        @Column(name = "buyer") private String buyer;
+        @Column(name = "currency") private String currency;
+        @Column(name = "flow_id") private String flowId;
+        @Column(name = "status") private String status;
+        @Column(name = "message", length = 1024) private String message;
+        @Column(name = "created_at") private Instant createdAt;
+        @Column(name = "updated_at") private Instant updatedAt;
+
+        public PersistentSellOrder(String clientOrderId, String linearId, String buyer, String currency, String flowId,
+                                   String status) {
+            this.clientOrderId = clientOrderId;
+            this.linearId = linearId;
+            this.buyer = buyer;
+            this.currency = currency;
+            this.flowId = flowId;
+            this.status = status;
+            this.createdAt = Instant.now();
+            this.updatedAt = createdAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentSellOrder() {
+        }
+
+        public String getClientOrderId() {
+            return clientOrderId;
+        }
+
+        public String getLinearId() {
+            return linearId;
+        }
+
+        public String getBuyer() {
+            return buyer;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public String getFlowId() {
+            return flowId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Instant getCreatedAt() {
+            return createdAt;
+        }
+
+        public Instant getUpdatedAt() {
+            return updatedAt;
+        }
+
+        public void finish(String status, String message) {
+            this.status = status;
+            this.message = message == null || message.length() <= 1024 ? message : message.substring(0, 1024);
+            this.updatedAt = Instant.now();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.template.services;
+
+import com.template.flows.CreateAndIssueChunkFlow;
+import com.template.flows.InstrumentSpec;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the issuances of {@link com.template.flows.BulkCreateAndIssueFlow} as one {@link CreateAndIssueChunkFlow} per
+ * chunk, so no flow checkpoints more than one chunk of specs however large the catalogue is.
+ *
+ * Each instrument gets its linear id and the notary it is sharded to up front. The specs are then grouped by notary
+ * and owner, since a transaction has a single notary and an owner should only see its own instruments, and each group
+ * is cut into chunks of at most the chunk size. At most {@code bulkIssue.window} chunk flows, 4 by default, run at a
+ * time. Once a chunk fails no further chunks are started, and the issuance fails when the running ones have finished.
+ *
+ * Issuances only live in memory. After a node restart the chunk flows already started finish on their own, while the
+ * orchestrating flow resumes to an unknown issuance and fails; the instruments created so far are in the vault.
+ */
+@CordaService
+public class BulkIssueService extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(BulkIssueService.class);
+    private static final int DEFAULT_WINDOW = 4;
+
+    private final AppServiceHub serviceHub;
+    private final int window;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "bulk-issue");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Issuance> issuances = new ConcurrentHashMap<>();
+
+    public BulkIssueService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.window = config.exists("bulkIssue.window") ? config.getInt("bulkIssue.window") : DEFAULT_WINDOW;
+    }
+
+    /* Starts issuing the specs in chunks of at most the given size and returns the id to await the issuance by */
+    public String issue(List<InstrumentSpec> specs, int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be at least 1");
+
+        String issueId = UUID.randomUUID().toString();
+        Issuance issuance = new Issuance(issueId, specs, chunkSize);
+        issuances.put(issueId, issuance);
+
+        /* Flows are started from our own thread, never from the calling flow's fiber */
+        executor.execute(issuance::pump);
+        return issueId;
+    }
+
+    /* Completes with the linear ids of the created instruments, in the order of the specs, once every chunk is issued */
+    public CompletableFuture<List<UniqueIdentifier>> completion(String issueId) {
+        Issuance issuance = issuances.get(issueId);
+        if (issuance == null) {
+            CompletableFuture<List<UniqueIdentifier>> unknown = new CompletableFuture<>();
+            unknown.completeExceptionally(new FlowException("Unknown issuance " + issueId
+                    + ", it may have been lost on node restart; the instruments created so far are in the vault"));
+            return unknown;
+        }
+        return issuance.done;
+    }
+
+    /* Forgets an issuance once its flow stopped waiting for it */
+    public void release(String issueId) {
+        issuances.remove(issueId);
+    }
+
+    private class Issuance {
+        private final String id;
+        private final List<UniqueIdentifier> linearIds;
+        private final Deque<Chunk> pending = new ArrayDeque<>();
+        private final CompletableFuture<List<UniqueIdentifier>> done = new CompletableFuture<>();
+        private int inFlight = 0;
+        private int failed = 0;
+        private Throwable firstError;
+
+        private Issuance(String id, List<InstrumentSpec> specs, int chunkSize) {
+            this.id = id;
+
+            NetworkTopologyService topology = serviceHub.cordaService(NetworkTopologyService.class);
+            this.linearIds = new ArrayList<>(specs.size());
+            Map<List<Party>, List<Integer>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < specs.size(); i++) {
+                UniqueIdentifier linearId = new UniqueIdentifier();
+                linearIds.add(linearId);
+                groups.computeIfAbsent(Arrays.asList(topology.notaryFor(linearId), specs.get(i).getOwner()),
+                        it -> new ArrayList<>()).add(i);
+            }
+
+            for (Map.Entry<List<Party>, List<Integer>> group : groups.entrySet()) {
+                List<Integer> indices = group.getValue();
+                for (int from = 0; from < indices.size(); from += chunkSize) {
+                    List<InstrumentSpec> chunkSpecs = new ArrayList<>();
+                    List<UniqueIdentifier> chunkIds = new ArrayList<>();
+                    for (int index : indices.subList(from, Math.min(from + chunkSize, indices.size()))) {
+                        chunkSpecs.add(specs.get(index));
+                        chunkIds.add(linearIds.get(index));
+                    }
+                    pending.add(new Chunk(chunkSpecs, chunkIds, group.getKey().get(0), group.getKey().get(1)));
+                }
+            }
+        }
+
+        /* Starts chunks until the window is full, and completes the issuance once nothing is left to wait for */
+        private synchronized void pump() {
+            while (inFlight < window && firstError == null && !pending.isEmpty()) {
+                inFlight++;
+                start(pending.poll());
+            }
+            if (inFlight == 0) finish();
+        }
+
+        private void start(Chunk chunk) {
+            CompletableFuture<SignedTransaction> result;
+            try {
+                result = serviceHub.startFlow(new CreateAndIssueChunkFlow(chunk.specs, chunk.linearIds, chunk.notary,
+                        chunk.owner)).getReturnValue().toCompletableFuture();
+            } catch (Exception e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+            result.whenCompleteAsync((stx, error) -> complete(chunk, stx, error), executor);
+        }
+
+        private synchronized void complete(Chunk chunk, SignedTransaction stx, Throwable error) {
+            inFlight--;
+            if (error == null) {
+                logger.info("Created and issued {} instruments of issuance {} in {}", chunk.specs.size(), id, stx.getId());
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                logger.warn("A chunk of {} instruments of issuance {} failed: {}", chunk.specs.size(), id, cause.getMessage());
+                failed++;
+                if (firstError == null) firstError = cause;
+            }
+            pump();
+        }
+
+        private void finish() {
+            if (firstError == null) {
+                done.complete(linearIds);
+                return;
+            }
+            done.completeExceptionally(new FlowException(failed + " chunks of issuance " + id + " failed and "
+                    + pending.size() + " were not started, the first with: " + firstError.getMessage()
+                    + "; the instruments of the other chunks were created", firstError));
+        }
+    }
+
+    private static class Chunk {
+        private final List<InstrumentSpec> specs;
+        private final List<UniqueIdentifier> linearIds;
+        private final Party notary;
+        private final Party owner;
+
+        private Chunk(List<InstrumentSpec> specs, List<UniqueIdentifier> linearIds, Party notary, Party owner) {
+            this.specs = specs;
+            this.linearIds = linearIds;
+            this.notary = notary;
+            this.owner = owner;
+        }
+    }
+}
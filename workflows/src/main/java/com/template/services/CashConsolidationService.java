@@ -0,0 +1,72 @@
+package com.template.services;
+
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.template.flows.ConsolidateCashFlow;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job keeping the number of currency tokens in our vault small, so coin selection and DvP transactions
+ * stay small too. Every interval it runs a {@link ConsolidateCashFlow} per issued currency holding too many tokens,
+ * one at a time, and only while the {@link CashPoolService} reports no purchase drawing cash.
+ *
+ * Configured through the CorDapp config keys {@code consolidation.intervalSeconds}, {@code consolidation.quietSeconds},
+ * {@code consolidation.minStates}, {@code consolidation.maxInputs} and {@code consolidation.targetStates}. An interval
+ * of 0 disables the job.
+ */
+@CordaService
+public class CashConsolidationService extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(CashConsolidationService.class);
+
+    private final AppServiceHub serviceHub;
+    private final long quietMillis;
+    private final int minStates;
+    private final int maxInputs;
+    private final int targetStates;
+
+    public CashConsolidationService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        long intervalSeconds = config.exists("consolidation.intervalSeconds") ? config.getLong("consolidation.intervalSeconds") : 300;
+        this.quietMillis = 1000 * (config.exists("consolidation.quietSeconds") ? config.getLong("consolidation.quietSeconds") : 30);
+        this.minStates = config.exists("consolidation.minStates") ? config.getInt("consolidation.minStates") : 50;
+        this.maxInputs = config.exists("consolidation.maxInputs") ? config.getInt("consolidation.maxInputs") : 100;
+        this.targetStates = config.exists("consolidation.targetStates") ? config.getInt("consolidation.targetStates") : 4;
+
+        if (intervalSeconds > 0) {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "cash-consolidation");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::consolidate, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void consolidate() {
+        CashPoolService cashPool = serviceHub.cordaService(CashPoolService.class);
+        for (IssuedTokenType issuedCurrency : cashPool.issuedCurrencies()) {
+            /* Never compete with live DvP flows for tokens and soft locks */
+            if (!cashPool.isIdle(quietMillis)) return;
+            if (cashPool.isLoaded(issuedCurrency) && cashPool.count(issuedCurrency) < minStates) continue;
+
+            try {
+                String result = serviceHub.startFlow(new ConsolidateCashFlow(issuedCurrency, minStates, maxInputs, targetStates))
+                        .getReturnValue().get();
+                logger.info(result);
+            } catch (Exception e) {
+                logger.warn("Consolidation of {} failed", issuedCurrency, e);
+            }
+        }
+    }
+}
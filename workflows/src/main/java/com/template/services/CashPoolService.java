@@ -0,0 +1,408 @@
+package com.template.services;
+
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory pools of the currency tokens this node holds, one pool per issued currency (issuer and currency).
+ *
+ * Each pool is split into stripes. A selection starts on the stripe picked by its reservation id and claims tokens
+ * by removing them from the stripe's concurrent map, so concurrent buyers mostly draw from different stripes and
+ * never retry against each other. Each pool also keeps its tokens ordered by quantity, for the selections that
+ * want the largest or smallest tokens first. Claimed tokens stay reserved under the reservation id (the buying flow's run id)
+ * until they are spent, released back to the pool, or dropped. A payment across several currencies draws from
+ * several pools under one reservation.
+ *
+ * Reservations made ahead of a purchase, for a quote, carry an expiry: the purchase takes them over under its own
+ * run id, and those still open when they expire are released to the pool by a background sweep.
+ *
+ * A pool is loaded from the vault the first time it is used and is then kept current from the vault update feed.
+ * The stripe count comes from the {@code cashPool.stripes} CorDapp config key.
+ */
+@CordaService
+public class CashPoolService extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(CashPoolService.class);
+    private static final int DEFAULT_STRIPES = 16;
+    private static final int LOAD_PAGE_SIZE = 200;
+    private static final Comparator<StateAndRef<FungibleToken>> LARGEST_FIRST = Comparator
+            .comparingLong((StateAndRef<FungibleToken> it) -> it.getState().getData().getAmount().getQuantity()).reversed()
+            .thenComparing(it -> it.getRef().getTxhash().toString())
+            .thenComparingInt(it -> it.getRef().getIndex());
+
+    private final AppServiceHub serviceHub;
+    private final int stripeCount;
+    private final Map<IssuedTokenType, Pool> pools = new ConcurrentHashMap<>();
+    private final Map<UUID, Reservation> reservations = new ConcurrentHashMap<>();
+    /* Expiry of the reservations made ahead of a purchase, in epoch millis */
+    private final Map<UUID, Long> expiries = new ConcurrentHashMap<>();
+    private volatile long lastSelectionMillis = 0L;
+
+    public CashPoolService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.stripeCount = config.exists("cashPool.stripes") ? config.getInt("cashPool.stripes") : DEFAULT_STRIPES;
+
+        serviceHub.getVaultService().getUpdates().subscribe(this::onVaultUpdate);
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cash-pool-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::releaseExpired, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /* Claims tokens of the issued currency worth at least the quantity and reserves them under the reservation id.
+     Returns an empty list, with nothing claimed, if the pool cannot cover the quantity. Must be called from a flow,
+     since the first use of a pool loads it from the vault. */
+    public List<StateAndRef<FungibleToken>> select(IssuedTokenType issuedCurrency, long quantity, UUID reservationId) {
+        lastSelectionMillis = System.currentTimeMillis();
+        Pool pool = pool(issuedCurrency);
+
+        List<StateAndRef<FungibleToken>> claimed = new ArrayList<>();
+        long sum = 0L;
+        int start = Math.floorMod(reservationId.hashCode(), stripeCount);
+        for (int i = 0; i < stripeCount && sum < quantity; i++) {
+            Map<StateRef, StateAndRef<FungibleToken>> stripe = pool.stripes.get((start + i) % stripeCount);
+            for (StateRef ref : stripe.keySet()) {
+                StateAndRef<FungibleToken> token = pool.take(ref);
+                if (token == null) continue; // claimed by a concurrent selection
+                claimed.add(token);
+                sum = Math.addExact(sum, token.getState().getData().getAmount().getQuantity());
+                if (sum >= quantity) break;
+            }
+        }
+
+        if (sum < quantity) {
+            pool.putAll(claimed);
+            return Collections.emptyList();
+        }
+
+        reservations.computeIfAbsent(reservationId, it -> new Reservation()).add(claimed);
+        return claimed;
+    }
+
+    /* Claims the fewest tokens of the issued currencies whose values, e.g. converted into a common currency, add up to
+     at least the target, by taking the most valuable first. The value must not fall as the quantity grows within a
+     currency, as with a conversion. Returns an empty list, with nothing claimed, if all the pools together cannot
+     cover the target. Must be called from a flow, since the first use of a pool loads it. */
+    public List<StateAndRef<FungibleToken>> selectFewest(Collection<IssuedTokenType> issuedCurrencies,
+                                                         ToLongFunction<StateAndRef<FungibleToken>> value, long target,
+                                                         UUID reservationId) {
+        lastSelectionMillis = System.currentTimeMillis();
+
+        /* Each pool is already ordered largest first, so merging the pools' largest tokens visits them by value
+         and stops once the target is covered, without copying or sorting the pools */
+        PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparingLong((Head it) -> it.value).reversed());
+        for (IssuedTokenType issuedCurrency : issuedCurrencies) {
+            Pool pool = pool(issuedCurrency);
+            Head head = new Head(pool, pool.byQuantity.iterator(), value);
+            if (head.advance()) heads.add(head);
+        }
+
+        List<StateAndRef<FungibleToken>> claimed = new ArrayList<>();
+        long sum = 0L;
+        while (sum < target && !heads.isEmpty()) {
+            Head head = heads.poll();
+            StateAndRef<FungibleToken> candidate = head.token;
+            long candidateValue = head.value;
+            if (head.advance()) heads.add(head);
+            if (head.pool.take(candidate.getRef()) == null) continue; // claimed concurrently
+            claimed.add(candidate);
+            sum = Math.addExact(sum, candidateValue);
+        }
+
+        if (sum < target) {
+            restore(claimed);
+            return Collections.emptyList();
+        }
+
+        reservations.computeIfAbsent(reservationId, it -> new Reservation()).add(claimed);
+        return claimed;
+    }
+
+    /* Like select, for a purchase still to come: the tokens stay reserved until the expiry unless a purchase takes the
+     reservation over first. Must be called from a flow. */
+    public List<StateAndRef<FungibleToken>> reserve(IssuedTokenType issuedCurrency, long quantity, UUID reservationId,
+                                                    long expiresAtMillis) {
+        List<StateAndRef<FungibleToken>> claimed = select(issuedCurrency, quantity, reservationId);
+        if (!claimed.isEmpty()) expiries.put(reservationId, expiresAtMillis);
+        return claimed;
+    }
+
+    /* Moves an unexpired reservation made by reserve to another reservation id, e.g. to the flow buying against the
+     quote, and returns its tokens still unspent. Returns an empty list if the reservation expired or is unknown. */
+    public List<StateAndRef<FungibleToken>> takeOver(UUID reservationId, UUID newReservationId) {
+        Long expiresAt = expiries.remove(reservationId);
+        if (expiresAt == null) return Collections.emptyList();
+        Reservation reservation = reservations.remove(reservationId);
+        if (reservation == null) return Collections.emptyList();
+        if (expiresAt < System.currentTimeMillis()) {
+            restore(reservation.tokens.values());
+            return Collections.emptyList();
+        }
+
+        List<StateAndRef<FungibleToken>> tokens = new ArrayList<>(reservation.tokens.values());
+        reservations.computeIfAbsent(newReservationId, it -> new Reservation()).add(tokens);
+        return tokens;
+    }
+
+    /* Claims up to maxInputs of the smallest tokens of the issued currency on the given notary, for consolidation.
+     Must be called from a flow, since the first use of a pool loads it from the vault. */
+    public List<StateAndRef<FungibleToken>> selectSmallest(IssuedTokenType issuedCurrency, Party notary, int maxInputs,
+                                                           UUID reservationId) {
+        Pool pool = pool(issuedCurrency);
+
+        List<StateAndRef<FungibleToken>> claimed = new ArrayList<>();
+        Iterator<StateAndRef<FungibleToken>> smallestFirst = pool.byQuantity.descendingIterator();
+        while (claimed.size() < maxInputs && smallestFirst.hasNext()) {
+            StateAndRef<FungibleToken> candidate = smallestFirst.next();
+            if (candidate.getState().getNotary().equals(notary) && pool.take(candidate.getRef()) != null)
+                claimed.add(candidate);
+        }
+
+        if (!claimed.isEmpty())
+            reservations.computeIfAbsent(reservationId, it -> new Reservation()).add(claimed);
+        return claimed;
+    }
+
+    /* Claims one given token of the issued currency into the reservation, e.g. a token the reserving flow has just
+     produced for itself. Returns false if another reservation holds it. Must be called from a flow. */
+    public boolean claim(IssuedTokenType issuedCurrency, StateAndRef<FungibleToken> token, UUID reservationId) {
+        Pool pool = pool(issuedCurrency);
+        synchronized (pool) {
+            for (Map.Entry<UUID, Reservation> entry : reservations.entrySet())
+                if (!entry.getKey().equals(reservationId) && entry.getValue().tokens.containsKey(token.getRef()))
+                    return false;
+            pool.take(token.getRef());
+            reservations.computeIfAbsent(reservationId, it -> new Reservation())
+                    .add(Collections.singletonList(token));
+        }
+        return true;
+    }
+
+    /* Issued currencies this node has held since start-up */
+    public Set<IssuedTokenType> issuedCurrencies() {
+        return new HashSet<>(pools.keySet());
+    }
+
+    /* Whether the pool of the issued currency has been loaded from the vault yet */
+    public boolean isLoaded(IssuedTokenType issuedCurrency) {
+        Pool pool = pools.get(issuedCurrency);
+        return pool != null && pool.loaded;
+    }
+
+    /* Number of tokens currently available (not reserved) in the pool of the issued currency */
+    public int count(IssuedTokenType issuedCurrency) {
+        Pool pool = pools.get(issuedCurrency);
+        if (pool == null) return 0;
+        int count = 0;
+        for (Map<StateRef, StateAndRef<FungibleToken>> stripe : pool.stripes) count += stripe.size();
+        return count;
+    }
+
+    /* True when no reservation is open and nothing was selected for the given time, i.e. no DvP is drawing cash */
+    public boolean isIdle(long quietMillis) {
+        return reservations.isEmpty() && System.currentTimeMillis() - lastSelectionMillis >= quietMillis;
+    }
+
+    /* Puts the reserved tokens that were not spent back into their pool, e.g. when the buying flow fails */
+    public void release(UUID reservationId) {
+        expiries.remove(reservationId);
+        Reservation reservation = reservations.remove(reservationId);
+        if (reservation != null) restore(reservation.tokens.values());
+    }
+
+    /* Forgets a reservation whose tokens are being spent, without returning them to the pool */
+    public void drop(UUID reservationId) {
+        expiries.remove(reservationId);
+        reservations.remove(reservationId);
+    }
+
+    /* Sum of the tokens currently available (not reserved) in the pool of the issued currency */
+    public long available(IssuedTokenType issuedCurrency) {
+        Pool pool = pools.get(issuedCurrency);
+        if (pool == null) return 0L;
+        long sum = 0L;
+        for (Map<StateRef, StateAndRef<FungibleToken>> stripe : pool.stripes)
+            for (StateAndRef<FungibleToken> token : stripe.values())
+                sum += token.getState().getData().getAmount().getQuantity();
+        return sum;
+    }
+
+    private void releaseExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<UUID, Long> expiry : expiries.entrySet()) {
+            /* Removing the expiry first means a concurrent takeOver cannot also have the reservation */
+            if (expiry.getValue() >= now || !expiries.remove(expiry.getKey(), expiry.getValue())) continue;
+            Reservation reservation = reservations.remove(expiry.getKey());
+            if (reservation != null) {
+                restore(reservation.tokens.values());
+                logger.info("Released {} tokens of expired reservation {}", reservation.tokens.size(), expiry.getKey());
+            }
+        }
+    }
+
+    /* Puts claimed tokens back into the pools of their issued currencies; a reservation may span several pools */
+    private void restore(Collection<StateAndRef<FungibleToken>> tokens) {
+        for (StateAndRef<FungibleToken> token : tokens) {
+            Pool pool = pools.get(token.getState().getData().getIssuedTokenType());
+            if (pool != null) pool.putAll(Collections.singletonList(token));
+        }
+    }
+
+    private Pool pool(IssuedTokenType issuedCurrency) {
+        Pool pool = pools.computeIfAbsent(issuedCurrency, it -> new Pool());
+        if (!pool.loaded) {
+            synchronized (pool) {
+                if (!pool.loaded) {
+                    load(pool, issuedCurrency);
+                    pool.loaded = true;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private void load(Pool pool, IssuedTokenType issuedCurrency) {
+        Party us = serviceHub.getMyInfo().getLegalIdentities().get(0);
+        QueryCriteria criteria = QueryUtilities.heldTokenAmountCriteria(issuedCurrency.getTokenType(), us)
+                .and(QueryUtilities.tokenAmountWithIssuerCriteria(issuedCurrency.getTokenType(), issuedCurrency.getIssuer()));
+
+        int page = 1;
+        long loaded = 0;
+        while (true) {
+            Vault.Page<FungibleToken> results = serviceHub.getVaultService()
+                    .queryBy(FungibleToken.class, criteria, new PageSpecification(page, LOAD_PAGE_SIZE));
+            serviceHub.cordaService(FlowMetricsService.class).vaultQuery();
+            pool.putAll(results.getStates());
+            loaded += results.getStates().size();
+            if (loaded >= results.getTotalStatesAvailable() || results.getStates().isEmpty()) break;
+            page++;
+        }
+        logger.info("Loaded {} {} tokens into the cash pool", loaded, issuedCurrency);
+    }
+
+    private void onVaultUpdate(Vault.Update<ContractState> update) {
+        Party us = serviceHub.getMyInfo().getLegalIdentities().get(0);
+
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            if (!(consumed.getState().getData() instanceof FungibleToken)) continue;
+            Pool pool = pools.get(((FungibleToken) consumed.getState().getData()).getIssuedTokenType());
+            if (pool == null) continue;
+            synchronized (pool) {
+                pool.take(consumed.getRef());
+            }
+            for (Reservation reservation : reservations.values()) reservation.tokens.remove(consumed.getRef());
+        }
+
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            if (!(produced.getState().getData() instanceof FungibleToken)) continue;
+            FungibleToken token = (FungibleToken) produced.getState().getData();
+            if (!token.getHolder().equals(us)) continue;
+            /* Registers the issued currency so background jobs know of it; the pool itself loads on first use and
+             picks the token up then */
+            Pool pool = pools.computeIfAbsent(token.getIssuedTokenType(), it -> new Pool());
+            synchronized (pool) {
+                if (pool.loaded && !isReserved(produced.getRef()))
+                    pool.putAll(Collections.singletonList(asToken(produced)));
+            }
+        }
+    }
+
+    /* A produced token may already be claimed when its flow sees the transaction before the vault update arrives */
+    private boolean isReserved(StateRef ref) {
+        for (Reservation reservation : reservations.values())
+            if (reservation.tokens.containsKey(ref)) return true;
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StateAndRef<FungibleToken> asToken(StateAndRef<? extends ContractState> stateAndRef) {
+        return (StateAndRef<FungibleToken>) stateAndRef;
+    }
+
+    private class Pool {
+        private final List<Map<StateRef, StateAndRef<FungibleToken>>> stripes = new ArrayList<>();
+        /* The same tokens as the stripes, largest first */
+        private final NavigableSet<StateAndRef<FungibleToken>> byQuantity = new ConcurrentSkipListSet<>(LARGEST_FIRST);
+        private volatile boolean loaded = false;
+
+        private Pool() {
+            for (int i = 0; i < stripeCount; i++) stripes.add(new ConcurrentHashMap<>());
+        }
+
+        private Map<StateRef, StateAndRef<FungibleToken>> stripe(StateRef ref) {
+            return stripes.get(Math.floorMod(ref.hashCode(), stripeCount));
+        }
+
+        private void putAll(Collection<StateAndRef<FungibleToken>> tokens) {
+            for (StateAndRef<FungibleToken> token : tokens) {
+                stripe(token.getRef()).put(token.getRef(), token);
+                byQuantity.add(token);
+            }
+        }
+
+        /* Removes the token from the pool; null if it was not there, e.g. claimed concurrently */
+        private StateAndRef<FungibleToken> take(StateRef ref) {
+            StateAndRef<FungibleToken> token = stripe(ref).remove(ref);
+            if (token != null) byQuantity.remove(token);
+            return token;
+        }
+    }
+
+    /* The next token of one pool for selectFewest, with its value */
+    private static class Head {
+        private final Pool pool;
+        private final Iterator<StateAndRef<FungibleToken>> tokens;
+        private final ToLongFunction<StateAndRef<FungibleToken>> valueOf;
+        private StateAndRef<FungibleToken> token;
+        private long value;
+
+        private Head(Pool pool, Iterator<StateAndRef<FungibleToken>> tokens,
+                     ToLongFunction<StateAndRef<FungibleToken>> valueOf) {
+            this.pool = pool;
+            this.tokens = tokens;
+            this.valueOf = valueOf;
+        }
+
+        private boolean advance() {
+            if (!tokens.hasNext()) return false;
+            token = tokens.next();
+            value = valueOf.applyAsLong(token);
+            return true;
+        }
+    }
+
+    private static class Reservation {
+        private final Map<StateRef, StateAndRef<FungibleToken>> tokens = new ConcurrentHashMap<>();
+
+        private void add(List<StateAndRef<FungibleToken>> claimed) {
+            for (StateAndRef<FungibleToken> token : claimed) tokens.put(token.getRef(), token);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.template.services;
+
+import com.template.flows.FlushDistributionListFlow;
+import com.template.flows.HolderUpdate;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes the distribution list updates out of the sale flows. A finalised sale only queues the instrument's new holder
+ * per maintainer; every interval, or as soon as a maintainer has a full batch queued, the queue is flushed to that
+ * maintainer with one {@link FlushDistributionListFlow}. Of several sales of the same instrument within the window
+ * only the latest holder is sent.
+ *
+ * A maintainer has at most one flush in flight. A failed flush puts its holders back behind any newer ones and the
+ * maintainer is retried after an exponentially growing delay, so it never affects the sale itself. The queue lives in
+ * memory: holders still queued when the node stops are not sent.
+ *
+ * Configured through the CorDapp config keys {@code distribution.flushMillis} (default 1000),
+ * {@code distribution.batchSize} (default 100) and {@code distribution.maxRetryMillis} (default 60000).
+ */
+@CordaService
+public class DistributionListCoalescer extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(DistributionListCoalescer.class);
+
+    private final AppServiceHub serviceHub;
+    private final long flushMillis;
+    private final int batchSize;
+    private final long maxRetryMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "distribution-list-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /* Latest holder per instrument, per maintainer, in the order first queued */
+    private final Map<Party, LinkedHashMap<UniqueIdentifier, Party>> pending = new HashMap<>();
+    private final Set<Party> flushing = new HashSet<>();
+    private final Map<Party, Integer> failures = new HashMap<>();
+    private final Map<Party, Long> retryAt = new HashMap<>();
+
+    public DistributionListCoalescer(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.flushMillis = Math.max(1, config.exists("distribution.flushMillis") ? config.getLong("distribution.flushMillis") : 1000);
+        this.batchSize = Math.max(1, config.exists("distribution.batchSize") ? config.getInt("distribution.batchSize") : 100);
+        this.maxRetryMillis = config.exists("distribution.maxRetryMillis") ? config.getLong("distribution.maxRetryMillis") : 60000;
+
+        scheduler.scheduleWithFixedDelay(this::flushAll, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /* Queues the new holder of the instrument's token for every maintainer of the instrument */
+    public void enqueue(InstrumentState instrument, Party holder) {
+        List<Party> full = new ArrayList<>();
+        synchronized (this) {
+            for (Party maintainer : instrument.getMaintainers()) {
+                LinkedHashMap<UniqueIdentifier, Party> queued = pending.computeIfAbsent(maintainer, it -> new LinkedHashMap<>());
+                queued.put(instrument.getLinearId(), holder);
+                if (queued.size() >= batchSize) full.add(maintainer);
+            }
+        }
+        for (Party maintainer : full) scheduler.execute(() -> flush(maintainer));
+    }
+
+    private void flushAll() {
+        List<Party> maintainers;
+        synchronized (this) {
+            maintainers = new ArrayList<>(pending.keySet());
+        }
+        for (Party maintainer : maintainers) flush(maintainer);
+    }
+
+    private void flush(Party maintainer) {
+        final LinkedHashMap<UniqueIdentifier, Party> batch = new LinkedHashMap<>();
+        synchronized (this) {
+            LinkedHashMap<UniqueIdentifier, Party> queued = pending.get(maintainer);
+            if (queued == null || flushing.contains(maintainer)) return;
+            if (retryAt.getOrDefault(maintainer, 0L) > System.currentTimeMillis()) return;
+
+            Iterator<Map.Entry<UniqueIdentifier, Party>> entries = queued.entrySet().iterator();
+            while (entries.hasNext() && batch.size() < batchSize) {
+                Map.Entry<UniqueIdentifier, Party> entry = entries.next();
+                batch.put(entry.getKey(), entry.getValue());
+                entries.remove();
+            }
+            if (queued.isEmpty()) pending.remove(maintainer);
+            flushing.add(maintainer);
+        }
+
+        List<HolderUpdate> updates = new ArrayList<>();
+        batch.forEach((linearId, holder) -> updates.add(new HolderUpdate(linearId, holder)));
+
+        CompletableFuture<Integer> result;
+        try {
+            result = serviceHub.startFlow(new FlushDistributionListFlow(maintainer, updates)).getReturnValue().toCompletableFuture();
+        } catch (Exception e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenCompleteAsync((recorded, error) -> flushed(maintainer, batch, error), scheduler);
+    }
+
+    private void flushed(Party maintainer, LinkedHashMap<UniqueIdentifier, Party> batch, Throwable error) {
+        boolean more;
+        synchronized (this) {
+            flushing.remove(maintainer);
+            if (error == null) {
+                failures.remove(maintainer);
+                retryAt.remove(maintainer);
+            } else {
+                int attempt = failures.merge(maintainer, 1, Integer::sum);
+                long delay = Math.min(maxRetryMillis, flushMillis << Math.min(attempt, 20));
+                retryAt.put(maintainer, System.currentTimeMillis() + delay);
+                logger.warn("Flushing {} holders to {} failed (attempt {}), retrying in {} ms", batch.size(), maintainer,
+                        attempt, delay, error);
+
+                /* Holders queued since this batch left are newer and win */
+                LinkedHashMap<UniqueIdentifier, Party> requeued = new LinkedHashMap<>(batch);
+                LinkedHashMap<UniqueIdentifier, Party> queued = pending.get(maintainer);
+                if (queued != null) requeued.putAll(queued);
+                pending.put(maintainer, requeued);
+            }
+            more = error == null && pending.getOrDefault(maintainer, new LinkedHashMap<>()).size() >= batchSize;
+        }
+        if (more) flush(maintainer);
+    }
+}
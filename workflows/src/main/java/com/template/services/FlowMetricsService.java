@@ -0,0 +1,240 @@
+package com.template.services;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.jmx.JmxReporter;
+import com.sun.net.httpserver.HttpServer;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StateMachineRunId;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.ProgressTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Per-step timings of our flows, published as Dropwizard metrics over JMX (domain {@code com.template.flows}) and,
+ * if the {@code metrics.prometheusPort} CorDapp config key is set, in Prometheus text format on
+ * {@code http://<host>:<port>/metrics}.
+ *
+ * A flow calls {@link #track(FlowLogic)} when it starts. From then on every change of its top-level progress tracker
+ * step closes the timer of the previous step, and the run ends when the tracker reaches DONE or ends with an error.
+ * For each run the service also records how many vault queries were made and how many counterparty messages the flow
+ * waited for, as reported through {@link #vaultQuery()} and {@link #roundTrip()} from code running in the flow.
+ *
+ * The hits, misses and evictions of {@link InstrumentStateCache} and its number of entries are published next to the
+ * flow metrics as gauges, read from the cache whenever the metrics are.
+ *
+ * Checkpoint sizes are not visible to CorDapps; the node's own JMX metrics cover checkpointing.
+ */
+@CordaService
+public class FlowMetricsService extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(FlowMetricsService.class);
+    private static final String JMX_DOMAIN = "com.template.flows";
+
+    private final AppServiceHub serviceHub;
+    private final MetricRegistry registry = new MetricRegistry();
+    private final Map<StateMachineRunId, Run> runs = new ConcurrentHashMap<>();
+    /* Prometheus family and labels of every metric in the registry, by registry name */
+    private final Map<String, String[]> labels = new ConcurrentHashMap<>();
+    private final JmxReporter jmxReporter;
+    private final HttpServer prometheusServer;
+
+    public FlowMetricsService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+
+        cacheGauge("dvp_instrument_cache_hits_total", cache -> cache.getStats().hitCount());
+        cacheGauge("dvp_instrument_cache_misses_total", cache -> cache.getStats().missCount());
+        cacheGauge("dvp_instrument_cache_evictions_total", cache -> cache.getStats().evictionCount());
+        cacheGauge("dvp_instrument_cache_entries", InstrumentStateCache::size);
+
+        this.jmxReporter = JmxReporter.forRegistry(registry).inDomain(JMX_DOMAIN)
+                .convertDurationsTo(TimeUnit.MILLISECONDS).build();
+        jmxReporter.start();
+
+        int port = config.exists("metrics.prometheusPort") ? config.getInt("metrics.prometheusPort") : 0;
+        this.prometheusServer = port > 0 ? startPrometheus(port) : null;
+
+        serviceHub.registerUnloadHandler(() -> {
+            jmxReporter.stop();
+            if (prometheusServer != null) prometheusServer.stop(0);
+            return null;
+        });
+    }
+
+    /* Starts timing the steps of the flow, which must have a progress tracker. Called at the start of call(). */
+    public void track(FlowLogic<?> flow) {
+        final ProgressTracker tracker = flow.getProgressTracker();
+        if (tracker == null) return;
+
+        final StateMachineRunId runId = flow.getRunId();
+        final ProgressTracker.Step current = tracker.getCurrentStep();
+        final Run run = new Run(flow.getClass().getSimpleName(),
+                current == ProgressTracker.UNSTARTED.INSTANCE ? null : current.getLabel());
+        if (runs.putIfAbsent(runId, run) != null) return;
+
+        tracker.getChanges().subscribe(change -> {
+            if (change instanceof ProgressTracker.Change.Position && change.getProgressTracker() == tracker) {
+                ProgressTracker.Step step = ((ProgressTracker.Change.Position) change).getNewStep();
+                if (step == ProgressTracker.DONE.INSTANCE) finish(runId, true);
+                else run.enter(step.getLabel());
+            }
+        }, error -> finish(runId, false));
+    }
+
+    /* Counts a vault query against the flow running on the calling thread, if it is tracked */
+    public void vaultQuery() {
+        Run run = currentRun();
+        if (run != null) run.vaultQueries.incrementAndGet();
+    }
+
+    /* Counts a counterparty message the flow running on the calling thread waited for, if it is tracked */
+    public void roundTrip() {
+        Run run = currentRun();
+        if (run != null) run.roundTrips.incrementAndGet();
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    private Run currentRun() {
+        FlowLogic<?> flow = FlowLogic.getCurrentTopLevel();
+        return flow == null ? null : runs.get(flow.getRunId());
+    }
+
+    private void finish(StateMachineRunId runId, boolean succeeded) {
+        Run run = runs.remove(runId);
+        if (run == null) return;
+        run.enter(null);
+
+        timer("dvp_flow_duration_seconds", run.flow, null)
+                .update(System.nanoTime() - run.started, TimeUnit.NANOSECONDS);
+        histogram("dvp_flow_vault_queries", run.flow).update(run.vaultQueries.get());
+        histogram("dvp_flow_round_trips", run.flow).update(run.roundTrips.get());
+        if (!succeeded) counter("dvp_flow_failures_total", run.flow).inc();
+    }
+
+    private Timer timer(String family, String flow, String step) {
+        String name = step == null ? family + "." + flow : family + "." + flow + "." + step;
+        labels.putIfAbsent(name, new String[]{family, flow, step});
+        return registry.timer(name);
+    }
+
+    private Histogram histogram(String family, String flow) {
+        String name = family + "." + flow;
+        labels.putIfAbsent(name, new String[]{family, flow, null});
+        return registry.histogram(name);
+    }
+
+    private Counter counter(String family, String flow) {
+        String name = family + "." + flow;
+        labels.putIfAbsent(name, new String[]{family, flow, null});
+        return registry.counter(name);
+    }
+
+    /* The cache is looked up when the gauge is read, as services may not call each other while they are constructed */
+    private void cacheGauge(String family, Function<InstrumentStateCache, Long> value) {
+        labels.put(family, new String[]{family, null, null});
+        registry.register(family, (Gauge<Long>) () -> value.apply(serviceHub.cordaService(InstrumentStateCache.class)));
+    }
+
+    private HttpServer startPrometheus(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            logger.info("Serving flow metrics in Prometheus format on port {}", port);
+            return server;
+        } catch (IOException e) {
+            logger.error("Could not serve flow metrics on port " + port, e);
+            return null;
+        }
+    }
+
+    /* Timers and histograms as summaries with their 0.5, 0.95 and 0.99 quantiles, counters as counters, and gauges
+     as counters if their family ends in _total, else as gauges */
+    String prometheusText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet())
+            summary(text, labels.get(entry.getKey()), entry.getValue().getSnapshot(), entry.getValue().getCount(), 1e-9);
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet())
+            summary(text, labels.get(entry.getKey()), entry.getValue().getSnapshot(), entry.getValue().getCount(), 1.0);
+        for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+            String[] metric = labels.get(entry.getKey());
+            if (metric == null) continue;
+            text.append("# TYPE ").append(metric[0]).append(" counter\n");
+            text.append(metric[0]).append(labelText(metric, null)).append(' ').append(entry.getValue().getCount()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+            String[] metric = labels.get(entry.getKey());
+            if (metric == null) continue;
+            text.append("# TYPE ").append(metric[0]).append(metric[0].endsWith("_total") ? " counter\n" : " gauge\n");
+            text.append(metric[0]).append(labelText(metric, null)).append(' ').append(entry.getValue().getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void summary(StringBuilder text, String[] metric, Snapshot snapshot, long count, double scale) {
+        if (metric == null) return;
+        text.append("# TYPE ").append(metric[0]).append(" summary\n");
+        text.append(metric[0]).append(labelText(metric, "0.5")).append(' ').append(snapshot.getMedian() * scale).append('\n');
+        text.append(metric[0]).append(labelText(metric, "0.95")).append(' ').append(snapshot.get95thPercentile() * scale).append('\n');
+        text.append(metric[0]).append(labelText(metric, "0.99")).append(' ').append(snapshot.get99thPercentile() * scale).append('\n');
+        text.append(metric[0]).append("_count").append(labelText(metric, null)).append(' ').append(count).append('\n');
+    }
+
+    private static String labelText(String[] metric, String quantile) {
+        StringBuilder text = new StringBuilder();
+        if (metric[1] != null) text.append(",flow=\"").append(escape(metric[1])).append('"');
+        if (metric[2] != null) text.append(",step=\"").append(escape(metric[2])).append('"');
+        if (quantile != null) text.append(",quantile=\"").append(quantile).append('"');
+        return text.length() == 0 ? "" : "{" + text.substring(1) + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /* Timing state of one flow run; step changes arrive on the flow's own thread */
+    private class Run {
+        private final String flow;
+        private final long started = System.nanoTime();
+        private final AtomicInteger vaultQueries = new AtomicInteger();
+        private final AtomicInteger roundTrips = new AtomicInteger();
+        private String step;
+        private long stepStarted = started;
+
+        private Run(String flow, String step) {
+            this.flow = flow;
+            this.step = step;
+        }
+
+        private synchronized void enter(String next) {
+            long now = System.nanoTime();
+            if (step != null) timer("dvp_flow_step_seconds", flow, step).update(now - stepStarted, TimeUnit.NANOSECONDS);
+            step = next;
+            stepStarted = now;
+        }
+    }
+}
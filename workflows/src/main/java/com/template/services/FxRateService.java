@@ -0,0 +1,117 @@
+package com.template.services;
+
+import com.template.flows.FxSnapshot;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The node's FX rate table: the value of one unit of each currency in a common unit of account. Flows take one
+ * {@link FxSnapshot} of it per trade; the snapshot is built when the table changes, not on every call.
+ *
+ * CorDapp config keys:
+ * <ul>
+ *     <li>{@code fx.rates} - the table inline, e.g. "USD=1,GBP=1.27,EUR=1.08"</li>
+ *     <li>{@code fx.ratesFile} - a properties file of the same entries, which replaces {@code fx.rates} and is
+ *     re-read whenever it changes</li>
+ *     <li>{@code fx.refreshSeconds} - how often the rates file is checked for changes, 60 if unset</li>
+ *     <li>{@code fx.maxDeviation} - how far, relatively, a counterparty's rate may be from ours, 0.01 if unset</li>
+ * </ul>
+ */
+@CordaService
+public class FxRateService extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(FxRateService.class);
+    private static final long DEFAULT_REFRESH_SECONDS = 60;
+    private static final String DEFAULT_MAX_DEVIATION = "0.01";
+
+    private final AppServiceHub serviceHub;
+    private final BigDecimal maxDeviation;
+    private volatile FxSnapshot snapshot;
+    private long ratesFileModified = -1L;
+
+    public FxRateService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.maxDeviation = new BigDecimal(config.exists("fx.maxDeviation")
+                ? config.getString("fx.maxDeviation") : DEFAULT_MAX_DEVIATION);
+
+        Map<String, BigDecimal> values = new HashMap<>();
+        if (config.exists("fx.rates"))
+            for (String entry : config.getString("fx.rates").split(",")) {
+                if (entry.trim().isEmpty()) continue;
+                String[] codeAndValue = entry.split("=");
+                if (codeAndValue.length != 2) throw new IllegalArgumentException("Malformed FX rate " + entry);
+                put(values, codeAndValue[0], codeAndValue[1]);
+            }
+        this.snapshot = new FxSnapshot(values, serviceHub.getClock().instant());
+
+        if (config.exists("fx.ratesFile")) {
+            File ratesFile = new File(config.getString("fx.ratesFile"));
+            long refreshSeconds = config.exists("fx.refreshSeconds")
+                    ? config.getLong("fx.refreshSeconds") : DEFAULT_REFRESH_SECONDS;
+            reload(ratesFile);
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "fx-rates");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> reload(ratesFile), refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /* The current rates; the same object until the table changes */
+    public FxSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /* Whether a counterparty's rate between two currencies is within fx.maxDeviation of ours. False if we have no
+     rate for the pair, since we cannot check it. */
+    public boolean agrees(FxSnapshot theirs, String from, String to) {
+        BigDecimal ours = snapshot.rate(from, to);
+        BigDecimal quoted = theirs.rate(from, to);
+        if (ours == null || quoted == null) return false;
+        return quoted.subtract(ours).abs().compareTo(ours.multiply(maxDeviation)) <= 0;
+    }
+
+    private synchronized void reload(File ratesFile) {
+        if (!ratesFile.isFile() || ratesFile.lastModified() == ratesFileModified) return;
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(ratesFile)) {
+            properties.load(in);
+            Map<String, BigDecimal> values = new HashMap<>();
+            for (String code : properties.stringPropertyNames()) put(values, code, properties.getProperty(code));
+            snapshot = new FxSnapshot(values, serviceHub.getClock().instant());
+            ratesFileModified = ratesFile.lastModified();
+            logger.info("Loaded {} FX rates from {}", values.size(), ratesFile);
+        } catch (IOException | IllegalArgumentException e) {
+            /* Keep trading on the last good table */
+            logger.warn("Could not load FX rates from {}", ratesFile, e);
+        }
+    }
+
+    private static void put(Map<String, BigDecimal> values, String code, String value) {
+        String currencyCode = Currency.getInstance(code.trim()).getCurrencyCode();
+        BigDecimal rate = new BigDecimal(value.trim());
+        if (rate.signum() <= 0) throw new IllegalArgumentException("FX rate of " + currencyCode + " must be positive");
+        values.put(currencyCode, rate);
+    }
+}
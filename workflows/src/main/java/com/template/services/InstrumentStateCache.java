@@ -0,0 +1,103 @@
+package com.template.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Node-local LRU cache of the unconsumed {@link InstrumentState} of each instrument, keyed by linear id.
+ *
+ * Entries are filled on a miss from the vault and kept coherent from the vault update feed: a consumed instrument is
+ * evicted and the evolved state produced in its place is cached. The size is bounded by the
+ * {@code instrumentCache.maxEntries} CorDapp config key.
+ */
+@CordaService
+public class InstrumentStateCache extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(InstrumentStateCache.class);
+    private static final long DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final AppServiceHub serviceHub;
+    private final Cache<UniqueIdentifier, StateAndRef<InstrumentState>> cache;
+
+    public InstrumentStateCache(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        long maxEntries = config.exists("instrumentCache.maxEntries")
+                ? config.getLong("instrumentCache.maxEntries") : DEFAULT_MAX_ENTRIES;
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+
+        /* The vault update feed is what keeps the cache coherent with the ledger */
+        serviceHub.getVaultService().getUpdates().subscribe(this::onVaultUpdate);
+    }
+
+    /* Returns the unconsumed instrument, from the cache if possible, or null if the vault does not know it either.
+     Must be called from a flow, since a miss queries the vault. */
+    public StateAndRef<InstrumentState> get(UniqueIdentifier linearId) {
+        StateAndRef<InstrumentState> cached = cache.getIfPresent(linearId);
+        if (cached != null) return cached;
+
+        QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null,
+                ImmutableList.of(linearId.getId()), null, Vault.StateStatus.UNCONSUMED);
+        List<StateAndRef<InstrumentState>> states = serviceHub.getVaultService()
+                .queryBy(InstrumentState.class, queryCriteria).getStates();
+        serviceHub.cordaService(FlowMetricsService.class).vaultQuery();
+        if (states.size() != 1) return null;
+
+        /* The feed may have cached a newer state while we queried; that one wins */
+        StateAndRef<InstrumentState> raced = cache.asMap().putIfAbsent(linearId, states.get(0));
+        return raced != null ? raced : states.get(0);
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private void onVaultUpdate(Vault.Update<ContractState> update) {
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            if (consumed.getState().getData() instanceof InstrumentState) {
+                UniqueIdentifier linearId = ((InstrumentState) consumed.getState().getData()).getLinearId();
+                StateAndRef<InstrumentState> cached = cache.getIfPresent(linearId);
+                if (cached != null && cached.getRef().equals(consumed.getRef()))
+                    cache.invalidate(linearId);
+            }
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            if (produced.getState().getData() instanceof InstrumentState) {
+                InstrumentState instrumentState = (InstrumentState) produced.getState().getData();
+                cache.put(instrumentState.getLinearId(), asInstrument(produced));
+            }
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Instrument cache size {}, {}", cache.size(), cache.stats());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StateAndRef<InstrumentState> asInstrument(StateAndRef<? extends ContractState> stateAndRef) {
+        return (StateAndRef<InstrumentState>) stateAndRef;
+    }
+}
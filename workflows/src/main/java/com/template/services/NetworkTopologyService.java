@@ -0,0 +1,141 @@
+package com.template.services;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the parties our flows route to, once, instead of on every flow run: the currency issuer of each currency
+ * and the notary to use for new states. Resolved parties are cached until the network map changes.
+ *
+ * With the SHARDED policy a new instrument is assigned a notary by consistent hashing of its linear id over all
+ * notaries, so instrument lifecycles spread across notaries and adding a notary only moves a share of new assignments.
+ * The ring is built from the notaries sorted by name, so every node assigns the same notary to the same linear id.
+ * States keep the notary they were created on; flows that consume them follow {@code state.getNotary()}.
+ *
+ * CorDapp config keys:
+ * <ul>
+ *     <li>{@code currencyIssuer.default} - X500 name of the currency issuer, "O=CurrencyIssuer,L=New York,C=US" if unset</li>
+ *     <li>{@code currencyIssuer.<currency code>} - X500 name of the issuer of one currency, e.g. {@code currencyIssuer.GBP}</li>
+ *     <li>{@code notary.policy} - SHARDED (default), FIRST, NAMED or ROUND_ROBIN over all notaries</li>
+ *     <li>{@code notary.name} - X500 name of the notary for the NAMED policy</li>
+ *     <li>{@code notary.virtualNodes} - points per notary on the SHARDED hash ring, 64 if unset</li>
+ * </ul>
+ */
+@CordaService
+public class NetworkTopologyService extends SingletonSerializeAsToken {
+
+    private static final String DEFAULT_CURRENCY_ISSUER = "O=CurrencyIssuer,L=New York,C=US";
+    private static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    public enum NotaryPolicy { SHARDED, FIRST, NAMED, ROUND_ROBIN }
+
+    private final AppServiceHub serviceHub;
+    private final CordappConfig config;
+    private final NotaryPolicy notaryPolicy;
+    private final int virtualNodes;
+    private final Map<String, Party> currencyIssuers = new ConcurrentHashMap<>();
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private volatile List<Party> notaries = null;
+    private volatile NavigableMap<Long, Party> notaryRing = null;
+
+    public NetworkTopologyService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.config = serviceHub.getAppContext().getConfig();
+        this.notaryPolicy = config.exists("notary.policy")
+                ? NotaryPolicy.valueOf(config.getString("notary.policy").toUpperCase()) : NotaryPolicy.SHARDED;
+        this.virtualNodes = config.exists("notary.virtualNodes")
+                ? config.getInt("notary.virtualNodes") : DEFAULT_VIRTUAL_NODES;
+
+        /* Anything we resolved may be stale once the network map changes */
+        serviceHub.getNetworkMapCache().getChanged().subscribe(change -> {
+            currencyIssuers.clear();
+            notaries = null;
+            notaryRing = null;
+        });
+    }
+
+    /* The issuer of the currency, or null if it is not on the network */
+    public Party currencyIssuer(String currencyCode) {
+        Party cached = currencyIssuers.get(currencyCode);
+        if (cached != null) return cached;
+
+        String key = "currencyIssuer." + currencyCode;
+        String name = config.exists(key) ? config.getString(key)
+                : config.exists("currencyIssuer.default") ? config.getString("currencyIssuer.default")
+                : DEFAULT_CURRENCY_ISSUER;
+        Party issuer = serviceHub.getNetworkMapCache().getPeerByLegalName(CordaX500Name.parse(name));
+        if (issuer != null) currencyIssuers.put(currencyCode, issuer);
+        return issuer;
+    }
+
+    /* All notaries on the network, in network map order */
+    public List<Party> notaries() {
+        List<Party> resolved = notaries;
+        if (resolved == null) {
+            resolved = Collections.unmodifiableList(new ArrayList<>(serviceHub.getNetworkMapCache().getNotaryIdentities()));
+            notaries = resolved;
+        }
+        return resolved;
+    }
+
+    /* The notary for the states of a new instrument. Under the SHARDED policy this is the notary the linear id hashes
+     to, under any other policy the same as notary(). */
+    public Party notaryFor(UniqueIdentifier linearId) {
+        if (notaryPolicy != NotaryPolicy.SHARDED) return notary();
+
+        NavigableMap<Long, Party> ring = notaryRing();
+        if (ring.isEmpty()) throw new IllegalStateException("No notary on the network");
+        Map.Entry<Long, Party> entry = ring.ceilingEntry(hash(linearId.getId().toString()));
+        return (entry != null ? entry : ring.firstEntry()).getValue();
+    }
+
+    /* The notary for new states that belong to no instrument, e.g. issued cash, according to the configured policy.
+     SHARDED behaves as FIRST here. */
+    public Party notary() {
+        List<Party> all = notaries();
+        if (all.isEmpty()) throw new IllegalStateException("No notary on the network");
+
+        switch (notaryPolicy) {
+            case NAMED:
+                CordaX500Name name = CordaX500Name.parse(config.getString("notary.name"));
+                return all.stream().filter(it -> it.getName().equals(name)).findFirst()
+                        .orElseThrow(() -> new IllegalStateException("Notary " + name + " not found"));
+            case ROUND_ROBIN:
+                return all.get(Math.floorMod(roundRobin.getAndIncrement(), all.size()));
+            default:
+                return all.get(0);
+        }
+    }
+
+    private NavigableMap<Long, Party> notaryRing() {
+        NavigableMap<Long, Party> ring = notaryRing;
+        if (ring == null) {
+            ring = new TreeMap<>();
+            List<Party> sorted = notaries().stream()
+                    .sorted(Comparator.comparing(it -> it.getName().toString()))
+                    .collect(Collectors.toList());
+            for (Party notary : sorted)
+                for (int i = 0; i < virtualNodes; i++)
+                    ring.put(hash(notary.getName() + "#" + i), notary);
+            ring = Collections.unmodifiableNavigableMap(ring);
+            notaryRing = ring;
+        }
+        return ring;
+    }
+
+    private static long hash(String key) {
+        return ByteBuffer.wrap(SecureHash.sha256(key).getBytes()).getLong();
+    }
+}
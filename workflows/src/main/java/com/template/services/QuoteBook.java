@@ -0,0 +1,59 @@
+package com.template.services;
+
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.template.flows.Quote;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The seller's open quotes, at most one per buyer and instrument. A sale to the buyer takes the quote, if it is still
+ * valid and matches the sale, and names it in the trade proposal; an expired quote is simply forgotten.
+ *
+ * The validity comes from the {@code quote.ttlSeconds} CorDapp config key, 30 seconds by default.
+ */
+@CordaService
+public class QuoteBook extends SingletonSerializeAsToken {
+
+    private static final long DEFAULT_TTL_SECONDS = 30;
+
+    private final AppServiceHub serviceHub;
+    private final long ttlSeconds;
+    private final Map<String, Quote> quotes = new ConcurrentHashMap<>();
+
+    public QuoteBook(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.ttlSeconds = config.exists("quote.ttlSeconds") ? config.getLong("quote.ttlSeconds") : DEFAULT_TTL_SECONDS;
+    }
+
+    /* Opens a quote for the buyer, replacing any earlier one for the same instrument */
+    public Quote quote(Party buyer, String instrumentId, IssuedTokenType issuedCurrency, long price) {
+        Instant now = serviceHub.getClock().instant();
+        quotes.values().removeIf(it -> it.getExpiresAt().isBefore(now));
+
+        Quote quote = new Quote(UUID.randomUUID(), instrumentId, issuedCurrency, price, now.plusSeconds(ttlSeconds));
+        quotes.put(key(buyer, instrumentId), quote);
+        return quote;
+    }
+
+    /* Takes the buyer's open quote for the sale, returning its id, or null if there is no valid matching quote */
+    public UUID take(Party buyer, String instrumentId, IssuedTokenType issuedCurrency, long price) {
+        Quote quote = quotes.remove(key(buyer, instrumentId));
+        if (quote == null || quote.getExpiresAt().isBefore(serviceHub.getClock().instant())) return null;
+        if (!quote.getIssuedCurrency().equals(issuedCurrency) || quote.getPrice() != price) return null;
+        return quote.getQuoteId();
+    }
+
+    private static String key(Party buyer, String instrumentId) {
+        return buyer.getName() + "/" + instrumentId.toLowerCase();
+    }
+}
@@ -0,0 +1,74 @@
+package com.template.services;
+
+import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.template.flows.Quote;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The buyer's side of {@link QuoteBook}: the quotes this node reserved cash for, with the seller each came from. A
+ * sale proposed against a quote id is only paid from the reservation if it matches the quote we hold, so a seller
+ * cannot name a quote made for another seller, instrument or price.
+ *
+ * The seller's expiry is never trusted as is: a reservation lasts at most the {@code quote.maxReserveSeconds}
+ * CorDapp config key, 60 seconds by default, on our own clock.
+ */
+@CordaService
+public class QuoteReservations extends SingletonSerializeAsToken {
+
+    private static final long DEFAULT_MAX_RESERVE_SECONDS = 60;
+
+    private final AppServiceHub serviceHub;
+    private final long maxReserveMillis;
+    private final Map<UUID, Reserved> reserved = new ConcurrentHashMap<>();
+
+    public QuoteReservations(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.maxReserveMillis = 1000L * (config.exists("quote.maxReserveSeconds")
+                ? config.getLong("quote.maxReserveSeconds") : DEFAULT_MAX_RESERVE_SECONDS);
+    }
+
+    /* When a reservation for the quote must expire: the seller's expiry, capped by our own maximum */
+    public long expiresAtMillis(Quote quote) {
+        return Math.min(quote.getExpiresAt().toEpochMilli(), serviceHub.getClock().millis() + maxReserveMillis);
+    }
+
+    /* Remembers the quote the seller gave us, once its cash is reserved until the given time */
+    public void record(Party seller, Quote quote, long expiresAtMillis) {
+        long now = serviceHub.getClock().millis();
+        reserved.values().removeIf(it -> it.expiresAtMillis < now);
+        reserved.put(quote.getQuoteId(), new Reserved(seller, quote, expiresAtMillis));
+    }
+
+    /* Takes the quote the seller proposes a sale against. True only if we hold an unexpired quote of that id from the
+     seller, for the same instrument, currency and price. */
+    public boolean take(UUID quoteId, Party seller, UUID linearId, IssuedTokenType issuedCurrency, long price) {
+        Reserved entry = reserved.get(quoteId);
+        if (entry == null || entry.expiresAtMillis < serviceHub.getClock().millis()) return false;
+        Quote quote = entry.quote;
+        if (!entry.seller.equals(seller) || !UUID.fromString(quote.getInstrumentId()).equals(linearId)
+                || !quote.getIssuedCurrency().equals(issuedCurrency) || quote.getPrice() != price) return false;
+        return reserved.remove(quoteId, entry);
+    }
+
+    private static class Reserved {
+        private final Party seller;
+        private final Quote quote;
+        private final long expiresAtMillis;
+
+        private Reserved(Party seller, Quote quote, long expiresAtMillis) {
+            this.seller = seller;
+            this.quote = quote;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
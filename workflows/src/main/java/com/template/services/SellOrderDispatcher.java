@@ -0,0 +1,183 @@
+package com.template.services;
+
+import com.template.flows.SellOrder;
+import com.template.flows.SellOrderOutcome;
+import com.template.flows.SellOrderReceipt;
+import com.template.flows.SubmitSellOrderFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs batches of sell orders, each through {@link SubmitSellOrderFlow} under its client order id, with a bounded
+ * number of sales in flight. Orders to the same buyer
+ * are started one after another in submission order; orders to different buyers run side by side, and a failed
+ * sale only frees its slot for the next order.
+ *
+ * Outcomes are queued per dispatch in completion order and handed out through {@link #nextOutcome(String, String)}.
+ * Each is handed out under the deduplication id of the request for it, and a repeated request, e.g. from a flow
+ * replaying from its last checkpoint, gets the same outcome again rather than the next one.
+ *
+ * Dispatches only live in memory. After a node restart the orchestrating flow resumes to an unknown dispatch and
+ * fails; since every order is idempotent by its client order id, the client resubmits the same orders to learn how
+ * each went without selling anything twice.
+ */
+@CordaService
+public class SellOrderDispatcher extends SingletonSerializeAsToken {
+
+    private final static Logger logger = LoggerFactory.getLogger(SellOrderDispatcher.class);
+
+    private final AppServiceHub serviceHub;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "sell-order-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Dispatch> dispatches = new ConcurrentHashMap<>();
+
+    public SellOrderDispatcher(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /* Queues the orders and returns the id used to collect their outcomes */
+    public String dispatch(List<SellOrder> orders, int window) {
+        if (window < 1) throw new IllegalArgumentException("Concurrency window must be at least 1");
+
+        String dispatchId = UUID.randomUUID().toString();
+        Dispatch dispatch = new Dispatch(dispatchId, orders, window);
+        dispatches.put(dispatchId, dispatch);
+
+        /* Flows are started from our own thread, never from the calling flow's fiber */
+        executor.execute(dispatch::pump);
+        return dispatchId;
+    }
+
+    /* Completes with the next finished order of the dispatch, in completion order, or with the outcome already handed
+     out under the same deduplication id */
+    public CompletableFuture<SellOrderOutcome> nextOutcome(String dispatchId, String deduplicationId) {
+        Dispatch dispatch = dispatches.get(dispatchId);
+        if (dispatch == null) {
+            CompletableFuture<SellOrderOutcome> unknown = new CompletableFuture<>();
+            unknown.completeExceptionally(new FlowException("Unknown dispatch " + dispatchId
+                    + ", it may have been lost on node restart; resubmit the same orders to collect their outcomes"));
+            return unknown;
+        }
+        return dispatch.next(deduplicationId);
+    }
+
+    /* Forgets a dispatch once all of its outcomes have been collected, or its flow stopped waiting for them */
+    public void release(String dispatchId) {
+        dispatches.remove(dispatchId);
+    }
+
+    private class Dispatch {
+        private final String id;
+        private final int window;
+        private final int total;
+        private final Map<Party, Deque<Integer>> pendingByBuyer = new LinkedHashMap<>();
+        private final Deque<Party> readyBuyers = new ArrayDeque<>();
+        private final List<SellOrder> orders;
+        private final Deque<SellOrderOutcome> outcomes = new ArrayDeque<>();
+        private final Deque<CompletableFuture<SellOrderOutcome>> waiters = new ArrayDeque<>();
+        /* Every outcome handed out, or promised, by the deduplication id it went to */
+        private final Map<String, CompletableFuture<SellOrderOutcome>> handedOut = new HashMap<>();
+        private int inFlight = 0;
+        private int published = 0;
+
+        private Dispatch(String id, List<SellOrder> orders, int window) {
+            this.id = id;
+            this.orders = new ArrayList<>(orders);
+            this.window = window;
+            this.total = orders.size();
+            for (int i = 0; i < this.orders.size(); i++) {
+                Party buyer = this.orders.get(i).getBuyer();
+                pendingByBuyer.computeIfAbsent(buyer, it -> {
+                    readyBuyers.add(it);
+                    return new ArrayDeque<>();
+                }).add(i);
+            }
+        }
+
+        /* Starts orders until the window is full or every buyer already has a sale in flight */
+        private synchronized void pump() {
+            while (inFlight < window && !readyBuyers.isEmpty()) {
+                Party buyer = readyBuyers.poll();
+                int index = pendingByBuyer.get(buyer).poll();
+                inFlight++;
+                start(index);
+            }
+        }
+
+        private void start(int index) {
+            SellOrder order = orders.get(index);
+            CompletableFuture<SellOrderReceipt> result;
+            try {
+                result = serviceHub.startFlow(new SubmitSellOrderFlow(order.getClientOrderId(), order.getInstrumentId(),
+                        order.getBuyer(), order.getIssuedCurrency())).getReturnValue().toCompletableFuture();
+            } catch (Exception e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+            result.whenCompleteAsync((receipt, error) -> complete(index, receipt, error), executor);
+        }
+
+        private synchronized void complete(int index, SellOrderReceipt receipt, Throwable error) {
+            SellOrder order = orders.get(index);
+            inFlight--;
+
+            SellOrderOutcome outcome;
+            if (error == null) {
+                /* A resubmitted order reports how the earlier submission went, or that it is still running */
+                String message = receipt.getStatus() == SellOrderReceipt.Status.IN_FLIGHT
+                        ? "Already being sold by flow " + receipt.getFlowId() : receipt.getMessage();
+                outcome = new SellOrderOutcome(index, order, receipt.getStatus() == SellOrderReceipt.Status.COMPLETED,
+                        message);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                logger.warn("Sell order {} of dispatch {} failed: {}", order, id, cause.getMessage());
+                outcome = new SellOrderOutcome(index, order, false, cause.getMessage());
+            }
+            publish(outcome);
+
+            /* The next order of this buyer may only start now that the previous one has finished */
+            if (!pendingByBuyer.get(order.getBuyer()).isEmpty())
+                readyBuyers.add(order.getBuyer());
+            pump();
+        }
+
+        private synchronized void publish(SellOrderOutcome outcome) {
+            published++;
+            CompletableFuture<SellOrderOutcome> waiter = waiters.poll();
+            if (waiter != null) waiter.complete(outcome);
+            else outcomes.add(outcome);
+        }
+
+        private synchronized CompletableFuture<SellOrderOutcome> next(String deduplicationId) {
+            CompletableFuture<SellOrderOutcome> earlier = handedOut.get(deduplicationId);
+            if (earlier != null) return earlier;
+
+            SellOrderOutcome outcome = outcomes.poll();
+            if (outcome != null) {
+                CompletableFuture<SellOrderOutcome> ready = CompletableFuture.completedFuture(outcome);
+                handedOut.put(deduplicationId, ready);
+                return ready;
+            }
+            if (published == total) {
+                CompletableFuture<SellOrderOutcome> done = new CompletableFuture<>();
+                done.completeExceptionally(new NoSuchElementException("All outcomes of dispatch " + id + " were collected"));
+                return done;
+            }
+            CompletableFuture<SellOrderOutcome> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            handedOut.put(deduplicationId, waiter);
+            return waiter;
+        }
+    }
+}
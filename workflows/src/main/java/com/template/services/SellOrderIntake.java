@@ -0,0 +1,75 @@
+package com.template.services;
+
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The in-memory side of sell order intake: which order currently sells each instrument. A second order for an
+ * instrument is turned away here before it touches the database, sessions or soft locks, and a retry of the running
+ * order finds the flow already selling it.
+ *
+ * Sales started without a sell order, i.e. {@link com.template.flows.SellInstrumentFlow} or
+ * {@link com.template.flows.BatchSellInstrumentFlow} run directly, claim their instruments here too under the selling
+ * flow's run id, so no instrument is ever sold by two flows at once whichever way the sales come in.
+ *
+ * Claims only live as long as the node runs; orders resumed from a checkpoint after a restart are still found in the
+ * sell order table.
+ */
+@CordaService
+public class SellOrderIntake extends SingletonSerializeAsToken {
+
+    private static final String FLOW_CLAIM = "flow ";
+
+    private final Map<String, Claim> claims = new ConcurrentHashMap<>();
+
+    public SellOrderIntake(AppServiceHub serviceHub) {
+    }
+
+    /* Claims the instrument for the order; returns the existing claim instead if the instrument is already claimed */
+    public Claim claim(String linearId, String clientOrderId, String flowId) {
+        return claims.putIfAbsent(key(linearId), new Claim(clientOrderId, flowId));
+    }
+
+    /* Frees the instrument, if the order still holds it */
+    public void release(String linearId, String clientOrderId) {
+        claims.computeIfPresent(key(linearId), (id, claim) -> claim.clientOrderId.equals(clientOrderId) ? null : claim);
+    }
+
+    /* Claims the instrument for a sale outside any sell order. Returns null if the flow holds the instrument now,
+     possibly through the order it runs for, or else the claim of the order or flow selling it. */
+    public Claim claimForFlow(String linearId, String flowId) {
+        Claim existing = claims.putIfAbsent(key(linearId), new Claim(FLOW_CLAIM + flowId, flowId));
+        return existing == null || existing.flowId.equals(flowId) ? null : existing;
+    }
+
+    /* Frees the instrument, if the flow claimed it itself rather than through a sell order */
+    public void releaseForFlow(String linearId, String flowId) {
+        release(linearId, FLOW_CLAIM + flowId);
+    }
+
+    private static String key(String linearId) {
+        return linearId.toLowerCase();
+    }
+
+    public static class Claim {
+        private final String clientOrderId;
+        private final String flowId;
+
+        private Claim(String clientOrderId, String flowId) {
+            this.clientOrderId = clientOrderId;
+            this.flowId = flowId;
+        }
+
+        public String getClientOrderId() {
+            return clientOrderId;
+        }
+
+        public String getFlowId() {
+            return flowId;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.template.services;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.*;
+
+/**
+ * Lists the back-chain of states from our transaction storage, so a counterparty can be told the whole chain up front
+ * and fetch what it lacks in a few large batches, rather than discovering it one dependency level per round trip.
+ *
+ * Transactions never change, so the direct dependencies of each transaction are cached once read.
+ *
+ * CorDapp config keys:
+ * <ul>
+ *     <li>{@code chainSync.minLength} - chains shorter than this are left to the usual resolution, 10 if unset</li>
+ *     <li>{@code chainSync.batchSize} - transactions asked for per message when receiving a chain, 100 if unset</li>
+ *     <li>{@code chainSync.cacheSize} - transactions whose dependencies are cached, 10000 if unset</li>
+ * </ul>
+ */
+@CordaService
+public class TransactionChainService extends SingletonSerializeAsToken {
+
+    private static final int DEFAULT_MIN_LENGTH = 10;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    private final AppServiceHub serviceHub;
+    private final int minLength;
+    private final int batchSize;
+    private final Map<SecureHash, List<SecureHash>> dependencies;
+
+    public TransactionChainService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.minLength = config.exists("chainSync.minLength") ? config.getInt("chainSync.minLength") : DEFAULT_MIN_LENGTH;
+        this.batchSize = config.exists("chainSync.batchSize") ? config.getInt("chainSync.batchSize") : DEFAULT_BATCH_SIZE;
+        final int cacheSize = config.exists("chainSync.cacheSize") ? config.getInt("chainSync.cacheSize") : DEFAULT_CACHE_SIZE;
+        this.dependencies = Collections.synchronizedMap(new LinkedHashMap<SecureHash, List<SecureHash>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SecureHash, List<SecureHash>> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /* Ids of the transactions the states depend on, their own transactions included, every transaction after all of
+     its dependencies. Empty if the chain is shorter than chainSync.minLength. Must be called from a flow. */
+    public List<SecureHash> chainOf(Collection<StateRef> refs) {
+        final List<SecureHash> ordered = new ArrayList<>();
+        final Set<SecureHash> expanded = new HashSet<>();
+        final Set<SecureHash> done = new HashSet<>();
+        final Deque<SecureHash> stack = new ArrayDeque<>();
+        for (StateRef ref : refs) stack.push(ref.getTxhash());
+
+        /* Depth-first, emitting a transaction once all its dependencies have been */
+        while (!stack.isEmpty()) {
+            SecureHash id = stack.peek();
+            if (done.contains(id)) {
+                stack.pop();
+            } else if (expanded.add(id)) {
+                List<SecureHash> deps = dependenciesOf(id);
+                if (deps == null) {
+                    /* Not in our storage, so not ours to offer */
+                    stack.pop();
+                    done.add(id);
+                    continue;
+                }
+                for (SecureHash dep : deps) if (!done.contains(dep)) stack.push(dep);
+            } else {
+                stack.pop();
+                done.add(id);
+                ordered.add(id);
+            }
+        }
+        return ordered.size() < minLength ? Collections.emptyList() : ordered;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private List<SecureHash> dependenciesOf(SecureHash id) {
+        List<SecureHash> cached = dependencies.get(id);
+        if (cached != null) return cached;
+
+        SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(id);
+        if (stx == null) return null;
+        Set<SecureHash> deps = new LinkedHashSet<>();
+        for (StateRef input : stx.getInputs()) deps.add(input.getTxhash());
+        for (StateRef reference : stx.getReferences()) deps.add(reference.getTxhash());
+        List<SecureHash> resolved = Collections.unmodifiableList(new ArrayList<>(deps));
+        dependencies.put(id, resolved);
+        return resolved;
+    }
+}
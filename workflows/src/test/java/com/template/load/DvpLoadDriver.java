@@ -0,0 +1,100 @@
+package com.template.load;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.template.flows.CreateAndIssue;
+import com.template.flows.IssueCurrencyFlow;
+import com.template.flows.SellInstrumentFlow;
+import com.template.states.InstrumentState;
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.testing.driver.DriverDSL;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.node.TestCordapp;
+import net.corda.testing.node.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static net.corda.testing.common.internal.ParametersUtilitiesKt.testNetworkParameters;
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * Driver mode of the DvP load harness: the same run as {@link DvpLoadTest}, against full in-process nodes started by
+ * the driver, like NodeDriver, and driven over RPC. Step latencies come from the flow progress feed, so they include
+ * the RPC round trips. Start with the runLoadDriver Gradle task; the settings are those of {@link LoadRunner}.
+ */
+public class DvpLoadDriver {
+
+    private final static Logger logger = LoggerFactory.getLogger(DvpLoadDriver.class);
+
+    public static void main(String[] args) {
+        final List<User> rpcUsers = ImmutableList.of(new User("user1", "test", ImmutableSet.of("ALL")));
+
+        final boolean completed = driver(new DriverParameters()
+                .withStartNodesInProcess(true)
+                .withNetworkParameters(testNetworkParameters(Collections.emptyList(), 4))
+                .withCordappsForAllNodes(ImmutableList.of(
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.workflows"),
+                        TestCordapp.findCordapp("com.template.contracts"),
+                        TestCordapp.findCordapp("com.template.flows"))), dsl -> {
+            try {
+                CordaRPCOps seller = startNode(dsl, "O=PartyA,L=London,C=GB", rpcUsers);
+                CordaRPCOps buyer = startNode(dsl, "O=PartyB,L=New York,C=US", rpcUsers);
+                CordaRPCOps currencyIssuer = startNode(dsl, "O=CurrencyIssuer,L=New York,C=US", rpcUsers);
+
+                Party sellerParty = seller.nodeInfo().getLegalIdentities().get(0);
+                Party buyerParty = buyer.nodeInfo().getLegalIdentities().get(0);
+
+                Amount<Currency> price = new Amount<>(LoadRunner.PRICE, Currency.getInstance("USD"));
+                for (int i = 0; i < LoadRunner.INSTRUMENTS; i++)
+                    seller.startFlowDynamic(CreateAndIssue.class, sellerParty, "Load-" + i, 2020, "LOAD", price, 1, price)
+                            .getReturnValue().get(LoadRunner.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                for (int i = 0; i < LoadRunner.CASH_STATES; i++)
+                    currencyIssuer.startFlowDynamic(IssueCurrencyFlow.class, LoadRunner.cashStateAmount(), "USD", buyerParty)
+                            .getReturnValue().get(LoadRunner.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                List<String> instrumentIds = seller.vaultQueryByWithPagingSpec(InstrumentState.class,
+                        new QueryCriteria.VaultQueryCriteria(), new PageSpecification(1, Math.max(1, LoadRunner.INSTRUMENTS)))
+                        .getStates().stream()
+                        .map(it -> it.getState().getData().getLinearId().getId().toString())
+                        .collect(Collectors.toList());
+
+                LoadReport report = LoadRunner.run(instrumentIds, (instrumentId, clock) -> {
+                    FlowProgressHandle<String> handle = seller.startTrackedFlowDynamic(SellInstrumentFlow.class,
+                            instrumentId, buyerParty, "USD");
+                    handle.getProgress().subscribe(clock::onStep, error -> { });
+                    return handle.getReturnValue();
+                });
+                report.print(System.out);
+                return true;
+            } catch (Exception e) {
+                logger.error("Load run failed", e);
+                return false;
+            }
+        });
+        /* Exit only once the driver has shut the nodes down, and non-zero so scripts and CI see the failure */
+        if (!completed) System.exit(1);
+    }
+
+    private static CordaRPCOps startNode(DriverDSL dsl, String name, List<User> rpcUsers)
+            throws Exception {
+        NodeHandle handle = dsl.startNode(new NodeParameters()
+                .withProvidedName(CordaX500Name.parse(name))
+                .withRpcUsers(rpcUsers)).get();
+        return handle.getRpc();
+    }
+}
@@ -0,0 +1,123 @@
+package com.template.load;
+
+import com.google.common.collect.ImmutableList;
+import com.template.flows.CreateAndIssue;
+import com.template.flows.IssueCurrencyFlow;
+import com.template.flows.SellInstrumentFlow;
+import com.template.states.InstrumentState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.testing.node.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static net.corda.testing.common.internal.ParametersUtilitiesKt.testNetworkParameters;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * DvP load harness on the same MockNetwork setup as FlowTests, with a seller, a buyer and the currency issuer. Each node
+ * runs on its own thread and messages are delivered as they are sent, so concurrent sales contend as on a real
+ * network, without leaving the JVM.
+ *
+ * Seeds the instruments on the seller with CreateAndIssue and the buyer's cash with IssueCurrencyFlow, then sells every
+ * instrument with SellInstrumentFlow at the configured rate (see {@link LoadRunner}) and prints throughput and
+ * latency percentiles for every step of the seller's flow. Skipped unless {@code dvp.load} is set, as the loadTest
+ * Gradle task does.
+ */
+public class DvpLoadTest {
+
+    private MockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+    private StartedMockNode currencyIssuer;
+
+    @Before
+    public void setup() {
+        assumeTrue("Run with -Ddvp.load=true or the loadTest task", Boolean.getBoolean("dvp.load"));
+
+        network = new MockNetwork(new MockNetworkParameters(ImmutableList.of(
+                TestCordapp.findCordapp("com.r3.corda.lib.tokens.contracts"),
+                TestCordapp.findCordapp("com.r3.corda.lib.tokens.workflows"),
+                TestCordapp.findCordapp("com.template.contracts"),
+                TestCordapp.findCordapp("com.template.flows")))
+                .withThreadPerNode(true)
+                .withNetworkSendManuallyPumped(false)
+                .withNetworkParameters(testNetworkParameters(Collections.emptyList(), 4)));
+        seller = network.createNode(new MockNodeParameters()
+                .withLegalName(CordaX500Name.parse("O=PartyA,L=London,C=GB")));
+        buyer = network.createNode(new MockNodeParameters()
+                .withLegalName(CordaX500Name.parse("O=PartyB,L=New York,C=US")));
+        currencyIssuer = network.createNode(new MockNodeParameters()
+                .withLegalName(CordaX500Name.parse("O=CurrencyIssuer,L=New York,C=US")));
+    }
+
+    @After
+    public void tearDown() {
+        if (network != null) network.stopNodes();
+    }
+
+    @Test
+    public void sellInstrumentsAtFixedRate() throws Exception {
+        final Party buyerParty = buyer.getInfo().getLegalIdentities().get(0);
+
+        final List<String> instrumentIds = seedInstruments();
+        seedCash(buyerParty);
+
+        final LoadReport report = LoadRunner.run(instrumentIds, (instrumentId, clock) -> {
+            SellInstrumentFlow flow = new SellInstrumentFlow(instrumentId, buyerParty, "USD");
+            track(flow.getProgressTracker(), clock);
+            return seller.startFlow(flow);
+        });
+        report.print(System.out);
+
+        assertEquals(0, report.failed());
+        assertEquals(instrumentIds.size(), report.succeeded());
+    }
+
+    /* Step changes of the flow's own tracker only; steps of sub-flows are part of the step that runs them */
+    private static void track(ProgressTracker tracker, LoadReport.StepClock clock) {
+        clock.onStep(tracker.getCurrentStep().getLabel());
+        tracker.getChanges().subscribe(change -> {
+            if (change instanceof ProgressTracker.Change.Position && change.getProgressTracker() == tracker)
+                clock.onStep(((ProgressTracker.Change.Position) change).getNewStep().getLabel());
+        }, error -> { });
+    }
+
+    private List<String> seedInstruments() throws Exception {
+        final Party sellerParty = seller.getInfo().getLegalIdentities().get(0);
+        final Amount<Currency> price = new Amount<>(LoadRunner.PRICE, Currency.getInstance("USD"));
+
+        List<CordaFuture<String>> seeded = new ArrayList<>();
+        for (int i = 0; i < LoadRunner.INSTRUMENTS; i++)
+            seeded.add(seller.startFlow(new CreateAndIssue(sellerParty, "Load-" + i, 2020, "LOAD", price, 1, price)));
+        for (CordaFuture<String> future : seeded) future.get(LoadRunner.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        return seller.transaction(() -> seller.getServices().getVaultService()
+                .queryBy(InstrumentState.class, new QueryCriteria.VaultQueryCriteria(),
+                        new PageSpecification(1, Math.max(1, LoadRunner.INSTRUMENTS)))
+                .getStates().stream()
+                .map(it -> it.getState().getData().getLinearId().getId().toString())
+                .collect(Collectors.toList()));
+    }
+
+    private void seedCash(Party buyerParty) throws Exception {
+        List<CordaFuture<String>> seeded = new ArrayList<>();
+        for (int i = 0; i < LoadRunner.CASH_STATES; i++)
+            seeded.add(currencyIssuer.startFlow(new IssueCurrencyFlow(LoadRunner.cashStateAmount(), "USD", buyerParty)));
+        for (CordaFuture<String> future : seeded) future.get(LoadRunner.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,92 @@
+package com.template.load;
+
+import net.corda.core.utilities.ProgressTracker;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latencies collected by a load run: end-to-end per sale and per progress tracker step of the selling flow, printed
+ * as throughput and p50/p95/p99 in milliseconds.
+ */
+final class LoadReport {
+
+    private static final String DONE = ProgressTracker.DONE.INSTANCE.getLabel();
+
+    private final Map<String, List<Long>> stepNanos = new ConcurrentHashMap<>();
+    private final List<Long> saleNanos = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long elapsedNanos;
+
+    /* Measures the time between the step changes of one flow run */
+    final class StepClock {
+        private String current = null;
+        private long since = System.nanoTime();
+
+        synchronized void onStep(String label) {
+            long now = System.nanoTime();
+            if (current != null) step(current, now - since);
+            current = label;
+            since = now;
+        }
+
+        /* Closes the last step when the flow's result arrives, unless the flow already reported its Done step */
+        synchronized void finish() {
+            if (current != null && !current.equals(DONE)) step(current, System.nanoTime() - since);
+            current = null;
+        }
+    }
+
+    StepClock newClock() {
+        return new StepClock();
+    }
+
+    void step(String label, long nanos) {
+        stepNanos.computeIfAbsent(label, it -> Collections.synchronizedList(new ArrayList<>())).add(nanos);
+    }
+
+    void sale(long nanos, boolean succeeded) {
+        if (succeeded) saleNanos.add(nanos);
+        else failures.incrementAndGet();
+    }
+
+    void finished(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    int succeeded() {
+        return saleNanos.size();
+    }
+
+    int failed() {
+        return failures.get();
+    }
+
+    void print(PrintStream out) {
+        double seconds = elapsedNanos / 1e9;
+        out.println();
+        out.printf("DvP load: %d sales succeeded, %d failed in %.2f s, %.2f sales/s%n",
+                succeeded(), failed(), seconds, seconds > 0 ? succeeded() / seconds : 0.0);
+        out.printf("%-60s %8s %10s %10s %10s%n", "step", "count", "p50 ms", "p95 ms", "p99 ms");
+        printRow(out, "end-to-end", saleNanos);
+        for (Map.Entry<String, List<Long>> entry : new TreeMap<>(stepNanos).entrySet())
+            printRow(out, entry.getKey(), entry.getValue());
+    }
+
+    private static void printRow(PrintStream out, String label, List<Long> samples) {
+        long[] sorted;
+        synchronized (samples) {
+            sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        if (sorted.length == 0) return;
+        out.printf("%-60s %8d %10.2f %10.2f %10.2f%n", label.length() > 60 ? label.substring(0, 60) : label,
+                sorted.length, percentile(sorted, 50) / 1e6, percentile(sorted, 95) / 1e6, percentile(sorted, 99) / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,85 @@
+package com.template.load;
+
+import net.corda.core.concurrent.CordaFuture;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open-loop load generator shared by the MockNetwork harness and the driver: starts one sale per instrument at a fixed
+ * rate, whether or not earlier sales have finished, so that concurrency follows from the rate and the latency.
+ *
+ * Settings are read from system properties:
+ * <ul>
+ *     <li>{@code dvp.load.instruments} - instruments seeded and sold, 100 if unset</li>
+ *     <li>{@code dvp.load.cashStates} - currency states issued to the buyer, 200 if unset</li>
+ *     <li>{@code dvp.load.rate} - sales started per second, 10 if unset</li>
+ *     <li>{@code dvp.load.price} - price of each instrument in cents, 10000 if unset</li>
+ *     <li>{@code dvp.load.timeoutSeconds} - time allowed for seeding and for the sales, 600 if unset</li>
+ * </ul>
+ */
+final class LoadRunner {
+
+    static final int INSTRUMENTS = Integer.getInteger("dvp.load.instruments", 100);
+    static final int CASH_STATES = Integer.getInteger("dvp.load.cashStates", 200);
+    static final double RATE = Double.parseDouble(System.getProperty("dvp.load.rate", "10"));
+    static final long PRICE = Long.getLong("dvp.load.price", 10_000L);
+    static final long TIMEOUT_SECONDS = Long.getLong("dvp.load.timeoutSeconds", 600L);
+
+    /* Starts the sale of one instrument and reports its progress steps to the clock */
+    interface SaleStarter {
+        CordaFuture<?> start(String instrumentId, LoadReport.StepClock clock);
+    }
+
+    private LoadRunner() {
+    }
+
+    /* Amount of each currency state, so that the buyer can pay for every instrument */
+    static int cashStateAmount() {
+        return Math.toIntExact(INSTRUMENTS * PRICE / CASH_STATES + PRICE);
+    }
+
+    static LoadReport run(List<String> instrumentIds, SaleStarter starter) throws InterruptedException {
+        final LoadReport report = new LoadReport();
+        final CountDownLatch done = new CountDownLatch(instrumentIds.size());
+        final AtomicInteger next = new AtomicInteger();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        final long started = System.nanoTime();
+        scheduler.scheduleAtFixedRate(() -> {
+            int index = next.getAndIncrement();
+            if (index >= instrumentIds.size()) return;
+
+            LoadReport.StepClock clock = report.newClock();
+            long saleStarted = System.nanoTime();
+            try {
+                starter.start(instrumentIds.get(index), clock).then(future -> {
+                    boolean succeeded;
+                    try {
+                        future.get();
+                        succeeded = true;
+                    } catch (InterruptedException | ExecutionException e) {
+                        succeeded = false;
+                    }
+                    clock.finish();
+                    report.sale(System.nanoTime() - saleStarted, succeeded);
+                    done.countDown();
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                report.sale(System.nanoTime() - saleStarted, false);
+                done.countDown();
+            }
+        }, 0L, Math.max(1L, (long) (1e9 / RATE)), TimeUnit.NANOSECONDS);
+
+        try {
+            if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                throw new IllegalStateException(done.getCount() + " sales did not finish in " + TIMEOUT_SECONDS + " s");
+        } finally {
+            scheduler.shutdownNow();
+        }
+        report.finished(System.nanoTime() - started);
+        return report;
+    }
+}